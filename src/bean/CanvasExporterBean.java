@@ -1,44 +1,64 @@
 package bean;
 
 import core.class_diagram.*;
-import javafx.embed.swing.SwingFXUtils;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
 import javafx.stage.FileChooser;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
 
 public class CanvasExporterBean {
 
-    public static void exportToImage(Node canvas, String format) {
-        // Capture the canvas as an image
-        WritableImage snapshot = canvas.snapshot(new SnapshotParameters(), null);
-
-        // Convert to a BufferedImage
-        BufferedImage bufferedImage = SwingFXUtils.fromFXImage(snapshot, null);
-
-        // Handle alpha channel for JPG specifically
-        if ("jpg".equalsIgnoreCase(format)) {
-            // Create a new BufferedImage without alpha channel
-            BufferedImage rgbImage = new BufferedImage(
-                    bufferedImage.getWidth(),
-                    bufferedImage.getHeight(),
-                    BufferedImage.TYPE_INT_RGB
-            );
-            // Paint the original image onto the new one (removing transparency)
-            Graphics2D graphics = rgbImage.createGraphics();
-            graphics.drawImage(bufferedImage, 0, 0, Color.WHITE, null);
-            graphics.dispose();
-            bufferedImage = rgbImage;
-        }
+    // Output tiles stay well inside the largest texture every rendering pipeline supports
+    private static final int TILE_SIZE = 2048;
+    // Pixels in one band of tiles; an export holds two bands, the one being encoded and the one being rendered
+    private static final int BAND_PIXELS = 8 * 1024 * 1024;
+    // Largest JPG export: the JDK's JPEG writer reads its source image in full, so a JPG is encoded from one RGB image
+    // of the whole export, 4 bytes a pixel (256 MB at this size). PNGs are streamed band by band and have no limit.
+    public static final long MAX_JPG_PIXELS = 64L * 1024 * 1024;
+
+    // Encodes exports one at a time, so the FX thread only ever takes the snapshots
+    private static final ExecutorService ENCODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-export");
+        thread.setDaemon(true);
+        return thread;
+    });
 
+    // Renders the canvas at the given scale one band of tiles at a time, each tile its own snapshot, so no texture or
+    // image the size of the whole export is ever allocated. The FX thread snapshots one band per pulse while the
+    // previous band is encoded in the background: PNG bands are encoded as they arrive, JPG bands are copied into a
+    // single RGB image (one int per pixel) that is encoded at the end, so a JPG export needs memory for the whole image
+    // and callers keep JPGs within MAX_JPG_PIXELS (see imagePixels).
+    // The class canvas is rendered from an off-screen copy of its diagram, so the editor keeps its view and stays
+    // editable, and every tile shows the diagram as it was when the export started. Other panels are snapshotted live
+    // and ignore the mouse until the export is done.
+    // onProgress gets the fraction of rows encoded so far and onComplete the written file, or the error that stopped
+    // the export; both are called on the FX thread. Returns false if no export was started: the user cancelled the file
+    // chooser, or the canvas' transform cannot be undone, in which case onComplete already has the error.
+    public static boolean exportToImage(Node canvas, String format, double scale, DoubleConsumer onProgress, BiConsumer<File, Exception> onComplete) {
         // Show file chooser for save location
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save as " + format.toUpperCase());
@@ -47,14 +67,156 @@ public class CanvasExporterBean {
         );
 
         File file = fileChooser.showSaveDialog(canvas.getScene().getWindow());
-        if (file != null) {
+        if (file == null) {
+            return false;
+        }
+
+        TiledSnapshot snapshot;
+        try {
+            snapshot = new TiledSnapshot(canvas, scale);
+        } catch (NonInvertibleTransformException e) {
+            System.err.println("Error exporting image: " + e.getMessage());
+            onComplete.accept(null, e);
+            return false;
+        }
+        ENCODER.execute(() -> {
+            Exception failure = null;
             try {
-                // Write the image to the selected file
-                ImageIO.write(bufferedImage, format, file);
-                System.out.println("Exported to " + file.getAbsolutePath());
-            } catch (IOException e) {
+                encode(snapshot, format, file, progress -> Platform.runLater(() -> onProgress.accept(progress)));
+            } catch (Exception e) {
                 e.printStackTrace();
                 System.err.println("Error exporting image: " + e.getMessage());
+                file.delete(); // Never leave half an image behind
+                failure = e;
+            }
+            Exception error = failure;
+            Platform.runLater(() -> {
+                snapshot.release();
+                onComplete.accept(error == null ? file : null, error);
+            });
+        });
+        return true;
+    }
+
+    // Pixels in the image exportToImage would write for the canvas at the given scale
+    public static long imagePixels(Node canvas, double scale) {
+        Bounds content = contentBounds(canvas);
+        return (long) outputSize(content.getWidth(), scale) * outputSize(content.getHeight(), scale);
+    }
+
+    // The class canvas is as large as its diagram but only has nodes near the viewport; other panels hold every node
+    private static Bounds contentBounds(Node canvas) {
+        return canvas instanceof ClassDiagramCanvasPanel ? canvas.getLayoutBounds() : canvas.getBoundsInLocal();
+    }
+
+    private static int outputSize(double size, double scale) {
+        return Math.max(1, (int) Math.ceil(size * scale));
+    }
+
+    // Runs on the encoder thread; asks the FX thread for band after band, always one ahead of the band being encoded
+    private static void encode(TiledSnapshot snapshot, String format, File file, DoubleConsumer progress) throws Exception {
+        int width = snapshot.width;
+        int height = snapshot.height;
+        int[][] bands = {new int[width * snapshot.bandHeight], new int[width * snapshot.bandHeight]};
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+             PngEncoderBean png = "png".equalsIgnoreCase(format) ? new PngEncoderBean(out, width, height) : null) {
+            // Handle alpha channel for JPG specifically: the snapshot fill is opaque white, so dropping alpha is enough
+            BufferedImage rgbImage = png == null ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB) : null;
+
+            CompletableFuture<Void> rendered = snapshot.render(0, bands[0]);
+            for (int index = 0, y = 0; y < height; index++, y += snapshot.bandHeight) {
+                try {
+                    rendered.join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+                int[] band = bands[index % 2];
+                int rows = Math.min(snapshot.bandHeight, height - y);
+                if (y + rows < height) {
+                    rendered = snapshot.render(y + rows, bands[(index + 1) % 2]);
+                }
+                if (png != null) {
+                    png.writeRows(band, 0, width, rows);
+                } else {
+                    rgbImage.setRGB(0, y, width, rows, band, 0, width);
+                }
+                progress.accept((double) (y + rows) / height);
+            }
+
+            // Write the image to the selected file
+            if (png != null) {
+                png.finish();
+            } else if (!ImageIO.write(rgbImage, format, out)) {
+                throw new IOException("No writer for " + format + " images");
+            }
+        }
+    }
+
+    // The canvas cut into bands of tiles at the export's scale. Only touched on the FX thread, except the sizes.
+    private static class TiledSnapshot {
+        final Node canvas;
+        final Node source; // What the tiles are taken from: the class canvas' off-screen copy, or the canvas itself
+        final Bounds content;
+        final double scale;
+        final int width;
+        final int height;
+        final int bandHeight;
+        private final SnapshotParameters parameters = new SnapshotParameters();
+        private WritableImage tile; // Reused by every snapshot it is large enough for
+
+        TiledSnapshot(Node canvas, double scale) throws NonInvertibleTransformException {
+            this.canvas = canvas;
+            this.scale = scale;
+            content = contentBounds(canvas);
+            source = canvas instanceof ClassDiagramCanvasPanel classCanvas ? classCanvas.offscreenCopy() : canvas;
+            width = outputSize(content.getWidth(), scale);
+            height = outputSize(content.getHeight(), scale);
+            bandHeight = Math.max(1, Math.min(TILE_SIZE, BAND_PIXELS / width));
+            // Snapshots apply the node's own transform first, so undo it: pixel (0, 0) is the content's top left corner
+            parameters.setTransform(new Scale(scale, scale)
+                    .createConcatenation(new Translate(-content.getMinX(), -content.getMinY()))
+                    .createConcatenation(source.getLocalToParentTransform().createInverse()));
+            if (source == canvas) {
+                canvas.setMouseTransparent(true); // No edits halfway through the bands
+            }
+        }
+
+        // Snapshots the band of rows starting at y into band on the next pulse
+        CompletableFuture<Void> render(int y, int[] band) {
+            CompletableFuture<Void> rendered = new CompletableFuture<>();
+            Platform.runLater(() -> {
+                try {
+                    snapshotBand(y, Math.min(bandHeight, height - y), band);
+                    rendered.complete(null);
+                } catch (RuntimeException e) {
+                    rendered.completeExceptionally(e);
+                }
+            });
+            return rendered;
+        }
+
+        // Snapshots the output rows [y, y + rows) into band tile by tile
+        private void snapshotBand(int y, int rows, int[] band) {
+            for (int x = 0; x < width; x += TILE_SIZE) {
+                int columns = Math.min(TILE_SIZE, width - x);
+                if (source instanceof ClassDiagramCanvasPanel classCanvas) {
+                    // The copy only materializes the nodes and edges of its region, so make that this tile,
+                    // with a pixel of margin for the strokes of boxes and edges along the tile's border
+                    classCanvas.pinRegion(new BoundingBox(content.getMinX() + x / scale - 1, content.getMinY() + y / scale - 1,
+                            columns / scale + 2, rows / scale + 2));
+                    classCanvas.applyCss();
+                    classCanvas.layout();
+                }
+                parameters.setViewport(new Rectangle2D(x, y, columns, rows));
+                tile = source.snapshot(parameters, tile);
+                tile.getPixelReader().getPixels(0, 0, columns, rows, PixelFormat.getIntArgbInstance(), band, x, width);
+            }
+        }
+
+        // Gives a live panel back to the user; an off-screen copy is simply dropped
+        void release() {
+            if (source == canvas) {
+                canvas.setMouseTransparent(false);
             }
         }
     }
@@ -67,12 +229,12 @@ public class CanvasExporterBean {
         }
 
         // Iterate through classes in the diagram
-        for (ClassPanel classPanel : diagram.getClasses()) {
-            String className = classPanel.ClassName; // Class name
-            boolean isInterface = classPanel.isInterface(); // Check if it's an interface
+        for (ClassModel classModel : diagram.getClasses()) {
+            String className = classModel.getName(); // Class name
+            boolean isInterface = classModel.isInterface(); // Check if it's an interface
 
             // Generate Java code for the class or interface
-            String javaCode = generateJavaCodeForClass(classPanel, isInterface,diagram.getRelationships());
+            String javaCode = generateJavaCodeForClass(classModel, isInterface, diagram);
 
             // Save the code to a .java file
             File file = new File(outputDirectory + File.separator + className + ".java");
@@ -86,26 +248,21 @@ public class CanvasExporterBean {
         }
     }
 
-    private static String generateJavaCodeForClass(ClassPanel classPanel, boolean isInterface, List<Relationship> relationships) {
+    private static String generateJavaCodeForClass(ClassModel classModel, boolean isInterface, ClassDiagram diagram) {
         StringBuilder code = new StringBuilder();
 
-        // Filter relationships where this class is the start class
-        List<Relationship> relatedClasses = relationships.stream()
-                .filter(rel -> rel.startClass.equals(classPanel.ClassName))
-                .toList();
+        // Relationships where this class is the start class, straight from the diagram's adjacency index
+        List<Relationship> relatedClasses = diagram.getOutgoing(classModel.getName());
 
         // Determine parent class for inheritance
-        String parentClass = relatedClasses.stream()
-                .filter(rel -> rel.type.equals("inheritance"))
-                .map(rel -> rel.endClass)
-                .findFirst()
-                .orElse(null);
+        List<Relationship> inheritance = diagram.getOutgoing(classModel.getName(), "inheritance");
+        String parentClass = inheritance.isEmpty() ? null : inheritance.get(0).getEndClass();
 
         // Generate class or interface declaration
         if (isInterface) {
-            code.append("public interface ").append(classPanel.ClassName).append(" {\n\n");
+            code.append("public interface ").append(classModel.getName()).append(" {\n\n");
         } else {
-            code.append("public class ").append(classPanel.ClassName);
+            code.append("public class ").append(classModel.getName());
             if (parentClass != null) {
                 code.append(" extends ").append(parentClass);
             }
@@ -116,16 +273,16 @@ public class CanvasExporterBean {
         code.append("    // Relationship Attributes\n");
         for (Relationship relationship : relatedClasses) {
             if (relationship.type.equals("association") || relationship.type.equals("aggregation")) {
-                code.append("    private ").append(relationship.endClass).append(" ").append(camelCase(relationship.endClass)).append(";\n");
+                code.append("    private ").append(relationship.getEndClass()).append(" ").append(camelCase(relationship.getEndClass())).append(";\n");
             } else if (relationship.type.equals("composition")) {
-                code.append("    private ").append(relationship.endClass).append(" ").append(camelCase(relationship.endClass)).append(" = new ").append(relationship.endClass).append("();\n");
+                code.append("    private ").append(relationship.getEndClass()).append(" ").append(camelCase(relationship.getEndClass())).append(" = new ").append(relationship.getEndClass()).append("();\n");
             }
         }
         code.append("\n");
 
         // Add attributes
         code.append("    // Attributes\n");
-        for (Attribute attribute : classPanel.getAttributes()) {
+        for (Attribute attribute : classModel.getAttributes()) {
             code.append("    ")
                     .append(attribute.getAccess())
                     .append(" ")
@@ -138,7 +295,7 @@ public class CanvasExporterBean {
 
         // Add methods
         code.append("    // Methods\n");
-        for (Method method : classPanel.getMethods()) {
+        for (Method method : classModel.getMethods()) {
             code.append("    ")
                     .append(method.access)
                     .append(" ")
@@ -0,0 +1,20 @@
+package bean;
+
+// An undoable edit, shared by the class and use case diagram editors.
+// Implementations keep compact records (names, ids, coordinates) rather than nodes,
+// so an entry stays small and valid after the nodes it touched are gone.
+public interface Command {
+    void execute();
+    void undo();
+
+    // Rough size of the record in bytes, counted against the history's memory budget
+    default long estimatedSize() {
+        return 64;
+    }
+
+    // Folds the command recorded right after this one into it, e.g. the steps of one drag.
+    // Returns false to keep them as separate entries.
+    default boolean mergeWith(Command next) {
+        return false;
+    }
+}
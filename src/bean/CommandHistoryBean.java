@@ -0,0 +1,141 @@
+package bean;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Undo/redo history used by both diagram editors.
+// Entries are counted by their estimated size, and the oldest are dropped once the history outgrows its memory budget.
+// A command's size is taken when it is recorded (and again when a merge changes it), not when it leaves the history:
+// a command holding live models can grow or shrink in between, and usedMemory must still add up.
+public class CommandHistoryBean {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024; // bytes of command records
+
+    private final Deque<Entry> undoStack = new ArrayDeque<>(); // Newest first
+    private final Deque<Entry> redoStack = new ArrayDeque<>();
+    private long memoryBudget;
+    private long usedMemory;
+    private boolean applying; // Set while a command is undone or redone, so the edits it makes aren't recorded again
+
+    private static class Entry {
+        final Command command;
+        long size; // What the command counts for in usedMemory
+
+        Entry(Command command) {
+            this.command = command;
+            this.size = command.estimatedSize();
+        }
+    }
+
+    public CommandHistoryBean() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    public CommandHistoryBean(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    // Runs the command and records it
+    public void execute(Command command) {
+        command.execute();
+        record(command);
+    }
+
+    // Records a command whose edit has already been made, merging it into the newest entry when that entry accepts it
+    public void record(Command command) {
+        if (applying) {
+            return;
+        }
+        clearRedo();
+        Entry newest = undoStack.peekFirst();
+        if (newest != null && newest.command.mergeWith(command)) {
+            long size = newest.command.estimatedSize();
+            usedMemory += size - newest.size;
+            newest.size = size;
+            trim();
+            return;
+        }
+        Entry entry = new Entry(command);
+        undoStack.push(entry);
+        usedMemory += entry.size;
+        trim();
+    }
+
+    public boolean undo() {
+        Entry entry = undoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        applying = true;
+        try {
+            entry.command.undo();
+        } finally {
+            applying = false;
+        }
+        redoStack.push(entry);
+        return true;
+    }
+
+    public boolean redo() {
+        Entry entry = redoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        applying = true;
+        try {
+            entry.command.execute();
+        } finally {
+            applying = false;
+        }
+        undoStack.push(entry);
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public boolean isApplying() {
+        return applying;
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        usedMemory = 0;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trim();
+    }
+
+    public long getUsedMemory() {
+        return usedMemory;
+    }
+
+    private void clearRedo() {
+        for (Entry entry : redoStack) {
+            usedMemory -= entry.size;
+        }
+        redoStack.clear();
+    }
+
+    // Drops the oldest redo, then undo, entries until the history fits its budget; the newest undo entry is always kept
+    private void trim() {
+        while (usedMemory > memoryBudget && !redoStack.isEmpty()) {
+            usedMemory -= redoStack.removeLast().size;
+        }
+        while (usedMemory > memoryBudget && undoStack.size() > 1) {
+            usedMemory -= undoStack.removeLast().size;
+        }
+    }
+}
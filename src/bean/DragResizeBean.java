@@ -13,18 +13,21 @@ import ui.MainFrame;
 
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 public class DragResizeBean {
 
     private static final double RESIZE_MARGIN = 10;
 
-    public static void apply(Region target, Pane parent, String name) {
+    // name is read on every drag so a renamed class keeps updating its own model
+    public static void apply(Region target, Pane parent, Supplier<String> name) {
         enableDragAndResize(target, parent,name);
     }
 
-    private static void enableDragAndResize(Region target, Pane parent,String name) {
-        final double[] dragData = new double[6];
+    private static void enableDragAndResize(Region target, Pane parent,Supplier<String> name) {
+        final double[] dragData = new double[8]; // [6], [7]: preferred size at the press, for the undo history
         final boolean[] resizing = {false};
+        final Object[] gesture = {null}; // New at every press; only the steps of one drag merge in the history
 
         target.setOnMouseMoved(event -> {
             if (Objects.equals(MainFrame.getClassDiagramCanvasPanel().getDrawingMode(), "")){
@@ -41,6 +44,9 @@ public class DragResizeBean {
 
                 Cursor cursor = target.getCursor();
             resizing[0] = cursor != Cursor.DEFAULT;
+            gesture[0] = new Object();
+            dragData[6] = target.getPrefWidth();
+            dragData[7] = target.getPrefHeight();
 
             if (resizing[0]) {
                 // Prepare for resizing
@@ -89,8 +95,11 @@ public class DragResizeBean {
                 target.setLayoutY(newY);
 
                 // Update position in MainFrame
-                MainFrame.getClassDiagramCanvasPanel().updatePosition(name, newX, newY);
-            }}
+                MainFrame.getClassDiagramCanvasPanel().updatePosition(name.get(), newX, newY);
+            }
+                // Every step of the drag carries its gesture, so the history merges the whole drag into one entry
+                MainFrame.getClassDiagramCanvasPanel().classDragged(name.get(), gesture[0], dragData[4], dragData[5], dragData[6], dragData[7]);
+            }
             else {
                 event.consume();
             }
@@ -175,9 +184,8 @@ public class DragResizeBean {
         // Update ClassPanel position if applicable
         if (target instanceof StackPane && ((StackPane) target).getChildren().get(1) instanceof ClassPanel) {
             ClassPanel classPanel = (ClassPanel) ((StackPane) target).getChildren().get(1);
-            classPanel.x = newLayoutX;
-            classPanel.y = newLayoutY;
-            System.out.println("Updated after resize: x=" + classPanel.x + ", y=" + classPanel.y);
+            classPanel.setPosition(newLayoutX, newLayoutY);
+            System.out.println("Updated after resize: x=" + classPanel.getX() + ", y=" + classPanel.getY());
         }
     }
 
@@ -0,0 +1,175 @@
+package bean;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Immutable map from non-negative int keys to values, kept as a 32-way trie.
+// with/without copy only the nodes on the path to the key, so every version shares all other nodes with the one
+// it was made from, and holding on to an old version costs only the paths that changed since.
+public final class PersistentIndexBean<V> implements Iterable<V> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentIndexBean<?> EMPTY = new PersistentIndexBean<>(null, 0, 0);
+
+    private final Object[] root; // Children of the root; at shift 0 they are the values themselves
+    private final int shift;     // Key bits below the root's level
+    private final int size;
+
+    private PersistentIndexBean(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIndexBean<V> empty() {
+        return (PersistentIndexBean<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key < 0 || root == null || (key >>> shift) >= WIDTH) {
+            return null;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(key >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (V) node[key & MASK];
+    }
+
+    // Returns a version with the key mapped to the value; this version is unchanged
+    public PersistentIndexBean<V> with(int key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        if (value == null) {
+            return without(key);
+        }
+        Object[] newRoot = root == null ? new Object[WIDTH] : root;
+        int newShift = shift;
+        // Grow upwards until the key fits; the old trie becomes the first child
+        while ((key >>> newShift) >= WIDTH) {
+            Object[] parent = new Object[WIDTH];
+            parent[0] = newRoot;
+            newRoot = parent;
+            newShift += BITS;
+        }
+        boolean[] added = new boolean[1];
+        newRoot = set(newRoot, newShift, key, value, added);
+        return new PersistentIndexBean<>(newRoot, newShift, added[0] ? size + 1 : size);
+    }
+
+    // Returns a version without the key; this version is unchanged
+    public PersistentIndexBean<V> without(int key) {
+        if (get(key) == null) {
+            return this;
+        }
+        if (size == 1) {
+            return empty();
+        }
+        return new PersistentIndexBean<>(remove(root, shift, key), shift, size - 1);
+    }
+
+    private static Object[] set(Object[] node, int level, int key, Object value, boolean[] added) {
+        Object[] copy = node.clone();
+        int index = (key >>> level) & MASK;
+        if (level == 0) {
+            added[0] = copy[index] == null;
+            copy[index] = value;
+        } else {
+            Object[] child = (Object[]) copy[index];
+            copy[index] = set(child == null ? new Object[WIDTH] : child, level - BITS, key, value, added);
+        }
+        return copy;
+    }
+
+    // Copies the path to the key without it; empty nodes below the root are dropped
+    private static Object[] remove(Object[] node, int level, int key) {
+        Object[] copy = node.clone();
+        int index = (key >>> level) & MASK;
+        copy[index] = level == 0 ? null : remove((Object[]) copy[index], level - BITS, key);
+        if (copy[index] != null) {
+            return copy;
+        }
+        for (Object slot : copy) {
+            if (slot != null) {
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    // Values in ascending key order
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<>() {
+            // Nodes still being walked, with the next slot to look at in each
+            private final ArrayDeque<Object[]> nodes = new ArrayDeque<>();
+            private final ArrayDeque<int[]> positions = new ArrayDeque<>();
+            private Object next;
+
+            {
+                if (root != null) {
+                    nodes.push(root);
+                    positions.push(new int[]{0});
+                }
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (!nodes.isEmpty()) {
+                    Object[] node = nodes.peek();
+                    int[] position = positions.peek();
+                    if (position[0] == WIDTH) {
+                        nodes.pop();
+                        positions.pop();
+                        continue;
+                    }
+                    Object slot = node[position[0]++];
+                    if (slot == null) {
+                        continue;
+                    }
+                    if (nodes.size() - 1 == shift / BITS) { // The values' level
+                        next = slot;
+                        return;
+                    }
+                    nodes.push((Object[]) slot);
+                    positions.push(new int[]{0});
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                V value = (V) next;
+                advance();
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+package bean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Uniform grid over axis-aligned boxes, used by the canvases for hit-testing.
+// Each item is stored in every cell its box touches, so a point lookup only checks the items of one cell.
+// Derived data: owners rebuild it from their items rather than serializing it.
+public class SpatialIndexBean<T> {
+    public static final double DEFAULT_CELL_SIZE = 256;
+
+    private final double cellSize;
+    private final Map<Long, List<Entry<T>>> cells = new HashMap<>();
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    private long nextOrder;
+
+    private static class Entry<T> {
+        final T item;
+        final long order; // insertion order, so overlapping items resolve the same way a list scan would
+        double x, y, width, height;
+        int minCol, minRow, maxCol, maxRow;
+
+        Entry(T item, long order) {
+            this.item = item;
+            this.order = order;
+        }
+
+        boolean contains(double px, double py) {
+            return px >= x && px <= x + width && py >= y && py <= y + height;
+        }
+
+        boolean intersects(double rx, double ry, double rw, double rh) {
+            return rx <= x + width && rx + rw >= x && ry <= y + height && ry + rh >= y;
+        }
+    }
+
+    public SpatialIndexBean() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialIndexBean(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    // Adds the item, or moves it if it is already indexed
+    public void put(T item, double x, double y, double width, double height) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item, nextOrder++);
+            entries.put(item, entry);
+        } else {
+            unlinkCells(entry);
+        }
+        entry.x = x;
+        entry.y = y;
+        entry.width = Math.max(0, width);
+        entry.height = Math.max(0, height);
+        entry.minCol = cell(x);
+        entry.minRow = cell(y);
+        entry.maxCol = cell(x + entry.width);
+        entry.maxRow = cell(y + entry.height);
+        for (int col = entry.minCol; col <= entry.maxCol; col++) {
+            for (int row = entry.minRow; row <= entry.maxRow; row++) {
+                cells.computeIfAbsent(key(col, row), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    // Like put, but ignores items that were never added or have been removed
+    public void move(T item, double x, double y, double width, double height) {
+        if (entries.containsKey(item)) {
+            put(item, x, y, width, height);
+        }
+    }
+
+    public void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            unlinkCells(entry);
+        }
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    // Returns the earliest added item whose box contains the point, or null
+    public T itemAt(double px, double py) {
+        List<Entry<T>> cell = cells.get(key(cell(px), cell(py)));
+        if (cell == null) {
+            return null;
+        }
+        Entry<T> found = null;
+        for (Entry<T> entry : cell) {
+            if (entry.contains(px, py) && (found == null || entry.order < found.order)) {
+                found = entry;
+            }
+        }
+        return found == null ? null : found.item;
+    }
+
+    // Returns every item whose box intersects the rectangle, each once
+    public List<T> itemsIn(double x, double y, double width, double height) {
+        List<T> found = new ArrayList<>();
+        Set<Entry<T>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int col = cell(x); col <= cell(x + width); col++) {
+            for (int row = cell(y); row <= cell(y + height); row++) {
+                List<Entry<T>> cell = cells.get(key(col, row));
+                if (cell == null) {
+                    continue;
+                }
+                for (Entry<T> entry : cell) {
+                    if (entry.intersects(x, y, width, height) && seen.add(entry)) {
+                        found.add(entry.item);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void unlinkCells(Entry<T> entry) {
+        for (int col = entry.minCol; col <= entry.maxCol; col++) {
+            for (int row = entry.minRow; row <= entry.maxRow; row++) {
+                Long key = key(col, row);
+                List<Entry<T>> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(entry);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+}
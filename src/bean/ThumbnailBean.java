@@ -0,0 +1,126 @@
+package bean;
+
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Relationship;
+import core.usecase_diagram.UseCaseDiagramPanel;
+import core.usecase_diagram.UseCaseRelationship;
+import javafx.geometry.Bounds;
+import javafx.scene.shape.Circle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+// Small preview images of diagrams, drawn from the model with Java2D rather than snapshotted from the canvas, so a
+// diagram whose classes mostly have no panels costs a few milliseconds and no scene graph work
+public class ThumbnailBean {
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 192;
+    private static final double MARGIN = 8;
+    private static final Color BACKGROUND = Color.WHITE;
+    private static final Color BOX_FILL = new Color(0xE8, 0xEE, 0xF7);
+    private static final Color BOX_BORDER = new Color(0x40, 0x50, 0x70);
+    private static final Color LINE = new Color(0x90, 0x90, 0x90);
+    private static final int ANTIALIAS_LIMIT = 1000; // Above this many classes antialiasing costs more than it shows
+
+    // Class boxes at their saved positions and sizes, relationships as lines between their centers
+    public static BufferedImage render(ClassDiagram diagram) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (ClassModel c : diagram.getClasses()) {
+            minX = Math.min(minX, c.getX());
+            minY = Math.min(minY, c.getY());
+            maxX = Math.max(maxX, c.getX() + c.getWidth());
+            maxY = Math.max(maxY, c.getY() + c.getHeight());
+        }
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = begin(image, diagram.getClasses().size() < ANTIALIAS_LIMIT);
+        if (!diagram.getClasses().isEmpty()) {
+            fit(g, minX, minY, maxX, maxY);
+            g.setColor(LINE);
+            for (Relationship r : diagram.getRelationships()) {
+                ClassModel start = diagram.getClass(r.getStartClass());
+                ClassModel end = diagram.getClass(r.getEndClass());
+                if (start != null && end != null) {
+                    g.draw(new Line2D.Double(start.getX() + start.getWidth() / 2, start.getY() + start.getHeight() / 2,
+                            end.getX() + end.getWidth() / 2, end.getY() + end.getHeight() / 2));
+                }
+            }
+            for (ClassModel c : diagram.getClasses()) {
+                Rectangle2D box = new Rectangle2D.Double(c.getX(), c.getY(), c.getWidth(), c.getHeight());
+                g.setColor(BOX_FILL);
+                g.fill(box);
+                g.setColor(BOX_BORDER);
+                g.draw(box);
+                double header = c.getY() + Math.min(30, c.getHeight()); // Line under the class name
+                g.draw(new Line2D.Double(c.getX(), header, c.getX() + c.getWidth(), header));
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    // Actors as circles, use cases as ellipses, relationships as lines. Reads the nodes, so it runs on the FX thread.
+    public static BufferedImage render(UseCaseDiagramPanel diagram) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (UseCaseDiagramPanel.DiagramComponent component : diagram.components) {
+            Bounds bounds = component.container.getBoundsInParent();
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = begin(image, true);
+        if (!diagram.components.isEmpty()) {
+            fit(g, minX, minY, maxX, maxY);
+            g.setColor(LINE);
+            for (UseCaseRelationship relationship : diagram.relationships) {
+                Bounds from = relationship.from.container.getBoundsInParent();
+                Bounds to = relationship.to.container.getBoundsInParent();
+                g.draw(new Line2D.Double(from.getCenterX(), from.getCenterY(), to.getCenterX(), to.getCenterY()));
+            }
+            for (UseCaseDiagramPanel.DiagramComponent component : diagram.components) {
+                Bounds bounds = component.container.getBoundsInParent();
+                Shape shape;
+                if (component.shape instanceof Circle) {
+                    double d = Math.min(bounds.getWidth(), bounds.getHeight());
+                    shape = new Ellipse2D.Double(bounds.getCenterX() - d / 2, bounds.getMinY(), d, d);
+                } else {
+                    shape = new Ellipse2D.Double(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
+                }
+                g.setColor(BOX_FILL);
+                g.fill(shape);
+                g.setColor(BOX_BORDER);
+                g.draw(shape);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static Graphics2D begin(BufferedImage image, boolean antialias) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        return g;
+    }
+
+    // Scales and centers the content bounds into the image, keeping the aspect ratio; strokes stay one pixel wide
+    private static void fit(Graphics2D g, double minX, double minY, double maxX, double maxY) {
+        double width = Math.max(1, maxX - minX);
+        double height = Math.max(1, maxY - minY);
+        double scale = Math.min((WIDTH - 2 * MARGIN) / width, (HEIGHT - 2 * MARGIN) / height);
+        g.translate((WIDTH - width * scale) / 2, (HEIGHT - height * scale) / 2);
+        g.scale(scale, scale);
+        g.translate(-minX, -minY);
+        g.setStroke(new BasicStroke((float) (1 / scale)));
+    }
+}
@@ -0,0 +1,30 @@
+package core.class_diagram;
+
+import bean.Command;
+
+// A class or interface added to the canvas. Redo adds the same ClassModel back, so later member edits recorded
+// against it still find it.
+public class AddClassCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final ClassModel model;
+
+    public AddClassCommand(ClassDiagramCanvasPanel canvas, ClassModel model) {
+        this.canvas = canvas;
+        this.model = model;
+    }
+
+    @Override
+    public void execute() {
+        canvas.addClass(model);
+    }
+
+    @Override
+    public void undo() {
+        canvas.removeClass(model.getName());
+    }
+
+    @Override
+    public long estimatedSize() {
+        return 64 + 2L * model.getName().length();
+    }
+}
@@ -1,6 +1,10 @@
 package core.class_diagram;
 
-public class Attribute {
+import java.io.Serializable;
+
+public class Attribute implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public String name;
     public String type;
     public String access;
@@ -1,15 +1,94 @@
 package core.class_diagram;
 
+import bean.PersistentIndexBean;
+import bean.SpatialIndexBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
-// For Storing Class Diagrams and Generating Code
+// For Storing Class Diagrams and Generating Code.
+// Holds only plain ClassModel and Relationship data, so it can be loaded, saved and exported without JavaFX.
 public class ClassDiagram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public String Name;
-    public ArrayList<ClassPanel> classes;
-    private List<Relationship> relationships = new ArrayList<>();
+    private final ArrayList<ClassModel> classes;
+    // Insertion ordered so files are written in the order relationships were drawn
+    private final LinkedHashSet<Relationship> relationships = new LinkedHashSet<>();
+    // Name -> class, kept in step with classes so lookups while dragging or linking don't scan the list.
+    // This and the other indexes below are not serialized; readObject rebuilds them.
+    private transient Map<String, ClassModel> classIndex = new HashMap<>();
+    // Class boxes on a grid, so getClassAt only checks the classes near the point
+    private transient SpatialIndexBean<ClassModel> classBounds = new SpatialIndexBean<>();
+    transient Consumer<ClassModel> onClassMoved; // Set by the canvas showing this diagram
+    // Class name -> relationships starting / ending at that class
+    private transient Map<String, Adjacency> outgoing = new HashMap<>();
+    private transient Map<String, Adjacency> incoming = new HashMap<>();
+    private transient List<Listener> listeners; // Not saved; whoever shows a loaded diagram registers again
+    // Persistent copies of the classes and relationships, built by the first snapshot() and then updated on every edit
+    // by path copying, so later snapshots are O(1). Keys are handed out in insertion order.
+    private transient PersistentIndexBean<ClassDiagramSnapshot.ClassSnapshot> classState;
+    private transient PersistentIndexBean<ClassDiagramSnapshot.RelationshipSnapshot> relationshipState;
+    private transient int nextSnapshotKey;
+    // Changes since the last chunked save, so the next one rewrites only these classes. Relationships are saved with
+    // their start class, so adding or removing one marks that class.
+    private transient Set<ClassModel> dirtyClasses;
+    private transient List<ClassModel> removedClasses;
+    private transient File savedDirectory; // Where the last chunked save went, null if there was none
+    private transient int savedGeneration;
+    private transient int nextRecordId;
+
+    // Fine-grained changes to the diagram, so views can patch what they show instead of rebuilding it
+    public interface Listener {
+        default void classAdded(ClassModel c) {}
+
+        default void classRemoved(ClassModel c) {}
+
+        default void classRenamed(ClassModel c, String oldName) {}
+
+        // Attributes or methods were added or removed
+        default void classChanged(ClassModel c) {}
+
+        // The class box was moved or resized; fired for every drag step
+        default void classMoved(ClassModel c) {}
+
+        default void relationshipAdded(Relationship r) {}
+
+        default void relationshipRemoved(Relationship r) {}
+    }
+
+    // Edges on one side of a class, in drawing order and grouped by relationship type
+    private static class Adjacency {
+        final List<Relationship> all = new ArrayList<>();
+        final Map<String, List<Relationship>> byType = new HashMap<>();
+
+        void add(Relationship r) {
+            all.add(r);
+            byType.computeIfAbsent(r.getType(), type -> new ArrayList<>()).add(r);
+        }
+
+        void remove(Relationship r) {
+            all.remove(r);
+            List<Relationship> typed = byType.get(r.getType());
+            if (typed != null) {
+                typed.remove(r);
+                if (typed.isEmpty()) {
+                    byType.remove(r.getType());
+                }
+            }
+        }
+    }
 
     public ClassDiagram(String name) {
         classes = new ArrayList<>();
@@ -20,80 +99,368 @@ public class ClassDiagram implements Serializable {
         return Name;
     }
 
-    public ArrayList<ClassPanel> getClasses() {
-        return classes;
+    // Immutable view of the diagram as it is now; it shares all unchanged classes with earlier and later snapshots
+    public ClassDiagramSnapshot snapshot() {
+        if (classState == null) {
+            classState = PersistentIndexBean.empty();
+            relationshipState = PersistentIndexBean.empty();
+            for (ClassModel c : classes) {
+                c.snapshotKey = nextSnapshotKey++;
+                classState = classState.with(c.snapshotKey, new ClassDiagramSnapshot.ClassSnapshot(c));
+            }
+            for (Relationship r : relationships) {
+                r.snapshotKey = nextSnapshotKey++;
+                relationshipState = relationshipState.with(r.snapshotKey, new ClassDiagramSnapshot.RelationshipSnapshot(r));
+            }
+        }
+        return new ClassDiagramSnapshot(Name, classState, relationshipState);
+    }
+
+    public void addListener(Listener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void fire(Consumer<Listener> event) {
+        if (listeners != null) {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                event.accept(listener);
+            }
+        }
+    }
+
+    // Read only; classes are added and removed through addClass and removeClass, which keep the indexes in step
+    public List<ClassModel> getClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    private void markDirty(ClassModel c) {
+        if (c == null) {
+            return;
+        }
+        if (dirtyClasses == null) {
+            dirtyClasses = new LinkedHashSet<>();
+        }
+        dirtyClasses.add(c);
+    }
+
+    // Classes added or changed since the last chunked save
+    public Set<ClassModel> getDirtyClasses() {
+        return dirtyClasses == null ? Collections.emptySet() : Collections.unmodifiableSet(dirtyClasses);
+    }
+
+    // Classes removed since the last chunked save that had a record then
+    public List<ClassModel> getRemovedClasses() {
+        return removedClasses == null ? Collections.emptyList() : Collections.unmodifiableList(removedClasses);
+    }
+
+    public File getSavedDirectory() {
+        return savedDirectory;
+    }
+
+    public int getSavedGeneration() {
+        return savedGeneration;
+    }
+
+    public int getNextRecordId() {
+        return nextRecordId;
     }
 
-    public void addClass(ClassPanel c) {
+    // Called once a chunked save has been prepared; later changes are tracked against it
+    public void markSaved(File directory, int generation, int nextRecordId) {
+        savedDirectory = directory;
+        savedGeneration = generation;
+        this.nextRecordId = nextRecordId;
+        dirtyClasses = null;
+        removedClasses = null;
+    }
+
+    // Forgets the last chunked save, e.g. when writing it failed, so the next one writes everything
+    public void forgetSave() {
+        savedDirectory = null;
+    }
+
+    // Takes over the save state of a diagram read from disk whose classes were then added to this one
+    public void adoptSaveState(ClassDiagram loaded) {
+        markSaved(loaded.savedDirectory, loaded.savedGeneration, loaded.nextRecordId);
+        if (loaded.dirtyClasses != null) {
+            dirtyClasses = new LinkedHashSet<>(loaded.dirtyClasses);
+        }
+        if (loaded.removedClasses != null) {
+            removedClasses = new ArrayList<>(loaded.removedClasses);
+        }
+    }
+
+    // Class names identify classes in relationships and files, so a name that is already taken is rejected
+    public void addClass(ClassModel c) {
+        if (classIndex.containsKey(c.getName())) {
+            throw new IllegalArgumentException("A class named " + c.getName() + " already exists");
+        }
         classes.add(c);
+        classIndex.put(c.getName(), c);
+        c.diagram = this;
+        classBounds.put(c, c.getX(), c.getY(), c.getWidth(), c.getHeight());
+        markDirty(c);
+        if (classState != null) {
+            c.snapshotKey = nextSnapshotKey++;
+            classState = classState.with(c.snapshotKey, new ClassDiagramSnapshot.ClassSnapshot(c));
+        }
+        fire(listener -> listener.classAdded(c));
+    }
+
+    // The position or preferred size changed; both are saved, so the class is dirty and listeners are told
+    void onClassMoved(ClassModel c) {
+        if (!updateBox(c)) {
+            return;
+        }
+        markDirty(c);
+        fire(listener -> listener.classMoved(c));
     }
+
+    // Only the laid out size changed, e.g. because the class was scrolled into view and got a panel.
+    // Indexes and edges follow it, but nothing saved does.
+    void onClassResized(ClassModel c) {
+        updateBox(c);
+    }
+
+    // False if the class is not in this diagram
+    private boolean updateBox(ClassModel c) {
+        classBounds.move(c, c.getX(), c.getY(), c.getWidth(), c.getHeight());
+        if (classIndex.get(c.getName()) != c) {
+            return false;
+        }
+        if (classState != null) {
+            classState = classState.with(c.snapshotKey, classState.get(c.snapshotKey).withBox(c));
+        }
+        if (onClassMoved != null) {
+            onClassMoved.accept(c);
+        }
+        return true;
+    }
+
+    // Renames a class of this diagram; the indexes and relationship ends follow the new name
+    public void renameClass(ClassModel c, String newName) {
+        String oldName = c.getName();
+        if (newName.equals(oldName)) {
+            return;
+        }
+        if (classIndex.containsKey(newName)) {
+            throw new IllegalArgumentException("A class named " + newName + " already exists");
+        }
+        c.setName(newName);
+        if (classIndex.get(oldName) == c) {
+            classIndex.remove(oldName);
+        }
+        classIndex.put(newName, c);
+
+        Adjacency out = outgoing.remove(oldName);
+        if (out != null) {
+            for (Relationship r : out.all) {
+                r.setStartClass(newName);
+            }
+            outgoing.put(newName, out);
+        }
+        Adjacency in = incoming.remove(oldName);
+        if (in != null) {
+            for (Relationship r : in.all) {
+                r.setEndClass(newName);
+            }
+            incoming.put(newName, in);
+        }
+        // Relationships ending here are saved with their start classes, which now name this class differently
+        markDirty(c);
+        for (Relationship r : getIncoming(newName)) {
+            markDirty(classIndex.get(r.getStartClass()));
+        }
+        if (classState != null && classIndex.get(newName) == c) {
+            classState = classState.with(c.snapshotKey, classState.get(c.snapshotKey).withBox(c));
+            for (Relationship r : getRelations_of_a_Diagram(newName)) {
+                relationshipState = relationshipState.with(r.snapshotKey, new ClassDiagramSnapshot.RelationshipSnapshot(r));
+            }
+        }
+        fire(listener -> listener.classRenamed(c, oldName));
+    }
+
+    // Must be called after a class's attributes or methods have been edited
+    public void onClassChanged(ClassModel c) {
+        markDirty(c);
+        if (classState != null && classIndex.get(c.getName()) == c) {
+            classState = classState.with(c.snapshotKey, new ClassDiagramSnapshot.ClassSnapshot(c));
+        }
+        fire(listener -> listener.classChanged(c));
+    }
+
+    public boolean containsClass(String className) {
+        return classIndex.containsKey(className);
+    }
+
     public void addRelationship(Relationship relationship) {
         relationships.add(relationship);
+        outgoing.computeIfAbsent(relationship.getStartClass(), name -> new Adjacency()).add(relationship);
+        incoming.computeIfAbsent(relationship.getEndClass(), name -> new Adjacency()).add(relationship);
+        markDirty(classIndex.get(relationship.getStartClass()));
+        if (relationshipState != null) {
+            relationship.snapshotKey = nextSnapshotKey++;
+            relationshipState = relationshipState.with(relationship.snapshotKey, new ClassDiagramSnapshot.RelationshipSnapshot(relationship));
+        }
+        fire(listener -> listener.relationshipAdded(relationship));
     }
-    public List<Relationship> getRelationships() {
-        return relationships;
+
+    public Collection<Relationship> getRelationships() {
+        return Collections.unmodifiableCollection(relationships);
+    }
+
+    // Relationships starting at the class, in drawing order
+    public List<Relationship> getOutgoing(String className) {
+        Adjacency out = outgoing.get(className);
+        return out == null ? Collections.emptyList() : Collections.unmodifiableList(out.all);
+    }
+
+    // Relationships of one type ("inheritance", "composition", ...) starting at the class
+    public List<Relationship> getOutgoing(String className, String type) {
+        Adjacency out = outgoing.get(className);
+        List<Relationship> typed = out == null ? null : out.byType.get(type);
+        return typed == null ? Collections.emptyList() : Collections.unmodifiableList(typed);
+    }
+
+    // Relationships ending at the class, in drawing order
+    public List<Relationship> getIncoming(String className) {
+        Adjacency in = incoming.get(className);
+        return in == null ? Collections.emptyList() : Collections.unmodifiableList(in.all);
     }
+
+    // Relationships of one type ending at the class, e.g. the subclasses of a class for "inheritance"
+    public List<Relationship> getIncoming(String className, String type) {
+        Adjacency in = incoming.get(className);
+        List<Relationship> typed = in == null ? null : in.byType.get(type);
+        return typed == null ? Collections.emptyList() : Collections.unmodifiableList(typed);
+    }
+
     public ArrayList<String> getClassList() {
         ArrayList<String> list = new ArrayList<>();
-        for (ClassPanel c : classes) {
-            list.add(c.ClassName);
+        for (ClassModel c : classes) {
+            list.add(c.getName());
         }
         return list;
     }
-    public void removeClass(String className) {
-        for (ClassPanel c : classes) {
-            if (c.ClassName.equals(className)) {
-                classes.remove(c);
-                break;
+    public ClassModel removeClass(String className) {
+        ClassModel c = classIndex.remove(className);
+        if (c != null) {
+            classes.remove(c);
+            classBounds.remove(c);
+            if (dirtyClasses != null) {
+                dirtyClasses.remove(c);
+            }
+            if (c.recordId >= 0) {
+                if (removedClasses == null) {
+                    removedClasses = new ArrayList<>();
+                }
+                removedClasses.add(c);
             }
+            if (classState != null) {
+                classState = classState.without(c.snapshotKey);
+            }
+            if (c.diagram == this) {
+                c.diagram = null;
+            }
+            fire(listener -> listener.classRemoved(c));
         }
+        return c;
     }
 
-    public ClassPanel getClassAt(double x, double y) {
-        for (ClassPanel classPanel : classes) {
-            if (classPanel.contains(x, y)) {
-                return classPanel;
-            }
-        }
-        return null;
+    public ClassModel getClassAt(double x, double y) {
+        return classBounds.itemAt(x, y);
     }
-    public void removeRelationship(String startClass, String endClass, String type) {
-        for (Relationship r : relationships) {
-            if (r.getStartClass().equals(startClass) && r.getEndClass().equals(endClass) && r.getType().equals(type)) {
-                r.deleteRelationship();
-                relationships.remove(r);
-                break;
-            }
-        }
+
+    // Classes whose boxes intersect the rectangle
+    public List<ClassModel> getClassesIn(double x, double y, double width, double height) {
+        return classBounds.itemsIn(x, y, width, height);
     }
 
-    public void removeRelations_of_a_Diagram(String className) {
-        Iterator<Relationship> iterator = relationships.iterator();
-        while (iterator.hasNext()) {
-            Relationship r = iterator.next();
-            if (r.getStartClass().equals(className) || r.getEndClass().equals(className)) {
-                r.deleteRelationship();
-                iterator.remove(); // Safe removal using iterator
+    // Returns the removed relationship so the caller can drop its view, or null if none matched
+    public Relationship removeRelationship(String startClass, String endClass, String type) {
+        for (Relationship r : getOutgoing(startClass, type)) {
+            if (r.getEndClass().equals(endClass)) {
+                unlink(r);
+                return r;
             }
         }
+        return null;
     }
 
+    // Returns the removed relationships so the caller can drop their views
+    public ArrayList<Relationship> removeRelations_of_a_Diagram(String className) {
+        ArrayList<Relationship> removed = getRelations_of_a_Diagram(className);
+        for (Relationship r : removed) {
+            unlink(r);
+        }
+        return removed;
+    }
 
     public ArrayList<Relationship> getRelations_of_a_Diagram(String className) {
-        ArrayList<Relationship> list = new ArrayList<>();
-        for (Relationship r : relationships) {
-            if (r.getStartClass().equals(className) || r.getEndClass().equals(className)) {
+        ArrayList<Relationship> list = new ArrayList<>(getOutgoing(className));
+        for (Relationship r : getIncoming(className)) {
+            if (!r.getStartClass().equals(className)) { // self relationships are already in the outgoing list
                 list.add(r);
             }
         }
         return list;
     }
-    public ClassPanel getClass(String className) {
-        for (ClassPanel c : classes) {
-            if (c.ClassName.equals(className)) {
-                return c;
+
+    private void unlink(Relationship r) {
+        if (!relationships.remove(r)) {
+            return;
+        }
+        Adjacency out = outgoing.get(r.getStartClass());
+        if (out != null) {
+            out.remove(r);
+            if (out.all.isEmpty()) {
+                outgoing.remove(r.getStartClass());
             }
         }
-        return null;
+        Adjacency in = incoming.get(r.getEndClass());
+        if (in != null) {
+            in.remove(r);
+            if (in.all.isEmpty()) {
+                incoming.remove(r.getEndClass());
+            }
+        }
+        markDirty(classIndex.get(r.getStartClass()));
+        if (relationshipState != null) {
+            relationshipState = relationshipState.without(r.snapshotKey);
+        }
+        fire(listener -> listener.relationshipRemoved(r));
+    }
+
+    public ClassModel getClass(String className) {
+        return classIndex.get(className);
+    }
+
+    // The indexes and the grid are not serialized; rebuild them from the classes and relationships.
+    // Transient field initializers don't run either, so each class is also given back its diagram and an unsaved record.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        classIndex = new HashMap<>();
+        classBounds = new SpatialIndexBean<>();
+        for (ClassModel c : classes) {
+            c.diagram = this;
+            c.recordId = -1;
+            classIndex.put(c.getName(), c);
+            classBounds.put(c, c.getX(), c.getY(), c.getWidth(), c.getHeight());
+        }
+        outgoing = new HashMap<>();
+        incoming = new HashMap<>();
+        for (Relationship r : relationships) {
+            outgoing.computeIfAbsent(r.getStartClass(), name -> new Adjacency()).add(r);
+            incoming.computeIfAbsent(r.getEndClass(), name -> new Adjacency()).add(r);
+        }
     }
 }
@@ -2,15 +2,20 @@ package core.class_diagram;
 
 import data.ClassDiagramDBAO;
 import data.UseCaseDBAO;
+import bean.CommandHistoryBean;
 import bean.DragResizeBean;
-import javafx.beans.binding.Bindings;
-import javafx.beans.binding.DoubleBinding;
+import bean.SpatialIndexBean;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.scene.Cursor;
-import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
@@ -19,32 +24,129 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Line;
 import javafx.scene.shape.Polygon;
 import javafx.scene.shape.Rectangle;
-import ui.MainFrame;
+import ui.UndoableDiagramPanel;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 // Canvas for Class Diagrams
-public class ClassDiagramCanvasPanel extends Pane {
+public class ClassDiagramCanvasPanel extends Pane implements UndoableDiagramPanel {
 
     ClassDiagram diagram;
     private String drawingMode = "";
     Line temporaryLine =null;
 
     private ClassPanel startClass = null; // To store the class where the drag started
-    private ArrayList<Relationship> relationships = new ArrayList<>(); // Store relationships
+
+    // Views of the diagram's models that are currently on the canvas; the diagram itself holds no JavaFX nodes.
+    // Only models intersecting the visible region are materialized, the rest stay as plain data.
+    private final Map<ClassModel, ClassPanel> classViews = new HashMap<>();
+    private final Map<Relationship, RelationshipView> relationshipViews = new HashMap<>();
+    // Endpoints of every relationship, recomputed once per pulse for the edges whose classes moved
+    private final EdgeGeometry geometry = new EdgeGeometry();
+    // Area covered by each relationship, for finding the ones crossing the visible region
+    private final SpatialIndexBean<Relationship> relationshipBounds = new SpatialIndexBean<>();
+
+    // Recycled nodes; interfaces lay out differently from classes so they get their own pool
+    private final ArrayDeque<StackPane> classContainerPool = new ArrayDeque<>();
+    private final ArrayDeque<StackPane> interfaceContainerPool = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<RelationshipView>> relationshipViewPool = new HashMap<>();
+    private static final int MAX_POOLED_VIEWS = 64;
+
+    // Extra space around the viewport that is materialized too, so scrolling doesn't show empty space
+    private static final double VIEWPORT_MARGIN = 300;
+    private ScrollPane viewport;
+    private Bounds visibleRegion = new BoundingBox(0, 0, 0, 0);
+    private boolean regionPinned; // Set on an export's off-screen copy, whose region is chosen tile by tile
+
+    // How relationships are drawn: one Line/Polygon/hit box per edge, or all of them on a single Canvas layer
+    public enum EdgeRendering { NODES, CANVAS }
+
+    private EdgeRendering edgeRendering = EdgeRendering.CANVAS;
+    private final Canvas edgeLayer = new Canvas();
+    private boolean edgeUpdatePending;
+    // Largest texture the layer asks for; a bigger pinned region is drawn up to this size
+    private static final double MAX_EDGE_LAYER_SIZE = 8192;
+    // How far from a line a right-click still picks it on the canvas layer
+    private static final double EDGE_PICK_TOLERANCE = 6;
+
+    // One delete menu shared by every relationship, in both rendering modes
+    private final ContextMenu relationshipMenu = new ContextMenu();
+    private Relationship relationshipMenuTarget;
+
+    // Edits made on this canvas, recorded by name so entries outlive the panels they touched
+    private final CommandHistoryBean history = new CommandHistoryBean();
+
+    // Nodes drawn on the canvas for one relationship; recycled between relationships of the same type
+    private static class RelationshipView {
+        final Line line;
+        final Polygon head;     // Arrowhead or diamond, null for associations
+        final Rectangle hitBox; // Invisible area that opens the delete menu
+        Relationship relationship;
+
+        RelationshipView(Line line, Polygon head, Rectangle hitBox) {
+            this.line = line;
+            this.head = head;
+            this.hitBox = hitBox;
+        }
+    }
 
     public ClassDiagramCanvasPanel() {
         setStyle("-fx-background-color: white;");
         setPrefSize(800, 600);
 
         setOnMouseClicked(this::handleMouseClick);
+        addEventHandler(MouseEvent.MOUSE_CLICKED, this::handleEdgeLayerClick);
         addEventFilter(MouseEvent.MOUSE_PRESSED, this::handleMousePressed);
         addEventFilter(MouseEvent.MOUSE_MOVED, this::handleMouseMoved);
         addEventFilter(MouseEvent.MOUSE_RELEASED, this::handleMouseReleased);
 
+        // The edge layer only draws; picking is done from the geometry in handleEdgeLayerClick
+        edgeLayer.setMouseTransparent(true);
+        edgeLayer.setManaged(false);
+        getChildren().add(edgeLayer);
+
+        MenuItem deleteItem = new MenuItem("Delete");
+        deleteItem.setOnAction(event -> {
+            Relationship relationship = relationshipMenuTarget;
+            relationshipMenuTarget = null;
+            if (relationship == null) {
+                return;
+            }
+            removeRelationship(relationship.getStartClass(), relationship.getEndClass(), relationship.getType());
+            history.record(new RelationshipCommand(this, relationship, false));
+        });
+        relationshipMenu.getItems().add(deleteItem);
+    }
+
+    public EdgeRendering getEdgeRendering() {
+        return edgeRendering;
+    }
+
+    // Switches between per-edge nodes and the single canvas layer, moving every visible edge across
+    public void setEdgeRendering(EdgeRendering edgeRendering) {
+        if (this.edgeRendering == edgeRendering) {
+            return;
+        }
+        this.edgeRendering = edgeRendering;
+        if (edgeRendering == EdgeRendering.CANVAS) {
+            for (Relationship relationship : new ArrayList<>(relationshipViews.keySet())) {
+                recycleRelationshipView(relationship);
+            }
+            edgeLayer.setVisible(true);
+        } else {
+            edgeLayer.setVisible(false);
+        }
+        setVisibleRegion(visibleRegion);
+        requestEdgeUpdate();
     }
     public ClassDiagram getDiagram() {
         return diagram;
@@ -57,13 +159,129 @@ public class ClassDiagramCanvasPanel extends Pane {
 
 
     public void setCurrentDiagram(ClassDiagram diagram) {
+        if (this.diagram != null) {
+            this.diagram.onClassMoved = null;
+        }
         this.diagram = diagram;
+        diagram.onClassMoved = this::classMoved;
+        geometry.setDiagram(diagram);
+        history.clear();
+    }
+
+    // Follows the scroll position and size of the given ScrollPane, materializing only what it shows
+    public void trackViewport(ScrollPane scrollPane) {
+        viewport = scrollPane;
+        scrollPane.viewportBoundsProperty().addListener((observable, oldValue, newValue) -> updateVisibleRegion());
+        scrollPane.hvalueProperty().addListener((observable, oldValue, newValue) -> updateVisibleRegion());
+        scrollPane.vvalueProperty().addListener((observable, oldValue, newValue) -> updateVisibleRegion());
+        widthProperty().addListener((observable, oldValue, newValue) -> updateVisibleRegion());
+        heightProperty().addListener((observable, oldValue, newValue) -> updateVisibleRegion());
+        updateVisibleRegion();
+    }
+
+    private void updateVisibleRegion() {
+        if (viewport == null || regionPinned) {
+            return;
+        }
+        Bounds viewportBounds = viewport.getViewportBounds();
+        double x = Math.max(0, getWidth() - viewportBounds.getWidth()) * viewport.getHvalue();
+        double y = Math.max(0, getHeight() - viewportBounds.getHeight()) * viewport.getVvalue();
+        setVisibleRegion(new BoundingBox(x - VIEWPORT_MARGIN, y - VIEWPORT_MARGIN,
+                viewportBounds.getWidth() + 2 * VIEWPORT_MARGIN, viewportBounds.getHeight() + 2 * VIEWPORT_MARGIN));
+    }
+
+    // Materializes everything inside the region, e.g. one tile of an image export, instead of what the viewport shows
+    public void pinRegion(Bounds region) {
+        regionPinned = true;
+        setVisibleRegion(region);
+        requestLayout(); // So the caller's layout() also repaints the edge layer over the new region
+    }
+
+    // A copy of this canvas with the diagram as it is now, in a scene of its own, for exports to render tile by tile.
+    // Nothing is materialized until pinRegion, edits made here afterwards don't reach the copy, and the copy's regions
+    // leave this canvas and its viewport alone.
+    public ClassDiagramCanvasPanel offscreenCopy() {
+        ClassDiagramCanvasPanel copy = new ClassDiagramCanvasPanel();
+        copy.setEdgeRendering(edgeRendering);
+        copy.regionPinned = true; // Its region is still empty
+        copy.setCurrentDiagram(diagram.snapshot().toDiagram());
+        for (Relationship relationship : copy.diagram.getRelationships()) {
+            copy.geometry.markDirty(relationship);
+        }
+        copy.updateEdges(); // Indexes every edge, so pinRegion finds the ones crossing its region
+        copy.setPrefSize(getWidth(), getHeight());
+        copy.resize(getWidth(), getHeight());
+        new Scene(copy); // CSS and layout only run on nodes in a scene
+        return copy;
+    }
+
+    // Swaps nodes in and out so exactly the models intersecting the region have views
+    private void setVisibleRegion(Bounds region) {
+        visibleRegion = region;
+        if (diagram == null) {
+            return;
+        }
+        Set<ClassModel> visibleClasses = new HashSet<>(diagram.getClassesIn(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight()));
+        for (ClassModel model : new ArrayList<>(classViews.keySet())) {
+            if (!visibleClasses.contains(model)) {
+                recycleClassView(model);
+            }
+        }
+        for (ClassModel model : visibleClasses) {
+            if (!classViews.containsKey(model)) {
+                materializeClass(model);
+            }
+        }
+
+        requestEdgeUpdate();
+        if (edgeRendering == EdgeRendering.CANVAS) {
+            return;
+        }
+        Set<Relationship> visibleRelationships = new HashSet<>(relationshipBounds.itemsIn(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight()));
+        for (Relationship relationship : new ArrayList<>(relationshipViews.keySet())) {
+            if (!visibleRelationships.contains(relationship)) {
+                recycleRelationshipView(relationship);
+            }
+        }
+        for (Relationship relationship : visibleRelationships) {
+            if (!relationshipViews.containsKey(relationship)) {
+                materializeRelationship(relationship);
+            }
+        }
+    }
+
+    // Without a tracked viewport the whole diagram is treated as visible
+    private boolean isInVisibleRegion(double x, double y, double width, double height) {
+        return (viewport == null && !regionPinned) || visibleRegion.intersects(x, y, width, height);
+    }
+
+    // Called by the diagram whenever a class moves or resizes, whether or not it is on screen.
+    // Its edges are only marked here; a drag changing x, y, width and height still recomputes each edge once.
+    private void classMoved(ClassModel model) {
+        if (!classViews.containsKey(model) && isInVisibleRegion(model.getX(), model.getY(), model.getWidth(), model.getHeight())) {
+            materializeClass(model);
+        }
+        geometry.classMoved(model);
+        requestEdgeUpdate();
     }
 
     public void createAndAddClassToCanvasAt(double x, double y, boolean isInterface) {
-        String newName = "Class" + (diagram.getClasses().size() + 1);
-        ClassPanel newClass = new ClassPanel(newName, isInterface, x, y, this);
-        addClassToCanvas(newClass, x, y);
+        addNewClass(freeName("Class"), isInterface, x, y);
+    }
+
+    // The prefix numbered after the class count, or the next number up that no class uses yet
+    private String freeName(String prefix) {
+        int number = diagram.getClasses().size() + 1;
+        while (diagram.containsClass(prefix + number)) {
+            number++;
+        }
+        return prefix + number;
+    }
+
+    private void addNewClass(String name, boolean isInterface, double x, double y) {
+        ClassPanel classPanel = new ClassPanel(name, isInterface, x, y, this);
+        addClassToCanvas(classPanel, x, y);
+        history.record(new AddClassCommand(this, classPanel.getModel()));
     }
 
     private void showContextMenu(double screenX, double screenY, double x, double y) {
@@ -72,12 +290,12 @@ public class ClassDiagramCanvasPanel extends Pane {
         // Option to add a Class
         MenuItem addClassDiagram = new MenuItem("Add Class");
         addClassDiagram.setOnAction(ev -> {
-            addClassToCanvas(new ClassPanel("Class" + (diagram.getClasses().size() + 1), false, x, y, this), x, y);
+            addNewClass(freeName("Class"), false, x, y);
         });
 
         MenuItem addInterfaceDiagram = new MenuItem("Add Interface");
         addInterfaceDiagram.setOnAction(ev -> {
-            addClassToCanvas(new ClassPanel("Interface" + (diagram.getClasses().size() + 1), true, x, y, this), x, y);
+            addNewClass(freeName("Interface"), true, x, y);
         });
 
         contextMenu.getItems().addAll(addClassDiagram, addInterfaceDiagram);
@@ -138,28 +356,291 @@ public class ClassDiagramCanvasPanel extends Pane {
         onClassRename = listener;
     }
     public void addClassToCanvas(ClassPanel classPanel, double x, double y) {
+        ClassModel model = classPanel.getModel();
+        model.setPosition(x, y);
+        diagram.addClass(model);
+
+        StackPane container = createClassContainer(classPanel);
+        container.setLayoutX(x);
+        container.setLayoutY(y);
+        getChildren().add(0, container); // Classes sit below relationship lines
+        classViews.put(model, classPanel);
+
+        onClassAdded.accept(classPanel);
+
+    }
+
+    // Adds a class from a loaded diagram; it only gets a panel once it is inside the visible region.
+    // The diagram still fires classAdded to its listeners; the onClassAdded hook, which addClassToCanvas calls, is not called.
+    public void addClass(ClassModel model) {
+        diagram.addClass(model);
+        if (isInVisibleRegion(model.getX(), model.getY(), model.getWidth(), model.getHeight())) {
+            materializeClass(model);
+        }
+    }
+
+    private StackPane createClassContainer(ClassPanel classPanel) {
         javafx.scene.shape.Rectangle border = new Rectangle(200, 150);
         border.setFill(Color.TRANSPARENT);
         border.setStroke(Color.BLACK);
 
         StackPane container = new StackPane(border, classPanel);
 
-        container.setLayoutX(x);
-        container.setLayoutY(y);
-
         // Appling the Dragging and Resizing functionality
-        DragResizeBean.apply(container, this, classPanel.getClassName());
+        DragResizeBean.apply(container, this, classPanel::getClassName);
 
 //        container.setOnMouseReleased(event -> handleClassDragEnd(container));
 
+        // Keep the model's box, and with it the diagram's spatial index, in step with the container.
+        // The panel is asked for its model each time because pooled containers are rebound.
+        container.layoutXProperty().addListener((observable, oldValue, newValue) -> classPanel.getModel().setPosition(newValue.doubleValue(), classPanel.getModel().getY()));
+        container.layoutYProperty().addListener((observable, oldValue, newValue) -> classPanel.getModel().setPosition(classPanel.getModel().getX(), newValue.doubleValue()));
+        container.widthProperty().addListener((observable, oldValue, newValue) -> classPanel.getModel().setSize(newValue.doubleValue(), classPanel.getModel().getHeight()));
+        container.heightProperty().addListener((observable, oldValue, newValue) -> classPanel.getModel().setSize(classPanel.getModel().getWidth(), newValue.doubleValue()));
+        return container;
+    }
+
+    // Gives an off-screen class a panel, reusing a pooled container of the same kind when there is one
+    private void materializeClass(ClassModel model) {
+        StackPane container = (model.isInterface() ? interfaceContainerPool : classContainerPool).poll();
+        ClassPanel classPanel;
+        if (container == null) {
+            classPanel = new ClassPanel(model, this);
+            container = createClassContainer(classPanel);
+        } else {
+            classPanel = (ClassPanel) container.getChildren().get(1);
+            classPanel.bind(model);
+        }
+        container.setPrefSize(model.getPrefWidth(), model.getPrefHeight());
+        container.setLayoutX(model.getX());
+        container.setLayoutY(model.getY());
+        getChildren().add(0, container); // Classes sit below relationship lines
+        classViews.put(model, classPanel);
+    }
+
+    // Takes a class's panel off the canvas and keeps its container for the next class of the same kind
+    private void recycleClassView(ClassModel model) {
+        ClassPanel classPanel = classViews.remove(model);
+        if (classPanel == null || !(classPanel.getParent() instanceof StackPane container)) {
+            return;
+        }
+        if (classPanel.titleField.isFocused()) {
+            requestFocus(); // Don't leave keyboard focus inside a detached title field
+        }
+        model.setPreferredSize(container.getPrefWidth(), container.getPrefHeight());
+        getChildren().remove(container);
+        ArrayDeque<StackPane> pool = model.isInterface() ? interfaceContainerPool : classContainerPool;
+        if (pool.size() < MAX_POOLED_VIEWS) {
+            pool.push(container);
+        }
+    }
 
-        getChildren().add(container);
+    // Deletes a class through its panel, e.g. from the panel's context menu, so it can be undone
+    public void removeClassFromCanvas(ClassPanel classPanel) {
+        ClassModel model = classPanel.getModel();
+        List<Relationship> relationships = removeClass(classPanel.getClassName());
+        history.record(new RemoveClassCommand(this, model, relationships));
+        onClassRemoved.accept(classPanel);
+    }
 
-        diagram.addClass(classPanel);
+    // Removes a class, its relationships and all of their nodes from the canvas and the diagram; returns the relationships
+    public List<Relationship> removeClass(String className) {
+        ClassModel model = diagram.getClass(className);
+        if (model == null) {
+            return List.of();
+        }
+        recycleClassView(model);
+        diagram.removeClass(className);
+        List<Relationship> removed = diagram.removeRelations_of_a_Diagram(className);
+        for (Relationship relationship : removed) {
+            removeRelationshipView(relationship);
+        }
+        return removed;
+    }
 
-        onClassAdded.accept(classPanel);
-        MainFrame.getPropertiesBar().refresh();
+    // Removes one relationship from the diagram, then its visual representation
+    public void removeRelationship(String startClass, String endClass, String type) {
+        Relationship relationship = diagram.removeRelationship(startClass, endClass, type);
+        if (relationship != null) {
+            removeRelationshipView(relationship);
+        }
+    }
+
+    // Renames a class and its panel, if it has one; does nothing if the new name is taken
+    public void renameClass(String oldName, String newName) {
+        ClassModel model = diagram.getClass(oldName);
+        if (model == null || diagram.containsClass(newName)) {
+            return;
+        }
+        diagram.renameClass(model, newName);
+        ClassPanel classPanel = classViews.get(model);
+        if (classPanel != null) {
+            classPanel.titleField.setText(newName);
+            onClassRename.accept(classPanel, oldName);
+        }
+    }
+
+    // Puts a class at the position and preferred size, through its container when it has one
+    public void setClassBounds(String className, double x, double y, double prefWidth, double prefHeight) {
+        ClassModel model = diagram.getClass(className);
+        if (model == null) {
+            return;
+        }
+        model.setPreferredSize(prefWidth, prefHeight);
+        ClassPanel classPanel = classViews.get(model);
+        if (classPanel != null && classPanel.getParent() instanceof StackPane container) {
+            container.setPrefSize(prefWidth, prefHeight);
+            container.setLayoutX(x);
+            container.setLayoutY(y);
+        } else {
+            model.setPosition(x, y);
+        }
+    }
+
+    // Records a step of a drag or resize that started with the class at the given box; gesture identifies the drag
+    public void classDragged(String className, Object gesture, double fromX, double fromY, double fromPrefWidth, double fromPrefHeight) {
+        ClassModel model = diagram.getClass(className);
+        ClassPanel classPanel = model == null ? null : classViews.get(model);
+        if (classPanel == null || !(classPanel.getParent() instanceof StackPane container)) {
+            return;
+        }
+        // Keep the model's size current, e.g. for the autosave journal, rather than only when the view is recycled
+        model.setPreferredSize(container.getPrefWidth(), container.getPrefHeight());
+        history.record(new MoveClassCommand(this, className, gesture, fromX, fromY, fromPrefWidth, fromPrefHeight,
+                container.getLayoutX(), container.getLayoutY(), container.getPrefWidth(), container.getPrefHeight()));
+    }
+
+    // Inserts an attribute or method at the index of the class's list, through its panel when it has one
+    // Member edits from the history; they do nothing if the class is no longer in the diagram
+    public void addMember(ClassModel model, Object member, int index) {
+        if (diagram.getClass(model.getName()) != model) {
+            return;
+        }
+        ClassPanel classPanel = classViews.get(model);
+        if (member instanceof Attribute attribute) {
+            if (classPanel != null) {
+                classPanel.insertAttribute(index, attribute);
+            } else {
+                model.getAttributes().add(Math.min(index, model.getAttributes().size()), attribute);
+                diagram.onClassChanged(model);
+            }
+        } else if (member instanceof Method method) {
+            if (classPanel != null) {
+                classPanel.insertMethod(index, method);
+            } else {
+                model.getMethods().add(Math.min(index, model.getMethods().size()), method);
+                diagram.onClassChanged(model);
+            }
+        }
+    }
+
+    public void removeMember(ClassModel model, Object member) {
+        if (diagram.getClass(model.getName()) != model) {
+            return;
+        }
+        ClassPanel classPanel = classViews.get(model);
+        if (member instanceof Attribute attribute) {
+            if (classPanel != null) {
+                classPanel.removeAttribute(attribute);
+            } else if (model.getAttributes().remove(attribute)) {
+                diagram.onClassChanged(model);
+            }
+        } else if (member instanceof Method method) {
+            if (classPanel != null) {
+                classPanel.removeMethod(method);
+            } else if (model.getMethods().remove(method)) {
+                diagram.onClassChanged(model);
+            }
+        }
+    }
+
+    public CommandHistoryBean getHistory() {
+        return history;
+    }
+
+    @Override
+    public void undo() {
+        history.undo(); // Nothing happens when there is nothing to undo
+    }
 
+    @Override
+    public void redo() {
+        history.redo();
+    }
+
+    // Returns the panel showing the named class, or null if it has none because it is off screen
+    public ClassPanel getClassPanel(String className) {
+        ClassModel model = diagram.getClass(className);
+        return model == null ? null : classViews.get(model);
+    }
+
+    private void removeRelationshipView(Relationship relationship) {
+        recycleRelationshipView(relationship);
+        relationshipBounds.remove(relationship);
+        geometry.remove(relationship);
+        requestEdgeUpdate();
+    }
+
+    // Keeps the relationship's entry in the spatial index covering both of its classes, and its nodes on its new line
+    private void indexRelationship(Relationship relationship) {
+        ClassModel start = diagram.getClass(relationship.getStartClass());
+        ClassModel end = diagram.getClass(relationship.getEndClass());
+        if (start == null || end == null) {
+            return;
+        }
+        double minX = Math.min(start.getX(), end.getX());
+        double minY = Math.min(start.getY(), end.getY());
+        double maxX = Math.max(start.getX() + start.getWidth(), end.getX() + end.getWidth());
+        double maxY = Math.max(start.getY() + start.getHeight(), end.getY() + end.getHeight());
+        relationshipBounds.put(relationship, minX, minY, maxX - minX, maxY - minY);
+        if (edgeRendering == EdgeRendering.CANVAS) {
+            return;
+        }
+        RelationshipView view = relationshipViews.get(relationship);
+        if (view != null) {
+            applyLine(view, geometry.line(relationship));
+        } else if (isInVisibleRegion(minX, minY, maxX - minX, maxY - minY)) {
+            materializeRelationship(relationship);
+        }
+    }
+
+    // Draws a relationship with recycled nodes when possible, placed on its current line
+    private void materializeRelationship(Relationship relationship) {
+        double[] line = geometry.line(relationship);
+        if (line == null) {
+            return;
+        }
+        ArrayDeque<RelationshipView> pool = relationshipViewPool.get(relationship.getType());
+        RelationshipView view = pool == null ? null : pool.poll();
+        if (view == null) {
+            view = createRelationshipView(relationship.getType());
+        }
+        view.relationship = relationship;
+        applyLine(view, line);
+
+        getChildren().add(view.line);
+        if (view.head != null) {
+            getChildren().add(view.head);
+        }
+        getChildren().add(view.hitBox);
+        relationshipViews.put(relationship, view);
+    }
+
+    private void recycleRelationshipView(Relationship relationship) {
+        RelationshipView view = relationshipViews.remove(relationship);
+        if (view == null) {
+            return;
+        }
+        view.relationship = null;
+        getChildren().remove(view.line);
+        getChildren().remove(view.hitBox);
+        if (view.head != null) {
+            getChildren().remove(view.head);
+        }
+        ArrayDeque<RelationshipView> pool = relationshipViewPool.computeIfAbsent(relationship.getType(), type -> new ArrayDeque<>());
+        if (pool.size() < MAX_POOLED_VIEWS) {
+            pool.push(view);
+        }
     }
 
 
@@ -210,7 +691,10 @@ public class ClassDiagramCanvasPanel extends Pane {
 
             if (endClass != null && !endClass.equals(startClass)) {
                 // Call the setRelationship function with the class names
-                setRelationship(drawingMode, startClass.getClassName(), endClass.getClassName());
+                Relationship relationship = setRelationship(drawingMode, startClass.getClassName(), endClass.getClassName());
+                if (relationship != null) {
+                    history.record(new RelationshipCommand(this, relationship, true));
+                }
             }
 
             // Remove the temporary line
@@ -224,15 +708,8 @@ public class ClassDiagramCanvasPanel extends Pane {
 
     // Method to get the class under the mouse based on the coordinates
     private ClassPanel getClassUnderMouse(double x, double y) {
-        for (Node node : getChildren()) {
-            if (node instanceof StackPane) {
-                StackPane container = (StackPane) node;
-                if (container.getBoundsInParent().contains(x, y)) {
-                    return (ClassPanel) container.getChildren().get(1); // Assuming the class is the second child
-                }
-            }
-        }
-        return null; // No class under the mouse
+        ClassModel model = diagram.getClassAt(x, y); // Grid lookup instead of testing every child's bounds
+        return model == null ? null : classViews.get(model); // null when no class is under the mouse
     }
 
     // Set the relationship (This method is passed from the outside)
@@ -293,8 +770,9 @@ public class ClassDiagramCanvasPanel extends Pane {
     }
 
     public void updatePosition(String className, double x, double y) {
-        if (diagram.getClass(className) != null) {
-            diagram.getClass(className).setPosition(x, y);
+        ClassModel model = diagram.getClass(className);
+        if (model != null) {
+            model.setPosition(x, y);
         }
 
     }
@@ -316,6 +794,9 @@ public class ClassDiagramCanvasPanel extends Pane {
     }
 
     private void handleMouseClick(MouseEvent event) {
+        if (event.isConsumed()) {
+            return; // A relationship on the edge layer took the click
+        }
         if (drawingMode.isEmpty()) {
             if (event.getButton() == MouseButton.SECONDARY) {
                 showContextMenu(event.getScreenX(), event.getScreenY(), event.getX(), event.getY());
@@ -324,85 +805,242 @@ public class ClassDiagramCanvasPanel extends Pane {
     }
 
 
-    private void createDeleteContextMenu(final Line relationshipLine, final String startClassName, final String endClassName, final String relationshipType) {
-        ContextMenu contextMenu = new ContextMenu();
-        MenuItem deleteItem = new MenuItem("Delete");
-        contextMenu.getItems().add(deleteItem);
+    // Builds the line, head and hit box for one relationship type; applyLine places them
+    private RelationshipView createRelationshipView(String relationshipType) {
+        Line relationshipLine = new Line();
+        relationshipLine.setStroke(Color.BLACK);
 
-        deleteItem.setOnAction(event -> {
-            // Remove the visual representation of the relationship
-            getChildren().remove(relationshipLine);
-            getChildren().removeIf(node -> {
-                if (node instanceof Polygon) {
-                    Polygon polygon = (Polygon) node;
-                    return polygon.layoutXProperty().isBound() && polygon.layoutXProperty().get() == relationshipLine.startXProperty().get();
-                }
-                return false;
-            });
-            // Remove the relationship from the list based on its type
-            relationships.removeIf(rel ->
-                    rel.getStartClass().equals(startClassName) &&
-                            rel.getEndClass().equals(endClassName) &&
-                            rel.getType().equals(relationshipType)
+        Polygon head = null;
+        if (relationshipType.equals("composition") || relationshipType.equals("aggregation")) {
+            // Create a diamond shape, filled for composition and hollow for aggregation
+            Polygon diamond = new Polygon();
+            diamond.getPoints().addAll(
+                    0.0, 0.0,   // Top point
+                    10.0, 10.0, // Right point
+                    0.0, 20.0,  // Bottom point
+                    -10.0, 10.0 // Left point
             );
-
-            // Remove the relationship from the diagram
-            diagram.removeRelationship(startClassName, endClassName, relationshipType);
-            MainFrame.getPropertiesBar().refresh();
-
-        });
+            if (relationshipType.equals("composition")) {
+                diamond.setFill(Color.BLACK);
+            } else {
+                diamond.setFill(Color.WHITE);  // Hollow (empty inside)
+                diamond.setStroke(Color.BLACK); // Black border
+            }
+            head = diamond;
+        } else if (relationshipType.equals("inheritance")) {
+            // Create a hollow triangle for inheritance
+            Polygon triangle = new Polygon();
+            triangle.getPoints().addAll(
+                    0.0, 0.0,  // Tip of the triangle
+                    -10.0, 20.0, // Bottom left corner
+                    10.0, 20.0   // Bottom right corner
+            );
+            triangle.setFill(Color.WHITE); // Hollow triangle
+            triangle.setStroke(Color.BLACK); // Black border
+            head = triangle;
+        }
 
         // Create an invisible hitbox around the line
         Rectangle hitBox = new Rectangle();
         hitBox.setFill(Color.TRANSPARENT); // Make it invisible
         hitBox.setStrokeWidth(0); // Ensure no visual border
 
-        // Match the dimensions of the hitbox to the line's bounds, with a buffer
-        updateHitBox(hitBox, relationshipLine);
-
-        // Add the hitbox to the scene (if needed)
-        getChildren().add(hitBox);
-
-        // Update the hitbox when the line changes
-        relationshipLine.boundsInParentProperty().addListener((observable, oldValue, newValue) -> {
-            updateHitBox(hitBox, relationshipLine);
-            MainFrame.getPropertiesBar().refresh();
-
-        });
+        RelationshipView view = new RelationshipView(relationshipLine, head, hitBox);
 
         // Show the context menu on a click within the hitbox
         hitBox.setOnMouseClicked(event -> {
-            if (event.getButton() == MouseButton.SECONDARY) { // Right-click
-                contextMenu.show(hitBox, event.getScreenX(), event.getScreenY());
+            if (event.getButton() == MouseButton.SECONDARY && view.relationship != null) { // Right-click
+                showRelationshipMenu(view.relationship, event.getScreenX(), event.getScreenY());
                 event.consume();
             }
         });
+        return view;
     }
 
-    // Helper function to update the hitbox's bounds
-    private void updateHitBox(Rectangle hitBox, Line relationshipLine) {
-        Bounds bounds = relationshipLine.getBoundsInParent();
+    // Moves a relationship's nodes onto the line {startX, startY, endX, endY} in one go
+    private void applyLine(RelationshipView view, double[] line) {
+        if (line == null) {
+            return;
+        }
+        view.line.setStartX(line[0]);
+        view.line.setStartY(line[1]);
+        view.line.setEndX(line[2]);
+        view.line.setEndY(line[3]);
+        if (view.head != null) {
+            view.head.setLayoutX(line[0]);
+            if (view.relationship.getType().equals("inheritance")) {
+                view.head.setLayoutY(line[1]);
+                view.head.setRotate(calculateAngle(line[0], line[1], line[2], line[3]) - 90); // Subtract 90 to make it point opposite
+            } else {
+                view.head.setLayoutY(line[1] - 10); // Offset for center alignment
+            }
+        }
 
-        // Add a buffer around the line for easier interaction
+        // Keep a buffer around the line for easier interaction
         double buffer = 10;
-        hitBox.setX(bounds.getMinX() - buffer);
-        hitBox.setY(bounds.getMinY() - buffer);
-        hitBox.setWidth(bounds.getWidth() + 2 * buffer);
-        hitBox.setHeight(bounds.getHeight() + 2 * buffer);
+        double minX = Math.min(line[0], line[2]);
+        double minY = Math.min(line[1], line[3]);
+        view.hitBox.setX(minX - buffer);
+        view.hitBox.setY(minY - buffer);
+        view.hitBox.setWidth(Math.max(line[0], line[2]) - minX + 2 * buffer);
+        view.hitBox.setHeight(Math.max(line[1], line[3]) - minY + 2 * buffer);
     }
 
+    private void showRelationshipMenu(Relationship relationship, double screenX, double screenY) {
+        relationshipMenuTarget = relationship;
+        relationshipMenu.show(this, screenX, screenY);
+    }
 
+    // Right-clicks near a line drawn on the edge layer open its delete menu
+    private void handleEdgeLayerClick(MouseEvent event) {
+        if (edgeRendering != EdgeRendering.CANVAS || !drawingMode.isEmpty() || event.getButton() != MouseButton.SECONDARY) {
+            return;
+        }
+        Relationship relationship = relationshipAt(event.getX(), event.getY());
+        if (relationship != null) {
+            showRelationshipMenu(relationship, event.getScreenX(), event.getScreenY());
+            event.consume();
+        }
+    }
 
+    // Finds the relationship whose line passes closest to the point, within the pick tolerance
+    private Relationship relationshipAt(double x, double y) {
+        Relationship nearest = null;
+        double nearestDistance = EDGE_PICK_TOLERANCE;
+        for (Relationship relationship : relationshipBounds.itemsIn(x - EDGE_PICK_TOLERANCE, y - EDGE_PICK_TOLERANCE,
+                2 * EDGE_PICK_TOLERANCE, 2 * EDGE_PICK_TOLERANCE)) {
+            double[] line = geometry.line(relationship);
+            if (line == null) {
+                continue;
+            }
+            double distance = distanceToSegment(x, y, line[0], line[1], line[2], line[3]);
+            if (distance <= nearestDistance) {
+                nearestDistance = distance;
+                nearest = relationship;
+            }
+        }
+        return nearest;
+    }
 
-    public void setRelationship(String relationshipType, String startingClass, String endingClass) {
-        if (diagram == null || diagram.classes.isEmpty()) {
-            System.out.println("No classes available to create a relationship.");
+    private static double distanceToSegment(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared));
+        return Math.hypot(px - (x1 + t * dx), py - (y1 + t * dy));
+    }
+
+    // Updates the edges once on the next pulse, however many changes ask for it before then
+    private void requestEdgeUpdate() {
+        if (edgeUpdatePending) {
             return;
         }
+        edgeUpdatePending = true;
+        Platform.runLater(() -> {
+            if (edgeUpdatePending) {
+                updateEdges();
+            }
+        });
+    }
 
+    // Class sizes settle while the canvas lays out its children, so a pending update is done right after
+    @Override
+    protected void layoutChildren() {
+        super.layoutChildren();
+        if (edgeUpdatePending) {
+            updateEdges();
+        }
+    }
 
-        ClassPanel startClass = null;
-        ClassPanel endClass = null;
+    // Recomputes the lines of the edges whose classes moved, then moves their nodes or repaints the edge layer
+    private void updateEdges() {
+        edgeUpdatePending = false;
+        if (diagram == null) {
+            return;
+        }
+        for (Relationship relationship : geometry.flush()) {
+            indexRelationship(relationship);
+        }
+        if (edgeRendering == EdgeRendering.CANVAS) {
+            drawEdges();
+        }
+    }
+
+    // Paints every relationship crossing the visible region onto the edge layer, which only covers that region
+    private void drawEdges() {
+        double minX = Math.max(0, (viewport == null && !regionPinned) ? 0 : visibleRegion.getMinX());
+        double minY = Math.max(0, (viewport == null && !regionPinned) ? 0 : visibleRegion.getMinY());
+        double maxX = (viewport == null && !regionPinned) ? getWidth() : Math.min(getWidth(), visibleRegion.getMaxX());
+        double maxY = (viewport == null && !regionPinned) ? getHeight() : Math.min(getHeight(), visibleRegion.getMaxY());
+        double width = Math.min(MAX_EDGE_LAYER_SIZE, Math.max(0, maxX - minX));
+        double height = Math.min(MAX_EDGE_LAYER_SIZE, Math.max(0, maxY - minY));
+
+        edgeLayer.setLayoutX(minX);
+        edgeLayer.setLayoutY(minY);
+        edgeLayer.setWidth(width);
+        edgeLayer.setHeight(height);
+        GraphicsContext graphics = edgeLayer.getGraphicsContext2D();
+        graphics.clearRect(0, 0, width, height);
+        if (width == 0 || height == 0) {
+            return;
+        }
+
+        graphics.save();
+        graphics.translate(-minX, -minY);
+        graphics.setLineWidth(1);
+        graphics.setStroke(Color.BLACK);
+        for (Relationship relationship : relationshipBounds.itemsIn(minX, minY, width, height)) {
+            double[] line = geometry.line(relationship);
+            if (line == null) {
+                continue;
+            }
+            graphics.strokeLine(line[0], line[1], line[2], line[3]);
+            drawEdgeHead(graphics, relationship.getType(), line);
+        }
+        graphics.restore();
+    }
+
+    // Same shapes as the Polygon heads of createRelationshipView, placed at the start of the line
+    private void drawEdgeHead(GraphicsContext graphics, String relationshipType, double[] line) {
+        double startX = line[0];
+        double startY = line[1];
+        switch (relationshipType) {
+            case "composition", "aggregation" -> {
+                double[] xs = {startX, startX + 10, startX, startX - 10};
+                double[] ys = {startY - 10, startY, startY + 10, startY};
+                graphics.setFill(relationshipType.equals("composition") ? Color.BLACK : Color.WHITE);
+                graphics.fillPolygon(xs, ys, 4);
+                if (relationshipType.equals("aggregation")) {
+                    graphics.strokePolygon(xs, ys, 4);
+                }
+            }
+            case "inheritance" -> {
+                // The node version rotates around the center of its bounds, 10px below the tip
+                graphics.save();
+                graphics.translate(startX, startY + 10);
+                graphics.rotate(calculateAngle(line[0], line[1], line[2], line[3]) - 90);
+                double[] xs = {0, -10, 10};
+                double[] ys = {-10, 10, 10};
+                graphics.setFill(Color.WHITE);
+                graphics.fillPolygon(xs, ys, 3);
+                graphics.strokePolygon(xs, ys, 3);
+                graphics.restore();
+            }
+            default -> {
+            }
+        }
+    }
+
+    // Returns the new relationship, or null if none was added
+    public Relationship setRelationship(String relationshipType, String startingClass, String endingClass) {
+        if (diagram == null || diagram.getClasses().isEmpty()) {
+            System.out.println("No classes available to create a relationship.");
+            return null;
+        }
+
+
+        ClassModel startClass = null;
+        ClassModel endClass = null;
 
         // Prompt user to select the start class
         if (startingClass == null || endingClass == null) {
@@ -417,13 +1055,13 @@ public class ClassDiagramCanvasPanel extends Pane {
             String startClassName = startClassDialog.showAndWait().orElse(null);
             if (startClassName == null) {
                 System.out.println("Start class selection was canceled.");
-                return;
+                return null;
             } else {
                 startClass = diagram.getClass(startClassName);
 
                 if (startClass == null) {
                     System.out.println("Class " + startClassName + " not found.");
-                    return;
+                    return null;
                 }
             }
 
@@ -437,12 +1075,12 @@ public class ClassDiagramCanvasPanel extends Pane {
             String endClassName = endClassDialog.showAndWait().orElse(null);
             if (endClassName == null) {
                 System.out.println("End class selection was canceled.");
-                return;
+                return null;
             } else {
                 endClass = diagram.getClass(endClassName);
                 if (endClass == null) {
                     System.out.println("Class " + endClassName + " not found.");
-                    return;
+                    return null;
                 }
             }
 
@@ -450,235 +1088,38 @@ public class ClassDiagramCanvasPanel extends Pane {
             // Prevent creating a relationship with the same class
             if (startClass == endClass) {
                 System.out.println("Cannot create a relationship between the same class.");
-                return;
+                return null;
             }
         } else {
             endClass = diagram.getClass(endingClass);
             startClass = diagram.getClass(startingClass);
             if (startClass == null || endClass == null) {
                 System.out.println("One or both classes not found.");
-                return;
+                return null;
             }
         }
         // Drawing Lines:
         System.out.println(startClass.getX() + "    aa     " + startClass.getY());
         System.out.println(endClass.getX() + "    a      " + endClass.getY());
 
-        if (relationshipType.equals("association")) {
-            // Get parent StackPanes
-            StackPane startParent = (StackPane) startClass.getParent();
-            StackPane endParent = (StackPane) endClass.getParent();
-
-            System.out.println(startParent.getLayoutX() + "    " + startParent.getLayoutY());
-            System.out.println(endParent.getLayoutX() + "    " + endParent.getLayoutY());
-            // Create a line and bind its start and end points using border calculations
-            Line relationshipLine = new Line();
-            relationshipLine.setStroke(Color.BLACK);
-
-            // Bind start points to the border of the source class
-            relationshipLine.startXProperty().bind(calculateBorderX(startParent, endParent));
-            relationshipLine.startYProperty().bind(calculateBorderY(startParent, endParent));
-
-            // Bind end points to the border of the target class
-            relationshipLine.endXProperty().bind(calculateBorderX(endParent, startParent));
-            relationshipLine.endYProperty().bind(calculateBorderY(endParent, startParent));
-
-            getChildren().add(relationshipLine);
-            relationships.add(new Relationship(startClass.ClassName, endClass.ClassName, "association", relationshipLine, null));
-            diagram.addRelationship(new Relationship(startClass.ClassName, endClass.ClassName, relationshipType, relationshipLine, null));
-            createDeleteContextMenu(relationshipLine, startClass.ClassName, endClass.ClassName, "association");
-            System.out.println("Association relationship added between " + startClass.ClassName + " and " + endClass.ClassName + ".");
-        }
-        else if (relationshipType.equals("composition")) {
-            // Get parent StackPanes
-            ClassPanel originalStartClass = startClass;
-            ClassPanel originalEndClass = endClass;
-            ClassPanel temp=startClass;
-            startClass=endClass;
-            endClass=temp;
-            StackPane wholeParent = (StackPane) startClass.getParent();
-            StackPane partParent = (StackPane) endClass.getParent();
-
-            // Create a line and bind its start and end points using border calculations
-            Line compositionLine = new Line();
-            compositionLine.setStroke(Color.BLACK);
-
-            // Bind start points to the border of the whole class (start of the relationship)
-            compositionLine.startXProperty().bind(calculateBorderX(wholeParent, partParent));
-            compositionLine.startYProperty().bind(calculateBorderY(wholeParent, partParent));
-
-            // Bind end points to the border of the part class (end of the relationship)
-            compositionLine.endXProperty().bind(calculateBorderX(partParent, wholeParent));
-            compositionLine.endYProperty().bind(calculateBorderY(partParent, wholeParent));
-
-            // Create a diamond shape for the composition
-            Polygon diamond = new Polygon();
-            diamond.getPoints().addAll(
-                    0.0, 0.0,   // Top point
-                    10.0, 10.0, // Right point
-                    0.0, 20.0,  // Bottom point
-                    -10.0, 10.0 // Left point
-            );
-            diamond.setFill(Color.BLACK);
-
-            // Bind the diamond's position to the start of the line
-            diamond.layoutXProperty().bind(compositionLine.startXProperty());
-            diamond.layoutYProperty().bind(compositionLine.startYProperty().subtract(10)); // Offset for center alignment
-
-            // Add the line and diamond to the canvas
-            getChildren().addAll(compositionLine, diamond);
-            relationships.add(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, "composition", compositionLine, diamond));
-            diagram.addRelationship(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, relationshipType, compositionLine, diamond));
-            createDeleteContextMenu(compositionLine, originalStartClass.ClassName, originalEndClass.ClassName, "composition");
-
-            System.out.println("Composition relationship added between " + startClass.ClassName + " (whole) and " + endClass.ClassName + " (part).");
-        }
-        else if (relationshipType.equals("aggregation")) {
-            ClassPanel originalStartClass = startClass;
-            ClassPanel originalEndClass = endClass;
-            ClassPanel temp=startClass;
-            startClass=endClass;
-            endClass=temp;
-            // Get parent StackPanes
-            StackPane wholeParent = (StackPane) startClass.getParent();
-            StackPane partParent = (StackPane) endClass.getParent();
-
-            // Create a line and bind its start and end points using border calculations
-            Line aggregationLine = new Line();
-            aggregationLine.setStroke(Color.BLACK);
-
-            // Bind start points to the border of the whole class (start of the relationship)
-            aggregationLine.startXProperty().bind(calculateBorderX(wholeParent, partParent));
-            aggregationLine.startYProperty().bind(calculateBorderY(wholeParent, partParent));
-
-            // Bind end points to the border of the part class (end of the relationship)
-            aggregationLine.endXProperty().bind(calculateBorderX(partParent, wholeParent));
-            aggregationLine.endYProperty().bind(calculateBorderY(partParent, wholeParent));
-
-            // Create a hollow diamond shape for the aggregation
-            Polygon hollowDiamond = new Polygon();
-            hollowDiamond.getPoints().addAll(
-                    0.0, 0.0,   // Top point
-                    10.0, 10.0, // Right point
-                    0.0, 20.0,  // Bottom point
-                    -10.0, 10.0 // Left point
-            );
-            hollowDiamond.setFill(Color.WHITE);  // Hollow (empty inside)
-            hollowDiamond.setStroke(Color.BLACK); // Black border
-
-            // Bind the hollow diamond's position to the start of the line
-            hollowDiamond.layoutXProperty().bind(aggregationLine.startXProperty());
-            hollowDiamond.layoutYProperty().bind(aggregationLine.startYProperty().subtract(10)); // Offset for center alignment
-
-            // Add the line and hollow diamond to the canvas
-            getChildren().addAll(aggregationLine, hollowDiamond);
-            relationships.add(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, "aggregation", aggregationLine, hollowDiamond));
-            diagram.addRelationship(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, relationshipType, aggregationLine, hollowDiamond));
-            createDeleteContextMenu(aggregationLine, originalStartClass.ClassName, originalEndClass.ClassName, "aggregation");
-            System.out.println("Aggregation relationship added between " + startClass.ClassName + " (whole) and " + endClass.ClassName + " (part).");
-        } else if (relationshipType.equals("inheritance")) {
-            ClassPanel originalStartClass = startClass;
-            ClassPanel originalEndClass = endClass;
-            ClassPanel temp=startClass;
-            startClass=endClass;
-            endClass=temp;
-            // Get parent StackPanes
-            StackPane parentClassParent = (StackPane) startClass.getParent(); // Superclass
-            StackPane childClassParent = (StackPane) endClass.getParent(); // Subclass
-
-            // Create a line
-            Line inheritanceLine = new Line();
-            inheritanceLine.setStroke(Color.BLACK);
-
-            // Bind the line dynamically with border intersection
-            inheritanceLine.startXProperty().bind(calculateBorderX(parentClassParent, childClassParent));
-            inheritanceLine.startYProperty().bind(calculateBorderY(parentClassParent, childClassParent));
-            inheritanceLine.endXProperty().bind(calculateBorderX(childClassParent, parentClassParent));
-            inheritanceLine.endYProperty().bind(calculateBorderY(childClassParent, parentClassParent));
-
-            // Create a hollow triangle for inheritance
-            Polygon triangle = new Polygon();
-            triangle.getPoints().addAll(
-                    0.0, 0.0,  // Tip of the triangle
-                    -10.0, 20.0, // Bottom left corner
-                    10.0, 20.0   // Bottom right corner
-            );
-            triangle.setFill(Color.WHITE); // Hollow triangle
-            triangle.setStroke(Color.BLACK); // Black border
-
-            // Bind the triangle's position dynamically to the parent class border
-            triangle.layoutXProperty().bind(inheritanceLine.startXProperty());
-            triangle.layoutYProperty().bind(inheritanceLine.startYProperty());
-
-            // Add a listener to dynamically update the triangle's rotation
-            inheritanceLine.startXProperty().addListener((observable, oldValue, newValue) -> updateTriangleRotation(inheritanceLine, triangle));
-            inheritanceLine.startYProperty().addListener((observable, oldValue, newValue) -> updateTriangleRotation(inheritanceLine, triangle));
-            inheritanceLine.endXProperty().addListener((observable, oldValue, newValue) -> updateTriangleRotation(inheritanceLine, triangle));
-            inheritanceLine.endYProperty().addListener((observable, oldValue, newValue) -> updateTriangleRotation(inheritanceLine, triangle));
-
-
-            // Add the line and triangle to the canvas
-            getChildren().addAll(inheritanceLine, triangle);
-            relationships.add(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, "inheritance", inheritanceLine, triangle));
-            diagram.addRelationship(new Relationship(originalStartClass.ClassName, originalEndClass.ClassName, relationshipType, inheritanceLine, triangle));
-            createDeleteContextMenu(inheritanceLine, originalStartClass.ClassName, originalEndClass.ClassName, "inheritance");
-            System.out.println("Inheritance relationship added between " + startClass.ClassName + " (superclass) and " + endClass.ClassName + " (subclass).");
+        Relationship relationship = null;
+        switch (relationshipType) {
+            case "association", "composition", "aggregation", "inheritance" -> {
+                // The line itself is drawn by materializeRelationship once the relationship is inside the visible region
+                relationship = new Relationship(startClass.getName(), endClass.getName(), relationshipType);
+                diagram.addRelationship(relationship);
+                geometry.markDirty(relationship);
+                requestEdgeUpdate();
+                switch (relationshipType) {
+                    case "association" -> System.out.println("Association relationship added between " + startClass.getName() + " and " + endClass.getName() + ".");
+                    case "composition" -> System.out.println("Composition relationship added between " + endClass.getName() + " (whole) and " + startClass.getName() + " (part).");
+                    case "aggregation" -> System.out.println("Aggregation relationship added between " + endClass.getName() + " (whole) and " + startClass.getName() + " (part).");
+                    default -> System.out.println("Inheritance relationship added between " + endClass.getName() + " (superclass) and " + startClass.getName() + " (subclass).");
+                }
+            }
+            default -> System.out.println("Unknown relationship type: " + relationshipType);
         }
-        MainFrame.getPropertiesBar().refresh();
-
-    }
-
-    private DoubleBinding calculateBorderX(StackPane source, StackPane target) {
-        return Bindings.createDoubleBinding(() -> {
-                    double sourceCenterX = source.getLayoutX() + source.getWidth() / 2;
-                    double sourceCenterY = source.getLayoutY() + source.getHeight() / 2;
-
-                    double targetCenterX = target.getLayoutX() + target.getWidth() / 2;
-                    double targetCenterY = target.getLayoutY() + target.getHeight() / 2;
-
-                    // Calculate direction vector
-                    double dx = targetCenterX - sourceCenterX;
-                    double dy = targetCenterY - sourceCenterY;
-
-                    // Calculate scaling factor to reach the border
-                    double scale = Math.min(
-                            Math.abs(source.getWidth() / 2 / dx),
-                            Math.abs(source.getHeight() / 2 / dy)
-                    );
-
-                    // Calculate border intersection point
-                    return sourceCenterX + dx * scale;
-                }, source.layoutXProperty(), source.layoutYProperty(),
-                target.layoutXProperty(), target.layoutYProperty());
-    }
-
-    private DoubleBinding calculateBorderY(StackPane source, StackPane target) {
-        return Bindings.createDoubleBinding(() -> {
-                    double sourceCenterX = source.getLayoutX() + source.getWidth() / 2;
-                    double sourceCenterY = source.getLayoutY() + source.getHeight() / 2;
-
-                    double targetCenterX = target.getLayoutX() + target.getWidth() / 2;
-                    double targetCenterY = target.getLayoutY() + target.getHeight() / 2;
-
-                    // Calculate direction vector
-                    double dx = targetCenterX - sourceCenterX;
-                    double dy = targetCenterY - sourceCenterY;
-
-                    // Calculate scaling factor to reach the border
-                    double scale = Math.min(
-                            Math.abs(source.getWidth() / 2 / dx),
-                            Math.abs(source.getHeight() / 2 / dy)
-                    );
-
-                    // Calculate border intersection point
-                    return sourceCenterY + dy * scale;
-                }, source.layoutXProperty(), source.layoutYProperty(),
-                target.layoutXProperty(), target.layoutYProperty());
-    }
-
-    private void updateTriangleRotation(Line line, Polygon triangle) {
-        double angle = calculateAngle(line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY());
-        triangle.setRotate(angle - 90); // Subtract 90 to make it point opposite
+        return relationship;
     }
 
 
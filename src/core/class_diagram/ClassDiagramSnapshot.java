@@ -0,0 +1,205 @@
+package core.class_diagram;
+
+import bean.PersistentIndexBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Immutable point-in-time view of a ClassDiagram, e.g. for autosaving or exporting while the user keeps editing.
+// The diagram keeps persistent copies of its classes and relationships up to date as it is edited, so taking a
+// snapshot is O(1) and two snapshots share every class and relationship that didn't change between them.
+public final class ClassDiagramSnapshot {
+    private final String name;
+    private final PersistentIndexBean<ClassSnapshot> classes;
+    private final PersistentIndexBean<RelationshipSnapshot> relationships;
+
+    ClassDiagramSnapshot(String name, PersistentIndexBean<ClassSnapshot> classes, PersistentIndexBean<RelationshipSnapshot> relationships) {
+        this.name = name;
+        this.classes = classes;
+        this.relationships = relationships;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Classes in the order they were added to the diagram
+    public Iterable<ClassSnapshot> getClasses() {
+        return classes;
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    // Relationships in the order they were drawn
+    public Iterable<RelationshipSnapshot> getRelationships() {
+        return relationships;
+    }
+
+    public int getRelationshipCount() {
+        return relationships.size();
+    }
+
+    // Builds an independent, editable diagram with the snapshot's content
+    public ClassDiagram toDiagram() {
+        ClassDiagram diagram = new ClassDiagram(name);
+        for (ClassSnapshot c : classes) {
+            diagram.addClass(c.toModel());
+        }
+        for (RelationshipSnapshot r : relationships) {
+            diagram.addRelationship(new Relationship(r.startClass, r.endClass, r.type));
+        }
+        return diagram;
+    }
+
+    // One class as it was when the snapshot was taken.
+    // Attribute and Method objects are shared with the model: the editor replaces members rather than changing them.
+    public static final class ClassSnapshot {
+        private final String name;
+        private final boolean isInterface;
+        private final double x, y, width, height;
+        private final double prefWidth, prefHeight;
+        private final Members members;
+
+        ClassSnapshot(ClassModel model) {
+            this(model, new Members(model));
+        }
+
+        private ClassSnapshot(ClassModel model, Members members) {
+            this.name = model.getName();
+            this.isInterface = model.isInterface();
+            this.x = model.getX();
+            this.y = model.getY();
+            this.width = model.getWidth();
+            this.height = model.getHeight();
+            this.prefWidth = model.getPrefWidth();
+            this.prefHeight = model.getPrefHeight();
+            this.members = members;
+        }
+
+        // Same members, new name and box; used for moves so a drag doesn't copy the member lists
+        ClassSnapshot withBox(ClassModel model) {
+            return new ClassSnapshot(model, members);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isInterface() {
+            return isInterface;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        // -1 when the box fits its contents
+        public double getPrefWidth() {
+            return prefWidth;
+        }
+
+        public double getPrefHeight() {
+            return prefHeight;
+        }
+
+        public List<Attribute> getAttributes() {
+            return members.load(name).attributes;
+        }
+
+        public List<Method> getMethods() {
+            return members.load(name).methods;
+        }
+
+        // A class whose members are not decoded yet stays that way in the copy, which decodes them on first use
+        public ClassModel toModel() {
+            ClassModel model = new ClassModel(name, isInterface, x, y);
+            model.setSize(width, height);
+            model.setPreferredSize(prefWidth, prefHeight);
+            Consumer<ClassModel> pending = members.pending();
+            if (pending != null) {
+                model.setPendingMembers(pending);
+                return model;
+            }
+            for (Attribute attribute : members.attributes) {
+                model.attributes.add(new Attribute(attribute.name, attribute.type, attribute.access));
+            }
+            for (Method method : members.methods) {
+                model.methods.add(new Method(method.name, method.returnType, new ArrayList<>(method.parameters), method.access));
+            }
+            return model;
+        }
+    }
+
+    // The member lists of a class, shared by the snapshots of its moves. A class read lazily is snapshotted with its
+    // decoder instead, which decodes a copy of its own on first use, e.g. on the autosave thread while it writes the
+    // snapshot: the live class is left undecoded, so taking a snapshot never decodes a whole file on the FX thread.
+    private static final class Members {
+        private Consumer<ClassModel> pending;
+        private List<Attribute> attributes;
+        private List<Method> methods;
+
+        Members(ClassModel model) {
+            pending = model.getPendingMembers();
+            if (pending == null) {
+                attributes = List.copyOf(model.getAttributes());
+                methods = List.copyOf(model.getMethods());
+            }
+        }
+
+        synchronized Consumer<ClassModel> pending() {
+            return pending;
+        }
+
+        // Throws UncheckedIOException if the members are damaged, as the live class does
+        synchronized Members load(String className) {
+            if (pending != null) {
+                ClassModel decoded = new ClassModel(className, false, 0, 0);
+                pending.accept(decoded);
+                attributes = List.copyOf(decoded.attributes);
+                methods = List.copyOf(decoded.methods);
+                pending = null;
+            }
+            return this;
+        }
+    }
+
+    // One relationship as it was when the snapshot was taken
+    public static final class RelationshipSnapshot {
+        private final String startClass;
+        private final String endClass;
+        private final String type;
+
+        RelationshipSnapshot(Relationship relationship) {
+            this.startClass = relationship.getStartClass();
+            this.endClass = relationship.getEndClass();
+            this.type = relationship.getType();
+        }
+
+        public String getStartClass() {
+            return startClass;
+        }
+
+        public String getEndClass() {
+            return endClass;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+}
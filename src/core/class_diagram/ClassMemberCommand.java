@@ -0,0 +1,50 @@
+package core.class_diagram;
+
+import bean.Command;
+
+// An attribute or method added to or deleted from a class, with its position in the class's list.
+// The class is held by reference, so the command still applies after the class has been renamed.
+public class ClassMemberCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final ClassModel model;
+    private final Object member; // Attribute or Method
+    private final int index;
+    private final boolean added;
+
+    public ClassMemberCommand(ClassDiagramCanvasPanel canvas, ClassModel model, Object member, int index, boolean added) {
+        this.canvas = canvas;
+        this.model = model;
+        this.member = member;
+        this.index = index;
+        this.added = added;
+    }
+
+    @Override
+    public void execute() {
+        apply(added);
+    }
+
+    @Override
+    public void undo() {
+        apply(!added);
+    }
+
+    private void apply(boolean add) {
+        if (add) {
+            canvas.addMember(model, member, index);
+        } else {
+            canvas.removeMember(model, member);
+        }
+    }
+
+    @Override
+    public long estimatedSize() {
+        long size = 96;
+        if (member instanceof Attribute attribute) {
+            size += 2L * (attribute.name.length() + attribute.type.length());
+        } else if (member instanceof Method method) {
+            size += 2L * (method.name.length() + method.returnType.length() + String.join("", method.parameters).length());
+        }
+        return size;
+    }
+}
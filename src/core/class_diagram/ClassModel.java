@@ -0,0 +1,145 @@
+package core.class_diagram;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+// Plain data for one class or interface, independent of any JavaFX node.
+// ClassPanel is the view of a ClassModel; everything that is saved or exported lives here.
+public class ClassModel implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Only changed through the setters below, which keep the diagram's indexes, dirty tracking and snapshot in step
+    private String name;
+    private final boolean isInterface;
+    private double x;
+    private double y;
+    private double width = 200;  // Last known size of the class box on the canvas
+    private double height = 150;
+    private double prefWidth = -1;  // Size the user resized the box to, -1 to fit its contents
+    private double prefHeight = -1;
+    public final ArrayList<Attribute> attributes = new ArrayList<>();
+    public final ArrayList<Method> methods = new ArrayList<>();
+    transient ClassDiagram diagram; // Diagram holding this class, told about moves so its spatial index stays current
+    transient int snapshotKey; // Position of this class in the diagram's snapshot state
+    // Record file of this class in a chunked save (see data.ClassDiagramChunkStore); -1 until first saved that way
+    public transient int recordId = -1;
+    public transient int recordGeneration;
+    // Decodes the attributes and methods of a class whose file is read lazily into the model it is given; null once
+    // they are loaded. Everything outside this class goes through getAttributes / getMethods, so the members appear on
+    // first use. Snapshots run it into copies of their own, so it must not depend on this model.
+    private transient Consumer<ClassModel> pendingMembers;
+
+    public ClassModel(String name, boolean isInterface, double x, double y) {
+        this.name = name;
+        this.isInterface = isInterface;
+        this.x = x;
+        this.y = y;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Only through ClassDiagram.renameClass, which keeps the diagram's name index in step
+    void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isInterface() {
+        return isInterface;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public void setPosition(double x, double y) {
+        if (x == this.x && y == this.y) {
+            return;
+        }
+        this.x = x;
+        this.y = y;
+        if (diagram != null) {
+            diagram.onClassMoved(this);
+        }
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    // The size the box was laid out at; not saved, so setting it doesn't mark the class as changed
+    public void setSize(double width, double height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        if (diagram != null) {
+            diagram.onClassResized(this);
+        }
+    }
+
+    public double getPrefWidth() {
+        return prefWidth;
+    }
+
+    public double getPrefHeight() {
+        return prefHeight;
+    }
+
+    // The size the user resized the box to; saved like the position
+    public void setPreferredSize(double prefWidth, double prefHeight) {
+        if (prefWidth == this.prefWidth && prefHeight == this.prefHeight) {
+            return;
+        }
+        this.prefWidth = prefWidth;
+        this.prefHeight = prefHeight;
+        if (diagram != null) {
+            diagram.onClassMoved(this);
+        }
+    }
+
+    public boolean contains(double px, double py) {
+        return px >= x && px <= x + width && py >= y && py <= y + height;
+    }
+
+    public ArrayList<Attribute> getAttributes() {
+        loadMembers();
+        return attributes;
+    }
+
+    public ArrayList<Method> getMethods() {
+        loadMembers();
+        return methods;
+    }
+
+    // Defers filling the member lists until they are first asked for
+    public void setPendingMembers(Consumer<ClassModel> loader) {
+        pendingMembers = loader;
+    }
+
+    Consumer<ClassModel> getPendingMembers() {
+        return pendingMembers;
+    }
+
+    public boolean hasPendingMembers() {
+        return pendingMembers != null;
+    }
+
+    private void loadMembers() {
+        if (pendingMembers != null) {
+            pendingMembers.accept(this);
+            pendingMembers = null; // Kept if decoding throws, so a damaged class is never mistaken for an empty one
+        }
+    }
+}
@@ -10,25 +10,23 @@ import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.Pane;
-import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 
 import ui.MainFrame;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
+// View of a ClassModel on the class diagram canvas; all state that is saved lives in the model
 public class ClassPanel extends VBox {
-    public String ClassName;
+    private ClassModel model;
     public ClassDiagramCanvasPanel ParentCanvas;
-    private final ArrayList<Attribute> attributes = new ArrayList<>();
-    private final ArrayList<Method> methods = new ArrayList<>();
+    private ArrayList<Attribute> attributes; // The model's member lists, shown by this panel
+    private ArrayList<Method> methods;
     private final boolean isInterface;
-    public double x; // X-coordinate on the canvas
-    public double y; // Y-coordinate on the canvas
 
     private Label typeLabel; // <<interface>> or empty for classes
     public TextField titleField;
@@ -43,8 +41,7 @@ public class ClassPanel extends VBox {
 
 
     public void setPosition(double x, double y) {
-        this.x = x;
-        this.y = y;
+        model.setPosition(x, y);
     }
 
     public ArrayList<Attribute> getAttributes() {
@@ -52,11 +49,17 @@ public class ClassPanel extends VBox {
     }
 
     public ClassPanel(String name, boolean isInterface, double x, double y, ClassDiagramCanvasPanel canvas) {
-        this.ClassName = name;
-        this.isInterface = isInterface;
-        this.x = x;
-        this.y = y;
+        this(new ClassModel(name, isInterface, x, y), canvas);
+    }
+
+    // Builds the panel and all of its member rows in one pass from the model
+    public ClassPanel(ClassModel model, ClassDiagramCanvasPanel canvas) {
+        this.model = model;
+        this.attributes = model.getAttributes();
+        this.methods = model.getMethods();
+        this.isInterface = model.isInterface();
         this.ParentCanvas = canvas;
+        String name = model.getName();
         setStyle(isInterface
                 ? "-fx-border-color: black; -fx-border-width: 2px; -fx-background-color: white;"
                 : "-fx-border-color: black; -fx-border-width: 2px; -fx-background-color: white;");
@@ -75,7 +78,7 @@ public class ClassPanel extends VBox {
         titleField.setAlignment(Pos.CENTER);
         titleField.focusedProperty().addListener((observable, oldFocus, newFocus) -> {
             if (!newFocus) { // Lost focus
-                titleField.setText(ClassName); 
+                titleField.setText(this.model.getName());
                 }
         });
 
@@ -86,27 +89,27 @@ public class ClassPanel extends VBox {
                 String newValue = titleField.getText().trim();
 
                 if (!newValue.isEmpty()) {
-                    String previousName = ClassName; // Store the old name
+                    String previousName = this.model.getName(); // Store the old name
+                    if (newValue.equals(previousName)) {
+                        return;
+                    }
 
                     // Check if a class with the same name already exists
-                    if (MainFrame.getClassDiagramCanvasPanel().getDiagram()
-                            .getClasses().stream()
-                            .anyMatch(existingClass -> existingClass.getClassName().equalsIgnoreCase(newValue))) {
+                    if (canvas.getDiagram().containsClass(newValue)) {
                         showError("Error", "Class with the name '" + newValue + "' already exists.");
                         // Revert to the previous name
                         titleField.setText(previousName);
                         return;
                     }
 
-                    // Update the class name
-                    ClassName = newValue;
-                    canvas.onClassRename.accept(this, previousName); // Trigger rename event
+                    // Update the class name; the canvas tells the properties bar
+                    canvas.renameClass(previousName, newValue);
+                    canvas.getHistory().record(new RenameClassCommand(canvas, previousName, newValue));
                 } else {
                     showError("Error", "Class name cannot be empty.");
-                    titleField.setText(ClassName); // Revert to the current class name
+                    titleField.setText(this.model.getName()); // Revert to the current class name
                 }
             }
-            MainFrame.getPropertiesBar().refresh();
 
         });
 
@@ -160,6 +163,22 @@ public class ClassPanel extends VBox {
 
         propagateEventsToCanvas();
 
+        setAttributes(model.getAttributes());
+        setMethods(model.getMethods());
+    }
+
+    public ClassModel getModel() {
+        return model;
+    }
+
+    // Points a recycled panel at another model of the same kind and rebuilds its title and rows
+    void bind(ClassModel model) {
+        this.model = model;
+        this.attributes = model.getAttributes();
+        this.methods = model.getMethods();
+        titleField.setText(model.getName());
+        setAttributes(model.getAttributes());
+        setMethods(model.getMethods());
     }
 
     private void propagateEventsToCanvas() {
@@ -197,19 +216,19 @@ public class ClassPanel extends VBox {
     }
 
     public double getX() {
-        return x;
+        return model.getX();
     }
 
     public double getY() {
-        return y;
+        return model.getY();
     }
 
     public void setX(double x) {
-        this.x = x;
+        model.setPosition(x, model.getY());
     }
 
     public void setY(double y) {
-        this.y = y;
+        model.setPosition(model.getX(), y);
     }
     private void handleContextMenu(MouseEvent e) {
         if (e.getButton() == MouseButton.SECONDARY) {
@@ -244,10 +263,10 @@ public class ClassPanel extends VBox {
                             // Create and add the attribute
                             Attribute attribute = new Attribute(name, type, access);
                             addAttribute(attribute); // Updated to use the new logic
+                            ParentCanvas.getHistory().record(new ClassMemberCommand(ParentCanvas, model, attribute, attributes.size() - 1, true));
                         } catch (IllegalArgumentException error) {
                             showError("Invalid Attribute Format", error.getMessage());
                         }
-                        MainFrame.getPropertiesBar().refresh();
                     });
                 });
                 contextMenu.getItems().add(addAttribute);
@@ -274,28 +293,20 @@ public class ClassPanel extends VBox {
                             }
 
                             addMethod(method); // Updated to use the new logic
+                            ParentCanvas.getHistory().record(new ClassMemberCommand(ParentCanvas, model, method, methods.size() - 1, true));
                         } catch (IllegalArgumentException error) {
                             showError("Invalid Method Format", error.getMessage());
                         }
                     });
-                    MainFrame.getPropertiesBar().refresh();
                 });
 
                 contextMenu.getItems().add(addMethod);
-                MainFrame.getPropertiesBar().refresh();
 
 //            }
             // Delete Panel
             MenuItem delete = new MenuItem("Delete " + (isInterface ? "Interface" : "Class"));
             delete.setOnAction(ev -> {
-                Pane parent = (Pane) getParent();
-                if (parent instanceof StackPane stackPane) {
-                    Pane grandParent = (Pane) stackPane.getParent();
-                    grandParent.getChildren().remove(stackPane);
-                }
-                MainFrame.getClassDiagramCanvasPanel().getDiagram().removeClass(ClassName);
-                MainFrame.getClassDiagramCanvasPanel().getDiagram().removeRelations_of_a_Diagram(ClassName);
-                MainFrame.getPropertiesBar().refresh();
+                ParentCanvas.removeClassFromCanvas(this);
 
             });
 
@@ -409,7 +420,7 @@ public class ClassPanel extends VBox {
     }
 
     public String getClassName() {
-        return ClassName;
+        return model.getName();
     }
 
     public ArrayList<Method> getMethods() {
@@ -417,8 +428,28 @@ public class ClassPanel extends VBox {
     }
 
     public void addAttribute(Attribute attribute) {
-        attributes.add(attribute);
+        insertAttribute(attributes.size(), attribute);
+    }
 
+    // Puts the attribute at the index of the list, e.g. back where it was when a delete is undone
+    public void insertAttribute(int index, Attribute attribute) {
+        index = Math.min(index, attributes.size());
+        attributes.add(index, attribute);
+        attributesContainer.getChildren().remove(emptyAttributesLabel);
+        attributesContainer.getChildren().add(index, createAttributeRow(attribute));
+        ParentCanvas.getDiagram().onClassChanged(model);
+    }
+
+    public void removeAttribute(Attribute attribute) {
+        if (!attributes.remove(attribute)) {
+            return;
+        }
+        attributesContainer.getChildren().removeIf(row -> row.getUserData() == attribute);
+        togglePlaceholder(attributesContainer, emptyAttributesLabel, attributes.isEmpty());
+        ParentCanvas.getDiagram().onClassChanged(model);
+    }
+
+    private HBox createAttributeRow(Attribute attribute) {
         HBox attributeBox = new HBox();
         attributeBox.setSpacing(10);
 
@@ -428,39 +459,65 @@ public class ClassPanel extends VBox {
 
         Button deleteButton = new Button("X");
         deleteButton.setOnAction(event -> {
-            attributes.remove(attribute);
-            attributesContainer.getChildren().remove(attributeBox);
-            togglePlaceholder(attributesContainer, emptyAttributesLabel, attributes.isEmpty());
+            int index = attributes.indexOf(attribute);
+            removeAttribute(attribute);
+            ParentCanvas.getHistory().record(new ClassMemberCommand(ParentCanvas, model, attribute, index, false));
         });
+        attributeBox.setUserData(attribute); // Lets removeAttribute find the row
 
         attributeBox.getChildren().addAll(attributeLabel, deleteButton);
-        attributesContainer.getChildren().add(attributeBox);
-        togglePlaceholder(attributesContainer, emptyAttributesLabel, attributes.isEmpty());
+        return attributeBox;
     }
 
-
-
-    public void setMethods(ArrayList<Method> methods) {
+    // Replaces all methods, building each row once and updating the container in a single change
+    public void setMethods(List<Method> methods) {
+        ArrayList<Method> source = new ArrayList<>(methods);
         this.methods.clear();
-        this.methods.addAll(methods);
-        methodsBox.getChildren().clear();
-        for (Method method : methods) {
-            addMethod(method);
+        this.methods.addAll(source);
+        ArrayList<Node> rows = new ArrayList<>(source.size());
+        for (Method method : source) {
+            rows.add(createMethodRow(method));
         }
+        methodsContainer.getChildren().setAll(rows);
+        togglePlaceholder(methodsContainer, emptyMethodsLabel, this.methods.isEmpty());
     }
 
-    public void setAttributes(ArrayList<Attribute> attributes) {
+    // Replaces all attributes, building each row once and updating the container in a single change
+    public void setAttributes(List<Attribute> attributes) {
+        ArrayList<Attribute> source = new ArrayList<>(attributes);
         this.attributes.clear();
-        this.attributes.addAll(attributes);
-        attributesBox.getChildren().clear();
-        for (Attribute attribute : attributes) {
-            addAttribute(attribute);
+        this.attributes.addAll(source);
+        ArrayList<Node> rows = new ArrayList<>(source.size());
+        for (Attribute attribute : source) {
+            rows.add(createAttributeRow(attribute));
         }
+        attributesContainer.getChildren().setAll(rows);
+        togglePlaceholder(attributesContainer, emptyAttributesLabel, this.attributes.isEmpty());
     }
 
     public void addMethod(Method method) {
-        methods.add(method);
+        insertMethod(methods.size(), method);
+    }
 
+    // Puts the method at the index of the list, e.g. back where it was when a delete is undone
+    public void insertMethod(int index, Method method) {
+        index = Math.min(index, methods.size());
+        methods.add(index, method);
+        methodsContainer.getChildren().remove(emptyMethodsLabel);
+        methodsContainer.getChildren().add(index, createMethodRow(method));
+        ParentCanvas.getDiagram().onClassChanged(model);
+    }
+
+    public void removeMethod(Method method) {
+        if (!methods.remove(method)) {
+            return;
+        }
+        methodsContainer.getChildren().removeIf(row -> row.getUserData() == method);
+        togglePlaceholder(methodsContainer, emptyMethodsLabel, methods.isEmpty());
+        ParentCanvas.getDiagram().onClassChanged(model);
+    }
+
+    private HBox createMethodRow(Method method) {
         HBox methodBox = new HBox();
         methodBox.setSpacing(10);
 
@@ -471,14 +528,14 @@ public class ClassPanel extends VBox {
 
         Button deleteButton = new Button("X");
         deleteButton.setOnAction(event -> {
-            methods.remove(method);
-            methodsContainer.getChildren().remove(methodBox);
-            togglePlaceholder(methodsContainer, emptyMethodsLabel, methods.isEmpty());
+            int index = methods.indexOf(method);
+            removeMethod(method);
+            ParentCanvas.getHistory().record(new ClassMemberCommand(ParentCanvas, model, method, index, false));
         });
+        methodBox.setUserData(method); // Lets removeMethod find the row
 
         methodBox.getChildren().addAll(methodLabel, deleteButton);
-        methodsContainer.getChildren().add(methodBox);
-        togglePlaceholder(methodsContainer, emptyMethodsLabel, methods.isEmpty());
+        return methodBox;
     }
 
     private void togglePlaceholder(VBox container, Label placeholder, boolean isEmpty) {
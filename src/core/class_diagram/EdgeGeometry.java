@@ -0,0 +1,85 @@
+package core.class_diagram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Endpoints of every relationship line on a class canvas.
+// Moving a class only marks its edges dirty; flush() then recomputes each dirty edge once,
+// so a drag costs one computation per connected edge per pulse however many properties changed.
+class EdgeGeometry {
+    private ClassDiagram diagram;
+    // Relationship -> {startX, startY, endX, endY}
+    private final Map<Relationship, double[]> lines = new HashMap<>();
+    private final Set<Relationship> dirty = new LinkedHashSet<>();
+
+    void setDiagram(ClassDiagram diagram) {
+        this.diagram = diagram;
+        lines.clear();
+        dirty.clear();
+    }
+
+    void markDirty(Relationship relationship) {
+        dirty.add(relationship);
+    }
+
+    // Marks every edge touching the class, found through the diagram's adjacency index
+    void classMoved(ClassModel model) {
+        dirty.addAll(diagram.getOutgoing(model.getName()));
+        dirty.addAll(diagram.getIncoming(model.getName()));
+    }
+
+    void remove(Relationship relationship) {
+        lines.remove(relationship);
+        dirty.remove(relationship);
+    }
+
+    // Recomputes the dirty edges and returns them so their views can be updated
+    List<Relationship> flush() {
+        List<Relationship> updated = new ArrayList<>(dirty);
+        dirty.clear();
+        for (Relationship relationship : updated) {
+            compute(relationship);
+        }
+        return updated;
+    }
+
+    // Line of the relationship as of the last flush, computed now if it is new; null if a class is missing.
+    // A dirty edge keeps its old line until flush, which then reports it so its view is updated.
+    double[] line(Relationship relationship) {
+        double[] line = lines.get(relationship);
+        return line != null ? line : compute(relationship);
+    }
+
+    private double[] compute(Relationship relationship) {
+        ClassModel start = diagram.getClass(relationship.getStartClass());
+        ClassModel end = diagram.getClass(relationship.getEndClass());
+        if (start == null || end == null) {
+            lines.remove(relationship);
+            return null;
+        }
+        // Associations run from the start class; the other types are drawn from the whole / superclass, which is the end class
+        ClassModel from = relationship.getType().equals("association") ? start : end;
+        ClassModel to = relationship.getType().equals("association") ? end : start;
+
+        double[] line = lines.computeIfAbsent(relationship, r -> new double[4]);
+        double fromCenterX = from.getX() + from.getWidth() / 2;
+        double fromCenterY = from.getY() + from.getHeight() / 2;
+        double toCenterX = to.getX() + to.getWidth() / 2;
+        double toCenterY = to.getY() + to.getHeight() / 2;
+
+        // The direction vector is shared by both ends, only its sign and the box it is scaled to differ
+        double dx = toCenterX - fromCenterX;
+        double dy = toCenterY - fromCenterY;
+        double fromScale = Math.min(Math.abs(from.getWidth() / 2 / dx), Math.abs(from.getHeight() / 2 / dy));
+        double toScale = Math.min(Math.abs(to.getWidth() / 2 / dx), Math.abs(to.getHeight() / 2 / dy));
+        line[0] = fromCenterX + dx * fromScale;
+        line[1] = fromCenterY + dy * fromScale;
+        line[2] = toCenterX - dx * toScale;
+        line[3] = toCenterY - dy * toScale;
+        return line;
+    }
+}
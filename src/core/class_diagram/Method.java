@@ -1,8 +1,11 @@
 package core.class_diagram;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
-public class Method {
+public class Method implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public String name;
     public String returnType;
     public ArrayList<String> parameters;
@@ -0,0 +1,57 @@
+package core.class_diagram;
+
+import bean.Command;
+
+// A class dragged or resized on the canvas, as its position and preferred size before and after.
+// The steps of one drag share its gesture and merge into a single history entry; two drags never do, even when the
+// second starts where the first ended.
+public class MoveClassCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final String className;
+    private final Object gesture;
+    private final double fromX, fromY, fromWidth, fromHeight;
+    private double toX, toY, toWidth, toHeight;
+
+    public MoveClassCommand(ClassDiagramCanvasPanel canvas, String className, Object gesture,
+                            double fromX, double fromY, double fromWidth, double fromHeight,
+                            double toX, double toY, double toWidth, double toHeight) {
+        this.canvas = canvas;
+        this.className = className;
+        this.gesture = gesture;
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.fromWidth = fromWidth;
+        this.fromHeight = fromHeight;
+        this.toX = toX;
+        this.toY = toY;
+        this.toWidth = toWidth;
+        this.toHeight = toHeight;
+    }
+
+    @Override
+    public void execute() {
+        canvas.setClassBounds(className, toX, toY, toWidth, toHeight);
+    }
+
+    @Override
+    public void undo() {
+        canvas.setClassBounds(className, fromX, fromY, fromWidth, fromHeight);
+    }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (next instanceof MoveClassCommand move && move.gesture == gesture && move.className.equals(className)) {
+            toX = move.toX;
+            toY = move.toY;
+            toWidth = move.toWidth;
+            toHeight = move.toHeight;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long estimatedSize() {
+        return 96 + 2L * className.length();
+    }
+}
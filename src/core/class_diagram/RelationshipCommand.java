@@ -0,0 +1,43 @@
+package core.class_diagram;
+
+import bean.Command;
+
+// A relationship drawn (added) or deleted on the canvas, identified by its two class names and type
+public class RelationshipCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final String startClass;
+    private final String endClass;
+    private final String type;
+    private final boolean added;
+
+    public RelationshipCommand(ClassDiagramCanvasPanel canvas, Relationship relationship, boolean added) {
+        this.canvas = canvas;
+        this.startClass = relationship.getStartClass();
+        this.endClass = relationship.getEndClass();
+        this.type = relationship.getType();
+        this.added = added;
+    }
+
+    @Override
+    public void execute() {
+        apply(added);
+    }
+
+    @Override
+    public void undo() {
+        apply(!added);
+    }
+
+    private void apply(boolean add) {
+        if (add) {
+            canvas.setRelationship(type, startClass, endClass);
+        } else {
+            canvas.removeRelationship(startClass, endClass, type);
+        }
+    }
+
+    @Override
+    public long estimatedSize() {
+        return 64 + 2L * (startClass.length() + endClass.length());
+    }
+}
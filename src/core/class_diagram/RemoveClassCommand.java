@@ -0,0 +1,45 @@
+package core.class_diagram;
+
+import bean.Command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A deleted class together with the relationships that went with it.
+// Only the plain ClassModel and Relationship data is kept, the class's nodes are recycled as usual.
+public class RemoveClassCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final ClassModel model;
+    private final List<Relationship> relationships;
+
+    public RemoveClassCommand(ClassDiagramCanvasPanel canvas, ClassModel model, List<Relationship> relationships) {
+        this.canvas = canvas;
+        this.model = model;
+        this.relationships = new ArrayList<>(relationships);
+    }
+
+    @Override
+    public void execute() {
+        canvas.removeClass(model.getName());
+    }
+
+    @Override
+    public void undo() {
+        canvas.addClass(model);
+        for (Relationship relationship : relationships) {
+            canvas.setRelationship(relationship.getType(), relationship.getStartClass(), relationship.getEndClass());
+        }
+    }
+
+    @Override
+    public long estimatedSize() {
+        long size = 128 + 2L * model.getName().length();
+        for (Attribute attribute : model.getAttributes()) {
+            size += 48 + 2L * (attribute.name.length() + attribute.type.length());
+        }
+        for (Method method : model.getMethods()) {
+            size += 64 + 2L * (method.name.length() + method.returnType.length() + String.join("", method.parameters).length());
+        }
+        return size + 64L * relationships.size();
+    }
+}
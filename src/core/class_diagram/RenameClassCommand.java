@@ -0,0 +1,31 @@
+package core.class_diagram;
+
+import bean.Command;
+
+// A class renamed through its title field
+public class RenameClassCommand implements Command {
+    private final ClassDiagramCanvasPanel canvas;
+    private final String oldName;
+    private final String newName;
+
+    public RenameClassCommand(ClassDiagramCanvasPanel canvas, String oldName, String newName) {
+        this.canvas = canvas;
+        this.oldName = oldName;
+        this.newName = newName;
+    }
+
+    @Override
+    public void execute() {
+        canvas.renameClass(oldName, newName);
+    }
+
+    @Override
+    public void undo() {
+        canvas.renameClass(newName, oldName);
+    }
+
+    @Override
+    public long estimatedSize() {
+        return 64 + 2L * (oldName.length() + newName.length());
+    }
+}
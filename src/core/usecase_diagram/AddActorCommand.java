@@ -1,17 +1,20 @@
 package core.usecase_diagram;
 
+import bean.Command;
+
 import java.util.logging.Logger;
 
 /**
  * Command to add an actor to the use case diagram.
  * If executed, adds a new actor component; undo removes it.
+ * The actor is referred to by its id, so the command holds no nodes once it has been undone.
  */
 public class AddActorCommand implements Command {
     private static final Logger LOGGER = Logger.getLogger(AddActorCommand.class.getName());
 
     private UseCaseDiagramPanel diagramPanel;
     private double x, y;
-    private UseCaseDiagramPanel.ActorComponent actorComponent;
+    private int componentId = -1; // Assigned on the first execute and reused when redone
 
     public AddActorCommand(UseCaseDiagramPanel diagramPanel, double x, double y) {
         this.diagramPanel = diagramPanel;
@@ -22,7 +25,10 @@ public class AddActorCommand implements Command {
     @Override
     public void execute() {
         try {
-            actorComponent = diagramPanel.addActor(x, y);
+            UseCaseDiagramPanel.ActorComponent actorComponent = componentId < 0
+                    ? diagramPanel.addActor(x, y)
+                    : diagramPanel.addActor(x, y, componentId);
+            componentId = actorComponent.id;
             LOGGER.info("Actor added via command at (" + x + "," + y + ")");
         } catch (Exception e) {
             LOGGER.severe("Failed to execute AddActorCommand: " + e.getMessage());
@@ -32,8 +38,10 @@ public class AddActorCommand implements Command {
     @Override
     public void undo() {
         try {
-            diagramPanel.removeActor(actorComponent);
-            LOGGER.info("Actor removed via undo command.");
+            if (diagramPanel.getComponent(componentId) instanceof UseCaseDiagramPanel.ActorComponent actorComponent) {
+                diagramPanel.removeActor(actorComponent);
+                LOGGER.info("Actor removed via undo command.");
+            }
         } catch (Exception e) {
             LOGGER.severe("Failed to undo AddActorCommand: " + e.getMessage());
         }
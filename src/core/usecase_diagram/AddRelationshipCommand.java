@@ -1,21 +1,23 @@
 package core.usecase_diagram;
 
+import bean.Command;
+
 import java.util.logging.Logger;
 
 /**
  * Command to add a relationship between two components.
  * Executing adds the relationship; undo removes it.
+ * Both ends are referred to by component id, so the command holds no nodes.
  */
 public class AddRelationshipCommand implements Command {
     private static final Logger LOGGER = Logger.getLogger(AddRelationshipCommand.class.getName());
 
     private UseCaseDiagramPanel diagramPanel;
-    private UseCaseDiagramPanel.DiagramComponent fromComponent;
-    private UseCaseDiagramPanel.DiagramComponent toComponent;
+    private int fromId;
+    private int toId;
     private String relationshipText;
     private boolean isExtend;
     private boolean isInclude;
-    private UseCaseRelationship relationship;
 
     public AddRelationshipCommand(UseCaseDiagramPanel diagramPanel,
                                   UseCaseDiagramPanel.DiagramComponent fromComponent,
@@ -24,8 +26,8 @@ public class AddRelationshipCommand implements Command {
                                   boolean isExtend,
                                   boolean isInclude) {
         this.diagramPanel = diagramPanel;
-        this.fromComponent = fromComponent;
-        this.toComponent = toComponent;
+        this.fromId = fromComponent.id;
+        this.toId = toComponent.id;
         this.relationshipText = relationshipText;
         this.isExtend = isExtend;
         this.isInclude = isInclude;
@@ -34,8 +36,14 @@ public class AddRelationshipCommand implements Command {
     @Override
     public void execute() {
         try {
+            UseCaseDiagramPanel.DiagramComponent fromComponent = diagramPanel.getComponent(fromId);
+            UseCaseDiagramPanel.DiagramComponent toComponent = diagramPanel.getComponent(toId);
+            if (fromComponent == null || toComponent == null) {
+                LOGGER.warning("Relationship '" + relationshipText + "' not added, one of its components was deleted.");
+                return;
+            }
             // Pass the isExtend and isInclude flags along when adding the relationship.
-            relationship = diagramPanel.addRelationship(fromComponent, toComponent, relationshipText, isExtend, isInclude);
+            diagramPanel.addRelationship(fromComponent, toComponent, relationshipText, isExtend, isInclude);
             LOGGER.info("Relationship '" + relationshipText + "' added between " + fromComponent.getText() + " and " + toComponent.getText() +
                     (isExtend ? " [<<extend>>]" : isInclude ? " [<<include>>]" : ""));
         } catch (Exception e) {
@@ -43,9 +51,21 @@ public class AddRelationshipCommand implements Command {
         }
     }
 
+    @Override
+    public long estimatedSize() {
+        return 64 + (relationshipText == null ? 0 : 2L * relationshipText.length());
+    }
+
     @Override
     public void undo() {
         try {
+            // The newest relationship between the two components is the one this command added
+            UseCaseRelationship relationship = null;
+            for (UseCaseRelationship candidate : diagramPanel.relationships) {
+                if (candidate.from.id == fromId && candidate.to.id == toId) {
+                    relationship = candidate;
+                }
+            }
             if (relationship != null) {
                 diagramPanel.removeRelationship(relationship);
                 LOGGER.info("Relationship '" + relationshipText + "' removed via undo.");
@@ -1,10 +1,13 @@
 package core.usecase_diagram;
 
+import bean.Command;
+
 import java.util.logging.Logger;
 
 /**
  * Command to add a use case to the diagram.
  * Executing adds a new use case; undo removes it.
+ * The use case is referred to by its id, so the command holds no nodes once it has been undone.
  */
 public class AddUseCaseCommand implements Command {
     private static final Logger LOGGER = Logger.getLogger(AddUseCaseCommand.class.getName());
@@ -12,7 +15,7 @@ public class AddUseCaseCommand implements Command {
     private UseCaseDiagramPanel diagramPanel;
     private double x, y;
     private String text;
-    private UseCaseDiagramPanel.UseCaseComponent useCaseComponent;
+    private int componentId = -1; // Assigned on the first execute and reused when redone
 
     public AddUseCaseCommand(UseCaseDiagramPanel diagramPanel, double x, double y, String text) {
         this.diagramPanel = diagramPanel;
@@ -24,18 +27,28 @@ public class AddUseCaseCommand implements Command {
     @Override
     public void execute() {
         try {
-            useCaseComponent = diagramPanel.addUseCase(x, y, text);
+            UseCaseDiagramPanel.UseCaseComponent useCaseComponent = componentId < 0
+                    ? diagramPanel.addUseCase(x, y, text)
+                    : diagramPanel.addUseCase(x, y, text, componentId);
+            componentId = useCaseComponent.id;
             LOGGER.info("Use case '" + text + "' added at (" + x + "," + y + ")");
         } catch (Exception e) {
             LOGGER.severe("Failed to execute AddUseCaseCommand: " + e.getMessage());
         }
     }
 
+    @Override
+    public long estimatedSize() {
+        return 64 + 2L * text.length();
+    }
+
     @Override
     public void undo() {
         try {
-            diagramPanel.removeUseCase(useCaseComponent);
-            LOGGER.info("Use case removed via undo command.");
+            if (diagramPanel.getComponent(componentId) instanceof UseCaseDiagramPanel.UseCaseComponent useCaseComponent) {
+                diagramPanel.removeUseCase(useCaseComponent);
+                LOGGER.info("Use case removed via undo command.");
+            }
         } catch (Exception e) {
             LOGGER.severe("Failed to undo AddUseCaseCommand: " + e.getMessage());
         }
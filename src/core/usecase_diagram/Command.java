@@ -1,6 +0,0 @@
-package core.usecase_diagram;
-
-public interface Command {
-    void execute();
-    void undo();
-}
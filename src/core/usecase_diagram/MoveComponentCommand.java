@@ -0,0 +1,59 @@
+package core.usecase_diagram;
+
+import bean.Command;
+
+import java.util.logging.Logger;
+
+/**
+ * Command recording a dragged component.
+ * The steps of one drag share its gesture and merge into a single history entry; separate drags never do.
+ */
+public class MoveComponentCommand implements Command {
+    private static final Logger LOGGER = Logger.getLogger(MoveComponentCommand.class.getName());
+
+    private UseCaseDiagramPanel diagramPanel;
+    private int componentId;
+    private Object gesture;
+    private double fromX, fromY;
+    private double toX, toY;
+
+    public MoveComponentCommand(UseCaseDiagramPanel diagramPanel, int componentId, Object gesture, double fromX, double fromY, double toX, double toY) {
+        this.diagramPanel = diagramPanel;
+        this.componentId = componentId;
+        this.gesture = gesture;
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.toX = toX;
+        this.toY = toY;
+    }
+
+    @Override
+    public void execute() {
+        moveTo(toX, toY);
+    }
+
+    @Override
+    public void undo() {
+        moveTo(fromX, fromY);
+    }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (next instanceof MoveComponentCommand move && move.gesture == gesture && move.componentId == componentId) {
+            toX = move.toX;
+            toY = move.toY;
+            return true;
+        }
+        return false;
+    }
+
+    private void moveTo(double x, double y) {
+        UseCaseDiagramPanel.DiagramComponent component = diagramPanel.getComponent(componentId);
+        if (component == null) {
+            LOGGER.warning("Component " + componentId + " no longer exists, move skipped.");
+            return;
+        }
+        component.container.setLayoutX(x);
+        component.container.setLayoutY(y);
+    }
+}
@@ -1,5 +1,7 @@
 package core.usecase_diagram;
 
+import bean.CommandHistoryBean;
+import bean.SpatialIndexBean;
 import javafx.beans.binding.DoubleBinding;
 import javafx.geometry.Bounds;
 import javafx.geometry.*;
@@ -20,6 +22,7 @@ import ui.ActorShape;
 import ui.UndoableDiagramPanel;
 import java.io.InputStream;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -48,6 +51,11 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
     // List of components and relationships in the diagram
     public List<DiagramComponent> components = new ArrayList<>();
     public List<UseCaseRelationship> relationships = new ArrayList<>();
+    // Component boxes in panel coordinates, for hit-testing without visiting every component
+    private final SpatialIndexBean<DiagramComponent> componentIndex = new SpatialIndexBean<>();
+    // Components by id; commands refer to components through these ids instead of holding them
+    private final Map<Integer, DiagramComponent> componentsById = new HashMap<>();
+    private int nextComponentId;
 
     // Temporary variables for interaction
     private Line tempLine;
@@ -68,9 +76,29 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
     // Current interaction mode
     Mode currentMode = Mode.DEFAULT;
 
-    // Undo/redo stacks for command-based actions
-    private final Deque<Command> undoStack = new ArrayDeque<>();
-    private final Deque<Command> redoStack = new ArrayDeque<>();
+    // Undo/redo history for command-based actions
+    private final CommandHistoryBean history = new CommandHistoryBean();
+
+    // Notified of every edit, e.g. by the autosave journal
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Receives the edits made to the panel, one component or relationship at a time.
+     */
+    public interface Listener {
+        default void componentAdded(DiagramComponent component) {}
+
+        default void componentRemoved(DiagramComponent component) {}
+
+        /** The component's container was moved or resized. */
+        default void componentMoved(DiagramComponent component) {}
+
+        default void componentTextChanged(DiagramComponent component) {}
+
+        default void relationshipAdded(UseCaseRelationship relationship) {}
+
+        default void relationshipRemoved(UseCaseRelationship relationship) {}
+    }
 
     /**
      * Constructor for the UseCaseDiagramPanel.
@@ -96,6 +124,14 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      * @return The created ActorComponent.
      */
     public ActorComponent addActor(double x, double y) {
+        return addActor(x, y, nextComponentId);
+    }
+
+    /**
+     * Adds an actor with a given id, so a redone command or a loaded file recreates the component
+     * that later commands and journal entries refer to.
+     */
+    public ActorComponent addActor(double x, double y, int id) {
         StackPane actorContainer = new StackPane();
         if (actorImage != null) {
 
@@ -126,7 +162,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
         Text text = new Text("Actor " + (actorCount + 1));
 
         ActorComponent actorComponent = new ActorComponent(actorContainer, shape, text);
-        components.add(actorComponent);
+        addComponent(actorComponent, id);
         getChildren().add(actorContainer);
 
         LOGGER.info("Actor added at (" + x + ", " + y + ")");
@@ -140,7 +176,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      * @param actorComponent The ActorComponent to remove.
      */
     public void removeActor(ActorComponent actorComponent) {
-        components.remove(actorComponent);
+        removeComponent(actorComponent);
         getChildren().remove(actorComponent.container);
     }
 
@@ -156,6 +192,14 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      * @return The created UseCaseComponent.
      */
     public UseCaseComponent addUseCase(double x, double y, String text) {
+        return addUseCase(x, y, text, nextComponentId);
+    }
+
+    /**
+     * Adds a use case with a given id, so a redone command or a loaded file recreates the component
+     * that later commands and journal entries refer to.
+     */
+    public UseCaseComponent addUseCase(double x, double y, String text, int id) {
         Ellipse useCase = new Ellipse(100, 40);
         useCase.setFill(Color.WHITE);
         useCase.setStroke(Color.BLACK);
@@ -167,7 +211,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
         useCaseContainer.setLayoutY(y);
 
         UseCaseComponent useCaseComponent = new UseCaseComponent(useCaseContainer, useCase, useCaseText);
-        components.add(useCaseComponent);
+        addComponent(useCaseComponent, id);
         getChildren().add(useCaseContainer);
         resetAllModes();
 
@@ -184,7 +228,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      * @param useCaseComponent The UseCaseComponent to remove.
      */
     public void removeUseCase(UseCaseComponent useCaseComponent) {
-        components.remove(useCaseComponent);
+        removeComponent(useCaseComponent);
         getChildren().remove(useCaseComponent.container);
     }
 
@@ -475,7 +519,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
         rectangleContainer.getChildren().add(text);
 
         DiagramComponent rectangleComponent = new DiagramComponent(rectangleContainer, rectangle, text);
-        components.add(rectangleComponent);
+        addComponent(rectangleComponent, nextComponentId);
         getChildren().add(rectangleContainer);
 
         LOGGER.info("Rectangle container added at (" + x + ", " + y + ") with width " + width + " and height " + height);
@@ -501,9 +545,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
 
 
             AddUseCaseCommand command = new AddUseCaseCommand(this, x, y, useCaseText.trim());
-            command.execute();
-            undoStack.push(command);
-            redoStack.clear();
+            history.execute(command);
         } else {
             LOGGER.info("Use Case creation canceled or empty text.");
         }
@@ -522,9 +564,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
 
 
         AddActorCommand command = new AddActorCommand(this, x, y);
-        command.execute();
-        undoStack.push(command);
-        redoStack.clear();
+        history.execute(command);
     }
 
 
@@ -608,9 +648,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
                     }
 
                     AddRelationshipCommand command = new AddRelationshipCommand(this, startComponent, endComponent, relationshipText, options.isExtend, options.isInclude);
-                    command.execute();
-                    undoStack.push(command);
-                    redoStack.clear();
+                    history.execute(command);
                 } else {
                     LOGGER.info("Relationship creation canceled.");
                 }
@@ -644,24 +682,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
             DiagramComponent component = getComponentAt(x, y);
 
             if (component != null) {
-                if (component instanceof ActorComponent) {
-                    removeActor((ActorComponent) component);
-                } else if (component instanceof UseCaseComponent) {
-                    removeUseCase((UseCaseComponent) component);
-                }
-
-                // Remove connected relationships
-                relationships.removeIf(relationship -> {
-                    if (relationship.from == component || relationship.to == component) {
-                        getChildren().remove(relationship.line);
-                        if (relationship.label != null) {
-                            getChildren().remove(relationship.label);
-                        }
-                        return true;
-                    }
-                    return false;
-                });
-
+                deleteComponent(component);
                 LOGGER.info("Deleted component and associated relationships.");
             } else {
                 LOGGER.info("No component found at the clicked position.");
@@ -676,13 +697,99 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
     }
 
 
+    /**
+     * Removes an actor or use case together with the relationships connected to it.
+     *
+     * @param component The component to delete.
+     */
+    public void deleteComponent(DiagramComponent component) {
+        if (component instanceof ActorComponent) {
+            removeActor((ActorComponent) component);
+        } else if (component instanceof UseCaseComponent) {
+            removeUseCase((UseCaseComponent) component);
+        }
+
+        // Remove connected relationships
+        relationships.removeIf(relationship -> {
+            if (relationship.from == component || relationship.to == component) {
+                getChildren().remove(relationship.line);
+                if (relationship.label != null) {
+                    getChildren().remove(relationship.label);
+                }
+                fire(listener -> listener.relationshipRemoved(relationship));
+                return true;
+            }
+            return false;
+        });
+    }
+
     private DiagramComponent getComponentAt(double sceneX, double sceneY) {
-        for (DiagramComponent component : components) {
-            if (component.containsSceneCoords(sceneX, sceneY)) {
-                return component;
+        Point2D local = sceneToLocal(sceneX, sceneY);
+        return componentIndex.itemAt(local.getX(), local.getY());
+    }
+
+    /**
+     * Returns the component with the given id, or null if it has been removed.
+     *
+     * @param id The id assigned when the component was added.
+     */
+    public DiagramComponent getComponent(int id) {
+        return componentsById.get(id);
+    }
+
+    /**
+     * Adds a component to the component list, the id map and the spatial index.
+     * The index follows the container as it is dragged or resized.
+     *
+     * @param component The component to add.
+     * @param id The component's id.
+     */
+    private void addComponent(DiagramComponent component, int id) {
+        component.id = id;
+        component.parentPanel = this;
+        nextComponentId = Math.max(nextComponentId, id + 1);
+        componentsById.put(id, component);
+        components.add(component);
+        Bounds bounds = component.container.getBoundsInParent();
+        componentIndex.put(component, bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
+        component.container.boundsInParentProperty().addListener((observable, oldBounds, newBounds) -> {
+            componentIndex.move(component, newBounds.getMinX(), newBounds.getMinY(), newBounds.getWidth(), newBounds.getHeight());
+            if (componentsById.get(component.id) == component) {
+                fire(listener -> listener.componentMoved(component));
             }
+        });
+        component.text.textProperty().addListener((observable, oldText, newText) -> {
+            if (componentsById.get(component.id) == component) {
+                fire(listener -> listener.componentTextChanged(component));
+            }
+        });
+        fire(listener -> listener.componentAdded(component));
+    }
+
+    /**
+     * Removes a component from the component list and the spatial index.
+     *
+     * @param component The component to remove.
+     */
+    private void removeComponent(DiagramComponent component) {
+        components.remove(component);
+        componentsById.remove(component.id);
+        componentIndex.remove(component);
+        fire(listener -> listener.componentRemoved(component));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fire(Consumer<Listener> event) {
+        for (Listener listener : new ArrayList<>(listeners)) {
+            event.accept(listener);
         }
-        return null;
     }
 
 /*Mouse Listeners -------------------------------------------------------------------**/
@@ -760,6 +867,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
         UseCaseRelationship relationship = new UseCaseRelationship(from, to, relationshipLine, label);
         relationships.add(relationship);
         resetAllModes();
+        fire(listener -> listener.relationshipAdded(relationship));
 
         return relationship;
     }
@@ -773,7 +881,9 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      */
     public void removeRelationship(UseCaseRelationship relationship) {
         // Remove the relationship from the internal list.
-        relationships.remove(relationship);
+        if (!relationships.remove(relationship)) {
+            return;
+        }
 
         // Remove the line (if any). Whether it's dashed or solid,
         // removing it from the children removes it from the diagram.
@@ -786,6 +896,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
             getChildren().remove(relationship.label);
         }
         resetAllModes();
+        fire(listener -> listener.relationshipRemoved(relationship));
     }
 
     /** Relationships --------------------------------------------------------------------- **/
@@ -799,10 +910,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      */
     @Override
     public void undo() {
-        if (!undoStack.isEmpty()) {
-            Command command = undoStack.pop();
-            command.undo();
-            redoStack.push(command);
+        if (history.undo()) {
             LOGGER.info("Undo executed.");
         } else {
             LOGGER.info("Nothing to undo.");
@@ -817,10 +925,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
      */
     @Override
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            Command command = redoStack.pop();
-            command.execute();
-            undoStack.push(command);
+        if (history.redo()) {
             LOGGER.info("Redo executed.");
         } else {
             LOGGER.info("Nothing to redo.");
@@ -835,6 +940,7 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
         public Text text;
         public final StackPane container;
         protected UseCaseDiagramPanel parentPanel;
+        int id; // Assigned by the panel when the component is added
 
 
 
@@ -871,11 +977,17 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
 
         private double dragOffsetX;
         private double dragOffsetY;
+        private double dragStartX; // Where the current drag began, for undo
+        private double dragStartY;
+        private Object dragGesture; // New at every press, so only the steps of one drag merge into one history entry
 
         private void componentOnMousePressed(MouseEvent event) {
             if (dragMode) {
                 double initialX = container.getLayoutX();
                 double initialY = container.getLayoutY();
+                dragStartX = initialX;
+                dragStartY = initialY;
+                dragGesture = new Object();
                 dragOffsetX = event.getSceneX() - initialX;
                 dragOffsetY = event.getSceneY() - initialY;
                 container.toFront();
@@ -891,6 +1003,9 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
                 double newY = event.getSceneY() - dragOffsetY;
                 container.setLayoutX(newX);
                 container.setLayoutY(newY);
+                if (parentPanel != null) {
+                    parentPanel.history.record(new MoveComponentCommand(parentPanel, id, dragGesture, dragStartX, dragStartY, newX, newY));
+                }
                 event.consume(); // Consume event to prevent interference
             }
 
@@ -937,6 +1052,10 @@ public class UseCaseDiagramPanel extends Pane implements UndoableDiagramPanel {
             return text.getText();
         }
 
+        public int getId() {
+            return id;
+        }
+
         public void setText(Text text2) {
             this.text =  text2;
         }
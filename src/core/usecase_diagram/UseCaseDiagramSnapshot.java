@@ -0,0 +1,94 @@
+package core.usecase_diagram;
+
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Ellipse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plain copy of what a use case diagram saves: its components' ids, types, positions and labels, and its relationships.
+ * Taking one reads the nodes, so it must happen on the FX thread; the copy can then be written out on any thread
+ * while the user keeps editing.
+ */
+public final class UseCaseDiagramSnapshot {
+    private final String name;
+    private final List<ComponentSnapshot> components;
+    private final List<RelationshipSnapshot> relationships;
+
+    private UseCaseDiagramSnapshot(String name, List<ComponentSnapshot> components, List<RelationshipSnapshot> relationships) {
+        this.name = name;
+        this.components = components;
+        this.relationships = relationships;
+    }
+
+    /**
+     * Copies the panel's current state; costs one small object per component and relationship.
+     */
+    public static UseCaseDiagramSnapshot of(UseCaseDiagramPanel panel) {
+        List<ComponentSnapshot> components = new ArrayList<>(panel.components.size());
+        for (UseCaseDiagramPanel.DiagramComponent component : panel.components) {
+            String type = null;
+            if (component.shape instanceof Ellipse) {
+                type = "UseCase";
+            } else if (component.shape instanceof Circle) {
+                type = "Actor";
+            }
+            components.add(new ComponentSnapshot(component.getId(), type,
+                    component.container.getLayoutX(), component.container.getLayoutY(), component.getText()));
+        }
+        List<RelationshipSnapshot> relationships = new ArrayList<>(panel.relationships.size());
+        for (UseCaseRelationship relationship : panel.relationships) {
+            relationships.add(new RelationshipSnapshot(relationship.from.getText(), relationship.to.getText(),
+                    relationship.label == null ? "" : relationship.label.getText()));
+        }
+        return new UseCaseDiagramSnapshot(panel.getName(), Collections.unmodifiableList(components),
+                Collections.unmodifiableList(relationships));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<ComponentSnapshot> getComponents() {
+        return components;
+    }
+
+    public List<RelationshipSnapshot> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * One component; the type is "UseCase", "Actor", or null for shapes that are neither.
+     */
+    public static final class ComponentSnapshot {
+        public final int id;
+        public final String type;
+        public final double x, y;
+        public final String label;
+
+        ComponentSnapshot(int id, String type, double x, double y, String label) {
+            this.id = id;
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.label = label;
+        }
+    }
+
+    /**
+     * One relationship, naming its ends by their labels as the XML does.
+     */
+    public static final class RelationshipSnapshot {
+        public final String from;
+        public final String to;
+        public final String label;
+
+        RelationshipSnapshot(String from, String to, String label) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+        }
+    }
+}
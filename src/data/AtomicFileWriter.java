@@ -0,0 +1,204 @@
+package data;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Crash-safe replacement of saved diagrams.
+// The new content goes to a temp file in the target's directory, is forced to disk and then moved over the target in
+// one step, so the target always holds either the old or the new file. Checksummed files start with a marker and end
+// with a CRC32 trailer, both shaped like XML comments so XML parsers skip them; binary readers open the file through
+// open() to start after the marker and stop before the trailer. verify() checks the trailer before a file is parsed.
+// XML written through here must leave out the XML declaration, which may not come after a comment.
+public class AtomicFileWriter {
+    // Version 1 of the framing; a file that starts with it must end with a matching trailer
+    private static final byte[] MARKER = "<!-- uml-editor crc32 v1 -->\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String TRAILER_PREFIX = "<!-- crc32:";
+    private static final String TRAILER_SUFFIX = " -->\n";
+    private static final int TRAILER_LENGTH = TRAILER_PREFIX.length() + 8 + TRAILER_SUFFIX.length();
+
+    public interface Body {
+        void writeTo(OutputStream out) throws Exception;
+    }
+
+    public static void write(File target, Body body) throws Exception {
+        write(target, body, true);
+    }
+
+    // Formats that checksum their own content, like ZIP archives, leave the trailer out so other tools still open them
+    public static void write(File target, Body body, boolean checksum) throws Exception {
+        Path targetPath = target.toPath().toAbsolutePath();
+        Files.createDirectories(targetPath.getParent());
+        Path temp = createTemp(targetPath);
+        try {
+            // Keep the permissions the user gave the file, as overwriting it in place would
+            if (Files.exists(targetPath)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(targetPath));
+                } catch (UnsupportedOperationException e) {
+                    // Not a POSIX file system; the temp file already has the default permissions
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream channelOut = Channels.newOutputStream(channel);
+                CRC32 crc = new CRC32();
+                OutputStream out = new BufferedOutputStream(new CheckedOutputStream(channelOut, crc), 64 * 1024);
+                if (checksum) {
+                    out.write(MARKER);
+                }
+                body.writeTo(out);
+                out.flush();
+                if (checksum) {
+                    ByteBuffer trailer = trailer(crc.getValue());
+                    while (trailer.hasRemaining()) {
+                        channel.write(trailer);
+                    }
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(targetPath.getParent());
+        } finally {
+            Files.deleteIfExists(temp); // Only still there if writing failed
+        }
+    }
+
+    // Throws if the file's checksum trailer is missing or doesn't match its content.
+    // Only XML saved before checksums were added lacks the leading marker; it is accepted as it is.
+    public static void verify(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer trailer = null;
+            if (size >= TRAILER_LENGTH) {
+                trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+                channel.read(trailer, size - TRAILER_LENGTH);
+                trailer.flip();
+            }
+            long expected = expectedChecksum(file.getName(), contentStart(channel) > 0, size, trailer);
+            if (expected < 0) {
+                return;
+            }
+
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            long position = 0;
+            long contentLength = size - TRAILER_LENGTH;
+            while (position < contentLength) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), contentLength - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += read;
+            }
+            if (crc.getValue() != expected) {
+                throw new IOException(file.getName() + " is corrupt: checksum mismatch");
+            }
+        }
+    }
+
+    // The same check on a whole file already read into memory, which saves reading it twice.
+    // Returns the content, from after the marker to the end of the file.
+    public static ByteBuffer verify(String fileName, ByteBuffer file) throws IOException {
+        int size = file.remaining();
+        boolean marked = size >= MARKER.length && file.duplicate().limit(file.position() + MARKER.length).equals(ByteBuffer.wrap(MARKER));
+        ByteBuffer trailer = size >= TRAILER_LENGTH ? file.duplicate().position(file.limit() - TRAILER_LENGTH) : null;
+        long expected = expectedChecksum(fileName, marked, size, trailer);
+        if (expected >= 0) {
+            CRC32 crc = new CRC32();
+            crc.update(file.duplicate().limit(file.limit() - TRAILER_LENGTH));
+            if (crc.getValue() != expected) {
+                throw new IOException(fileName + " is corrupt: checksum mismatch");
+            }
+        }
+        return file.duplicate().position(file.position() + (marked ? MARKER.length : 0));
+    }
+
+    // The checksum the trailer holds, or -1 for a legacy file without one; trailer is null if the file is too short
+    private static long expectedChecksum(String fileName, boolean marked, long size, ByteBuffer trailer) throws IOException {
+        String text = trailer == null ? "" : StandardCharsets.US_ASCII.decode(trailer).toString();
+        if (size < (marked ? MARKER.length : 0) + TRAILER_LENGTH || !text.startsWith(TRAILER_PREFIX) || !text.endsWith(TRAILER_SUFFIX)) {
+            if (marked) {
+                throw new IOException(fileName + " is corrupt: missing checksum");
+            }
+            return -1;
+        }
+        try {
+            return Long.parseLong(text.substring(TRAILER_PREFIX.length(), TRAILER_PREFIX.length() + 8), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException(fileName + " is corrupt: unreadable checksum");
+        }
+    }
+
+    // Opens the file for reading from the first byte after the marker
+    public static InputStream open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(contentStart(channel));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return Channels.newInputStream(channel);
+    }
+
+    // Offset of the content in the channel: the marker's length, or 0 for a file without one
+    public static long contentStart(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(MARKER.length);
+        while (head.hasRemaining()) {
+            if (channel.read(head, head.position()) < 0) {
+                return 0;
+            }
+        }
+        return Arrays.equals(head.array(), MARKER) ? MARKER.length : 0;
+    }
+
+    // Created like a new file rather than with Files.createTempFile, which would make it readable by the owner only
+    private static Path createTemp(Path target) throws IOException {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            Path temp = target.resolveSibling("." + target.getFileName() + "." + suffix + ".tmp");
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    // Makes the rename itself durable. Some platforms (Windows) can't open a directory; the move is still atomic there.
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more can be done
+        }
+    }
+
+    private static ByteBuffer trailer(long crc) {
+        return ByteBuffer.wrap((TRAILER_PREFIX + String.format("%08x", crc) + TRAILER_SUFFIX).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,342 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// Compact binary alternative to the XML class diagram files, stored as "<name>.umlb".
+// Every distinct string (names, types, access modifiers, parameters) is stored once in a string table and referred to
+// by index; counts and indexes are unsigned varints and coordinates are raw doubles, so nothing is parsed from text.
+//
+//   magic "UMLB", version byte
+//   string table: count, then per string its UTF-8 length and bytes
+//   diagram name
+//   class count, then the class index: one fixed-size entry per class with
+//       name (int), flags (byte, 1 = interface), x, y, prefWidth, prefHeight (doubles), member offset (int)
+//   relationship count, per relationship: startClass, endClass, type
+//   member records, at the offsets in the index counted from the first record:
+//       attribute count, per attribute: access, name, type,
+//       method count, per method: access, name, returnType, parameter count, parameters
+//
+// Reading takes the file into memory in one read, checks its checksum there, closes it and builds every class from its
+// index entry alone; a class's members are decoded from those bytes the first time they are asked for, e.g. when the
+// canvas scrolls it into view. The file is not mapped: a mapping would keep it open until garbage collected, and
+// Windows refuses to replace an open file. Version 1 files, which kept the members inline after each class, are still
+// read, eagerly. Anything after the member records, like the checksum trailer of AtomicFileWriter, is ignored.
+public class ClassDiagramBinaryFormat {
+    public static final String EXTENSION = ".umlb";
+    private static final byte[] MAGIC = {'U', 'M', 'L', 'B'};
+    private static final byte VERSION = 2;
+    private static final int INDEX_ENTRY_SIZE = Integer.BYTES + 1 + 4 * Double.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static boolean isBinary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long start = AtomicFileWriter.contentStart(channel);
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining()) {
+                if (channel.read(head, start + head.position()) < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(head.array(), MAGIC);
+        }
+    }
+
+    // Writes the diagram through one reused buffer, flushing it to the channel whenever it fills up
+    public static void write(ClassDiagram diagram, WritableByteChannel channel) throws IOException {
+        // First pass: give every distinct string an index, in order of first use
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        intern(strings, table, diagram.getName());
+        for (ClassModel c : diagram.getClasses()) {
+            intern(strings, table, c.getName());
+            for (Attribute attribute : c.getAttributes()) {
+                intern(strings, table, attribute.getAccess());
+                intern(strings, table, attribute.getName());
+                intern(strings, table, attribute.getType());
+            }
+            for (Method method : c.getMethods()) {
+                intern(strings, table, method.access);
+                intern(strings, table, method.name);
+                intern(strings, table, method.returnType);
+                for (String parameter : method.parameters) {
+                    intern(strings, table, parameter);
+                }
+            }
+        }
+        for (Relationship r : diagram.getRelationships()) {
+            intern(strings, table, r.getStartClass());
+            intern(strings, table, r.getEndClass());
+            intern(strings, table, r.getType());
+        }
+
+        Output out = new Output(channel);
+        out.bytes(MAGIC);
+        out.ensure(1).put(VERSION);
+        out.varint(table.size());
+        for (String s : table) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.varint(utf8.length);
+            out.bytes(utf8);
+        }
+
+        out.varint(strings.get(diagram.getName()));
+        out.varint(diagram.getClasses().size());
+        int offset = 0;
+        for (ClassModel c : diagram.getClasses()) {
+            out.ensure(INDEX_ENTRY_SIZE)
+                    .putInt(strings.get(c.getName()))
+                    .put((byte) (c.isInterface() ? 1 : 0))
+                    .putDouble(c.getX())
+                    .putDouble(c.getY())
+                    .putDouble(c.getPrefWidth())
+                    .putDouble(c.getPrefHeight())
+                    .putInt(offset);
+            offset += membersSize(c, strings);
+        }
+        out.varint(diagram.getRelationships().size());
+        for (Relationship r : diagram.getRelationships()) {
+            out.varint(strings.get(r.getStartClass()));
+            out.varint(strings.get(r.getEndClass()));
+            out.varint(strings.get(r.getType()));
+        }
+        for (ClassModel c : diagram.getClasses()) {
+            writeMembers(out, c, strings);
+        }
+        out.flush();
+    }
+
+    private static void writeMembers(Output out, ClassModel c, Map<String, Integer> strings) throws IOException {
+        out.varint(c.getAttributes().size());
+        for (Attribute attribute : c.getAttributes()) {
+            out.varint(strings.get(attribute.getAccess()));
+            out.varint(strings.get(attribute.getName()));
+            out.varint(strings.get(attribute.getType()));
+        }
+        out.varint(c.getMethods().size());
+        for (Method method : c.getMethods()) {
+            out.varint(strings.get(method.access));
+            out.varint(strings.get(method.name));
+            out.varint(strings.get(method.returnType));
+            out.varint(method.parameters.size());
+            for (String parameter : method.parameters) {
+                out.varint(strings.get(parameter));
+            }
+        }
+    }
+
+    // Bytes writeMembers will produce, so the index can point at each record before the records are written
+    private static int membersSize(ClassModel c, Map<String, Integer> strings) {
+        int size = varintSize(c.getAttributes().size());
+        for (Attribute attribute : c.getAttributes()) {
+            size += varintSize(strings.get(attribute.getAccess()))
+                    + varintSize(strings.get(attribute.getName()))
+                    + varintSize(strings.get(attribute.getType()));
+        }
+        size += varintSize(c.getMethods().size());
+        for (Method method : c.getMethods()) {
+            size += varintSize(strings.get(method.access))
+                    + varintSize(strings.get(method.name))
+                    + varintSize(strings.get(method.returnType))
+                    + varintSize(method.parameters.size());
+            for (String parameter : method.parameters) {
+                size += varintSize(strings.get(parameter));
+            }
+        }
+        return size;
+    }
+
+    // The bytes stay in memory until the last lazily loaded class has decoded its members
+    public static ClassDiagram read(File file, BooleanSupplier cancelled) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        return read(AtomicFileWriter.verify(file.getName(), bytes), cancelled);
+    }
+
+    // Reads a diagram from the buffer's position; the cancelled check is polled once per class
+    public static ClassDiagram read(ByteBuffer in, BooleanSupplier cancelled) throws IOException {
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary class diagram");
+            }
+            byte version = in.get();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported binary class diagram version " + version);
+            }
+            String[] strings = new String[readVarint(in)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[readVarint(in)];
+                in.get(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            ClassDiagram diagram = new ClassDiagram(strings[readVarint(in)]);
+            int classCount = readVarint(in);
+            int[] offsets = new int[version == 1 ? 0 : classCount];
+            for (int i = 0; i < classCount; i++) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Loading of " + diagram.getName() + " was cancelled");
+                }
+                String name = strings[version == 1 ? readVarint(in) : in.getInt()];
+                boolean isInterface = (in.get() & 1) != 0;
+                ClassModel c = new ClassModel(name, isInterface, in.getDouble(), in.getDouble());
+                c.setPreferredSize(in.getDouble(), in.getDouble());
+                if (version == 1) {
+                    readMembers(in, strings, c);
+                } else {
+                    offsets[i] = in.getInt();
+                }
+                diagram.addClass(c);
+            }
+            int relationshipCount = readVarint(in);
+            for (int i = 0; i < relationshipCount; i++) {
+                diagram.addRelationship(new Relationship(strings[readVarint(in)], strings[readVarint(in)], strings[readVarint(in)]));
+            }
+
+            if (version != 1) {
+                ByteBuffer records = in.slice();
+                for (int i = 0; i < classCount; i++) {
+                    ClassModel c = diagram.getClasses().get(i);
+                    int offset = offsets[i];
+                    c.setPendingMembers(target -> readPendingMembers(records.duplicate().position(offset), strings, target));
+                }
+            }
+            return diagram;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalStateException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            // Buffer underflows and out-of-range string indexes both mean the file is damaged
+            throw new IOException("Damaged binary class diagram: " + e, e);
+        }
+    }
+
+    // Called from getAttributes / getMethods, which can't throw IOException; a damaged record leaves the class untouched.
+    // Snapshots of the class decode into copies of their own, possibly on the autosave thread, each from its own buffer.
+    private static void readPendingMembers(ByteBuffer in, String[] strings, ClassModel c) {
+        ClassModel decoded = new ClassModel(c.getName(), c.isInterface(), 0, 0);
+        try {
+            readMembers(in, strings, decoded);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalStateException | IllegalArgumentException e) {
+            throw new UncheckedIOException(new IOException("Damaged binary class diagram: cannot read the members of "
+                    + c.getName() + ": " + e, e));
+        }
+        c.attributes.addAll(decoded.attributes);
+        c.methods.addAll(decoded.methods);
+    }
+
+    private static void readMembers(ByteBuffer in, String[] strings, ClassModel c) {
+        int attributeCount = readVarint(in);
+        c.attributes.ensureCapacity(Math.min(attributeCount, in.remaining()));
+        for (int a = 0; a < attributeCount; a++) {
+            String access = strings[readVarint(in)];
+            String attributeName = strings[readVarint(in)];
+            c.attributes.add(new Attribute(attributeName, strings[readVarint(in)], access));
+        }
+        int methodCount = readVarint(in);
+        c.methods.ensureCapacity(Math.min(methodCount, in.remaining()));
+        for (int m = 0; m < methodCount; m++) {
+            String access = strings[readVarint(in)];
+            String methodName = strings[readVarint(in)];
+            String returnType = strings[readVarint(in)];
+            int parameterCount = readVarint(in);
+            ArrayList<String> parameters = new ArrayList<>(Math.min(parameterCount, in.remaining()));
+            for (int p = 0; p < parameterCount; p++) {
+                parameters.add(strings[readVarint(in)]);
+            }
+            c.methods.add(new Method(methodName, returnType, parameters, access));
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Unsigned LEB128: seven bits per byte, high bit set on all but the last
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint too long");
+    }
+
+    private static void intern(Map<String, Integer> indexes, List<String> table, String s) {
+        if (indexes.putIfAbsent(s, table.size()) == null) {
+            table.add(s);
+        }
+    }
+
+    // Buffered writer of primitives onto a channel
+    private static class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        // Room for n more bytes; n must not exceed the buffer size
+        ByteBuffer ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void varint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = Math.min(bytes.length - offset, BUFFER_SIZE);
+                ensure(n).put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// Chunked class diagram layout: a "<name>.umld" folder with one record file per class plus a manifest, so a save
+// after a small edit rewrites only the classes ClassDiagram marked dirty and the manifest.
+//
+//   manifest                magic "UMLD", version, generation, diagram name, next record id,
+//                           class count, per class: record id, record generation
+//   <id>-<generation>.rec   name, interface flag, x, y, prefWidth, prefHeight,
+//                           attribute count, per attribute: access, name, type,
+//                           method count, per method: access, name, returnType, parameter count, parameters,
+//                           outgoing relationship count, per relationship: endClass, type
+//
+// A relationship is stored with its start class. Changed classes are written to new files named after the save's
+// generation instead of over their old ones, so until the manifest is replaced the folder still describes the previous
+// save completely; superseded files are deleted only after that. Every file carries AtomicFileWriter's checksum.
+public class ClassDiagramChunkStore {
+    public static final String EXTENSION = ".umld";
+    private static final String MANIFEST = "manifest";
+    private static final int MAGIC = 0x554D4C44; // "UMLD"
+    private static final int VERSION = 1;
+
+    // Saves to one folder are written in the order they were prepared, since a delta's manifest relies on the records of
+    // the saves before it; after a failed write only full saves go through until the diagram starts over with
+    // forgetSave(). Saves to different folders don't wait for each other.
+    private static final Map<File, WriteOrder> writeOrders = new HashMap<>(); // Guarded by itself
+
+    private static class WriteOrder {
+        long preparedSaves;
+        long writtenSaves;
+        boolean lastWriteFailed;
+    }
+
+    // A save whose records have been encoded on the FX thread and that only has files left to write
+    public static class PendingSave {
+        private final File directory;
+        private final List<String> recordNames = new ArrayList<>();
+        private final List<byte[]> records = new ArrayList<>();
+        private final Set<String> superseded = new LinkedHashSet<>();
+        private byte[] manifest;
+        private boolean full;
+        private WriteOrder order;
+        private long ticket;
+
+        private PendingSave(File directory) {
+            this.directory = directory;
+        }
+
+        public int getRecordCount() {
+            return records.size();
+        }
+
+        // Waits for the saves to the same folder that were prepared before this one
+        public void write() throws Exception {
+            synchronized (order) {
+                while (order.writtenSaves != ticket) {
+                    order.wait();
+                }
+            }
+            boolean failed = true;
+            try {
+                if (order.lastWriteFailed && !full) {
+                    throw new IOException("An earlier save to " + directory.getName() + " failed");
+                }
+                writeFiles();
+                failed = false;
+            } finally {
+                synchronized (order) {
+                    order.lastWriteFailed = failed;
+                    order.writtenSaves++;
+                    order.notifyAll();
+                }
+            }
+        }
+
+        private void writeFiles() throws Exception {
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                AtomicFileWriter.write(new File(directory, recordNames.get(i)), out -> out.write(record));
+            }
+            AtomicFileWriter.write(new File(directory, MANIFEST), out -> out.write(manifest));
+            for (String name : superseded) {
+                Files.deleteIfExists(new File(directory, name).toPath());
+            }
+            if (full) {
+                // Records of whatever was saved to this folder before are no longer referenced
+                Set<String> live = new HashSet<>(recordNames);
+                File[] files = directory.listFiles((dir, name) -> name.endsWith(".rec") && !live.contains(name));
+                if (files != null) {
+                    for (File file : files) {
+                        Files.deleteIfExists(file.toPath());
+                    }
+                }
+            }
+        }
+    }
+
+    public static boolean isChunked(File file) {
+        return file.isDirectory() && new File(file, MANIFEST).isFile();
+    }
+
+    // Saves the diagram into the folder: only the changed classes if the folder holds the diagram's last chunked
+    // save, every class otherwise
+    public static PendingSave save(ClassDiagram diagram, File directory) throws Exception {
+        PendingSave save = prepare(diagram, directory);
+        try {
+            save.write();
+        } catch (Exception e) {
+            diagram.forgetSave();
+            throw e;
+        }
+        return save;
+    }
+
+    // Encodes the records to write and moves the diagram's change tracking past them. Runs where the diagram is
+    // edited, i.e. on the FX thread; the returned save can be written from any thread, and if that fails the
+    // diagram's forgetSave() must be called so the next save starts over.
+    public static PendingSave prepare(ClassDiagram diagram, File directory) throws IOException {
+        PendingSave save = new PendingSave(directory);
+        File savedDirectory = diagram.getSavedDirectory();
+        save.full = savedDirectory == null || !savedDirectory.getAbsoluteFile().equals(directory.getAbsoluteFile()) || !isChunked(directory);
+        int generation;
+        int nextRecordId;
+        Iterable<ClassModel> changed;
+        if (save.full) {
+            generation = readGeneration(directory) + 1;
+            nextRecordId = 0;
+            for (ClassModel c : diagram.getClasses()) {
+                c.recordId = nextRecordId++;
+            }
+            changed = diagram.getClasses();
+        } else {
+            generation = diagram.getSavedGeneration() + 1;
+            nextRecordId = diagram.getNextRecordId();
+            for (ClassModel c : diagram.getRemovedClasses()) {
+                save.superseded.add(recordName(c.recordId, c.recordGeneration));
+            }
+            for (ClassModel c : diagram.getDirtyClasses()) {
+                if (c.recordId < 0) {
+                    c.recordId = nextRecordId++;
+                } else {
+                    save.superseded.add(recordName(c.recordId, c.recordGeneration));
+                }
+            }
+            changed = diagram.getDirtyClasses();
+        }
+        for (ClassModel c : changed) {
+            c.recordGeneration = generation;
+            save.recordNames.add(recordName(c.recordId, generation));
+            save.records.add(encodeRecord(diagram, c));
+        }
+        save.manifest = encodeManifest(diagram, generation, nextRecordId);
+        diagram.markSaved(directory, generation, nextRecordId);
+        synchronized (writeOrders) {
+            save.order = writeOrders.computeIfAbsent(directory.toPath().toAbsolutePath().normalize().toFile(), d -> new WriteOrder());
+        }
+        synchronized (save.order) {
+            save.ticket = save.order.preparedSaves++;
+        }
+        return save;
+    }
+
+    private static String recordName(int recordId, int generation) {
+        return recordId + "-" + generation + ".rec";
+    }
+
+    private static byte[] encodeManifest(ClassDiagram diagram, int generation, int nextRecordId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + diagram.getClasses().size() * 2 * Integer.BYTES);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(generation);
+        out.writeUTF(diagram.getName());
+        out.writeInt(nextRecordId);
+        out.writeInt(diagram.getClasses().size());
+        for (ClassModel c : diagram.getClasses()) {
+            out.writeInt(c.recordId);
+            out.writeInt(c.recordGeneration);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRecord(ClassDiagram diagram, ClassModel c) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(c.getName());
+        out.writeBoolean(c.isInterface());
+        out.writeDouble(c.getX());
+        out.writeDouble(c.getY());
+        out.writeDouble(c.getPrefWidth());
+        out.writeDouble(c.getPrefHeight());
+        out.writeInt(c.getAttributes().size());
+        for (Attribute attribute : c.getAttributes()) {
+            out.writeUTF(attribute.getAccess());
+            out.writeUTF(attribute.getName());
+            out.writeUTF(attribute.getType());
+        }
+        out.writeInt(c.getMethods().size());
+        for (Method method : c.getMethods()) {
+            out.writeUTF(method.access);
+            out.writeUTF(method.name);
+            out.writeUTF(method.returnType);
+            out.writeInt(method.parameters.size());
+            for (String parameter : method.parameters) {
+                out.writeUTF(parameter);
+            }
+        }
+        List<Relationship> outgoing = diagram.getOutgoing(c.getName());
+        out.writeInt(outgoing.size());
+        for (Relationship r : outgoing) {
+            out.writeUTF(r.getEndClass());
+            out.writeUTF(r.getType());
+        }
+        return bytes.toByteArray();
+    }
+
+    // Generation of the save in the folder, 0 if there is none
+    private static int readGeneration(File directory) {
+        File manifest = new File(directory, MANIFEST);
+        if (!manifest.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(AtomicFileWriter.open(manifest))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+            return in.readInt();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Reads the folder back; the result remembers where it came from, so saving it there again is a delta save.
+    // The cancelled check is polled once per class.
+    public static ClassDiagram read(File directory, BooleanSupplier cancelled) throws IOException {
+        File manifestFile = new File(directory, MANIFEST);
+        AtomicFileWriter.verify(manifestFile);
+        try (DataInputStream manifest = open(manifestFile)) {
+            if (manifest.readInt() != MAGIC) {
+                throw new IOException("Not a chunked class diagram");
+            }
+            int version = manifest.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported chunked class diagram version " + version);
+            }
+            int generation = manifest.readInt();
+            ClassDiagram diagram = new ClassDiagram(manifest.readUTF());
+            int nextRecordId = manifest.readInt();
+            int classCount = manifest.readInt();
+            List<Relationship> relationships = new ArrayList<>();
+            for (int i = 0; i < classCount; i++) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Loading of " + diagram.getName() + " was cancelled");
+                }
+                int recordId = manifest.readInt();
+                int recordGeneration = manifest.readInt();
+                ClassModel c = readRecord(new File(directory, recordName(recordId, recordGeneration)), relationships);
+                c.recordId = recordId;
+                c.recordGeneration = recordGeneration;
+                diagram.addClass(c);
+            }
+            for (Relationship r : relationships) {
+                diagram.addRelationship(r);
+            }
+            diagram.markSaved(directory, generation, nextRecordId);
+            return diagram;
+        } catch (EOFException | UTFDataFormatException e) {
+            throw new IOException("Damaged chunked class diagram " + directory.getName() + ": " + e, e);
+        }
+    }
+
+    private static ClassModel readRecord(File file, List<Relationship> relationships) throws IOException {
+        AtomicFileWriter.verify(file);
+        try (DataInputStream in = open(file)) {
+            String name = in.readUTF();
+            ClassModel c = new ClassModel(name, in.readBoolean(), in.readDouble(), in.readDouble());
+            c.setPreferredSize(in.readDouble(), in.readDouble());
+            int attributeCount = in.readInt();
+            for (int a = 0; a < attributeCount; a++) {
+                String access = in.readUTF();
+                String attributeName = in.readUTF();
+                c.attributes.add(new Attribute(attributeName, in.readUTF(), access));
+            }
+            int methodCount = in.readInt();
+            for (int m = 0; m < methodCount; m++) {
+                String access = in.readUTF();
+                String methodName = in.readUTF();
+                String returnType = in.readUTF();
+                int parameterCount = in.readInt();
+                ArrayList<String> parameters = new ArrayList<>(parameterCount);
+                for (int p = 0; p < parameterCount; p++) {
+                    parameters.add(in.readUTF());
+                }
+                c.methods.add(new Method(methodName, returnType, parameters, access));
+            }
+            int relationshipCount = in.readInt();
+            for (int r = 0; r < relationshipCount; r++) {
+                String endClass = in.readUTF();
+                relationships.add(new Relationship(name, endClass, in.readUTF()));
+            }
+            return c;
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(AtomicFileWriter.open(file)));
+    }
+}
@@ -1,26 +1,34 @@
 package data;
 
+import bean.ThumbnailBean;
 import core.class_diagram.*;
 import javafx.application.Platform;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.StackPane;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import ui.ClassDiagramPropertiesBar;
 import ui.ClassDiagramToolbar;
 import ui.MainFrame;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 
 public class ClassDiagramDBAO {
 
@@ -38,165 +46,343 @@ public class ClassDiagramDBAO {
         String filePath = folderPath + File.separator + diagram.getName() + ".xml";
         File file = new File(filePath);
 
-        // Prepare the XML document
-        DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
-        Document document = documentBuilder.newDocument();
+        writeFile(diagram, file);
+        saved(diagram, file);
+
+        System.out.println("Diagram saved to: " + filePath);
+    }
+
+    // Saves next to the XML files in the compact binary format
+    public static void saveDiagramBinary(ClassDiagram diagram) throws Exception {
+        File file = new File("User Diagrams/Class Diagrams", diagram.getName() + ClassDiagramBinaryFormat.EXTENSION);
+        writeFile(diagram, file);
+        saved(diagram, file);
+        System.out.println("Diagram saved to: " + file.getPath());
+    }
+
+    // Saves into a folder of per-class records; saving the same diagram there again rewrites only what changed.
+    // The records are encoded here and written on the autosave thread, after any autosave of the same folder, so the
+    // FX thread never waits for one.
+    public static void saveDiagramChunked(ClassDiagram diagram) throws Exception {
+        File directory = new File("User Diagrams/Class Diagrams", diagram.getName() + ClassDiagramChunkStore.EXTENSION);
+        ClassDiagramChunkStore.PendingSave save = ClassDiagramChunkStore.prepare(diagram, directory);
+        DiagramJournal.runInBackground(() -> {
+            try {
+                save.write();
+            } catch (Exception e) {
+                System.err.println("Could not save " + directory.getPath() + ": " + e);
+                Platform.runLater(diagram::forgetSave);
+                return;
+            }
+            Platform.runLater(() -> {
+                saved(diagram, directory);
+                System.out.println("Diagram saved to: " + directory.getPath() + " (" + save.getRecordCount() + " classes written)");
+            });
+        });
+    }
+
+    // Saves a compressed archive of the XML with a thumbnail and metadata, for projects kept on slow shared drives
+    public static void saveDiagramArchive(ClassDiagram diagram) throws Exception {
+        File file = new File("User Diagrams/Class Diagrams", diagram.getName() + DiagramArchive.EXTENSION);
+        writeFile(diagram, file);
+        saved(diagram, file);
+        System.out.println("Diagram saved to: " + file.getPath());
+    }
+
+    // Brings the Load Diagram preview and the search index up to date with a save the user made
+    private static void saved(ClassDiagram diagram, File file) {
+        ThumbnailCache.put(file, ThumbnailBean.render(diagram));
+        DiagramSearchIndex.update(file, diagram);
+    }
+
+    // Writes the diagram in the format the file's extension asks for.
+    // The content is streamed into a temp file that replaces the old one only once it is complete.
+    public static void writeFile(ClassDiagram diagram, File file) throws Exception {
+        if (file.getName().endsWith(ClassDiagramChunkStore.EXTENSION)) {
+            ClassDiagramChunkStore.save(diagram, file);
+            return;
+        }
+        if (file.getName().endsWith(DiagramArchive.EXTENSION)) {
+            Properties metadata = DiagramArchive.metadata("class", diagram.getName());
+            metadata.setProperty("classes", String.valueOf(diagram.getClasses().size()));
+            metadata.setProperty("relationships", String.valueOf(diagram.getRelationships().size()));
+            DiagramArchive.write(file, metadata, ThumbnailBean.render(diagram), out -> writeDiagram(diagram, out));
+            return;
+        }
+        AtomicFileWriter.write(file, out -> {
+            if (file.getName().endsWith(ClassDiagramBinaryFormat.EXTENSION)) {
+                ClassDiagramBinaryFormat.write(diagram, Channels.newChannel(out));
+            } else {
+                writeDiagram(diagram, out);
+            }
+        });
+    }
+
 
-        // Create the root element
-        Element rootElement = document.createElement("Diagram");
-        document.appendChild(rootElement);
+
+    // Writes the diagram with a StAX writer, element by element, so memory use does not grow with the diagram.
+    // There is no XML declaration, as it could not follow AtomicFileWriter's marker; UTF-8 is the default anyway.
+    public static void writeDiagram(ClassDiagram diagram, OutputStream out) throws XMLStreamException {
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartElement("Diagram");
 
         // Add diagram metadata
-        Element nameElement = document.createElement("Name");
-        nameElement.appendChild(document.createTextNode(diagram.getName()));
-        rootElement.appendChild(nameElement);
+        newLine(writer, 1);
+        writer.writeStartElement("Name");
+        writer.writeCharacters(diagram.getName());
+        writer.writeEndElement();
 
         // Save classes
-        Element classesElement = document.createElement("Classes");
-        for (ClassPanel classPanel : diagram.getClasses()) {
-            Element classElement = document.createElement("Class");
-            classElement.setAttribute("name", classPanel.ClassName);
-            classElement.setAttribute("type", classPanel.isInterface() ? "interface" : "class");
-            classElement.setAttribute("x", String.valueOf(classPanel.x));
-            classElement.setAttribute("y", String.valueOf(classPanel.y));
-
-
-            Element attributesElement = document.createElement("Attributes");
-            for (Attribute attribute : classPanel.getAttributes()) {
-                Element attributeElement = document.createElement("Attribute");
-                attributeElement.setAttribute("name", attribute.getName());
-                attributeElement.setAttribute("type", attribute.getType());
-                attributeElement.setAttribute("access", attribute.getAccess());
-                attributesElement.appendChild(attributeElement);
-            }
-            classElement.appendChild(attributesElement);
-
-            // Save methods
-            Element methodsElement = document.createElement("Methods");
-            for (Method method : classPanel.getMethods()) {
-                Element methodElement = document.createElement("Method");
-                methodElement.setAttribute("name", method.name);
-                methodElement.setAttribute("returnType", method.returnType);
-                methodElement.setAttribute("access", method.access);
-
-                // Add method parameters
-                Element parametersElement = document.createElement("Parameters");
-                for (String parameter : method.parameters) {
-                    Element parameterElement = document.createElement("Parameter");
-                    parameterElement.appendChild(document.createTextNode(parameter));
-                    parametersElement.appendChild(parameterElement);
+        newLine(writer, 1);
+        if (diagram.getClasses().isEmpty()) {
+            writer.writeEmptyElement("Classes");
+        } else {
+            writer.writeStartElement("Classes");
+            for (ClassModel classModel : diagram.getClasses()) {
+                newLine(writer, 2);
+                writer.writeStartElement("Class");
+                writer.writeAttribute("name", classModel.getName());
+                writer.writeAttribute("type", classModel.isInterface() ? "interface" : "class");
+                writer.writeAttribute("x", String.valueOf(classModel.getX()));
+                writer.writeAttribute("y", String.valueOf(classModel.getY()));
+
+                newLine(writer, 3);
+                if (classModel.getAttributes().isEmpty()) {
+                    writer.writeEmptyElement("Attributes");
+                } else {
+                    writer.writeStartElement("Attributes");
+                    for (Attribute attribute : classModel.getAttributes()) {
+                        newLine(writer, 4);
+                        writer.writeEmptyElement("Attribute");
+                        writer.writeAttribute("access", attribute.getAccess());
+                        writer.writeAttribute("name", attribute.getName());
+                        writer.writeAttribute("type", attribute.getType());
+                    }
+                    newLine(writer, 3);
+                    writer.writeEndElement();
                 }
-                methodElement.appendChild(parametersElement);
 
-                methodsElement.appendChild(methodElement);
+                // Save methods
+                newLine(writer, 3);
+                if (classModel.getMethods().isEmpty()) {
+                    writer.writeEmptyElement("Methods");
+                } else {
+                    writer.writeStartElement("Methods");
+                    for (Method method : classModel.getMethods()) {
+                        newLine(writer, 4);
+                        writer.writeStartElement("Method");
+                        writer.writeAttribute("access", method.access);
+                        writer.writeAttribute("name", method.name);
+                        writer.writeAttribute("returnType", method.returnType);
+
+                        // Add method parameters
+                        newLine(writer, 5);
+                        if (method.parameters.isEmpty()) {
+                            writer.writeEmptyElement("Parameters");
+                        } else {
+                            writer.writeStartElement("Parameters");
+                            for (String parameter : method.parameters) {
+                                newLine(writer, 6);
+                                writer.writeStartElement("Parameter");
+                                writer.writeCharacters(parameter);
+                                writer.writeEndElement();
+                            }
+                            newLine(writer, 5);
+                            writer.writeEndElement();
+                        }
+                        newLine(writer, 4);
+                        writer.writeEndElement();
+                    }
+                    newLine(writer, 3);
+                    writer.writeEndElement();
+                }
+                newLine(writer, 2);
+                writer.writeEndElement();
             }
-            classElement.appendChild(methodsElement);
-
-            classesElement.appendChild(classElement);
+            newLine(writer, 1);
+            writer.writeEndElement();
         }
-        rootElement.appendChild(classesElement);
 
         // Save relationships
-        Element relationshipsElement = document.createElement("Relationships");
-        for (Relationship relationship : diagram.getRelationships()) {
-            Element relationshipElement = document.createElement("Relationship");
-            relationshipElement.setAttribute("startClass", relationship.getStartClass());
-            relationshipElement.setAttribute("endClass", relationship.getEndClass());
-            relationshipElement.setAttribute("type", relationship.getType());
-            System.out.println("Relationship: " + relationship.getStartClass() + " -> " + relationship.getEndClass()+ " type: " + relationship.getType());
-            relationshipsElement.appendChild(relationshipElement);
-        }
-        rootElement.appendChild(relationshipsElement);
-
-        // Write the document to the file
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.transform(new DOMSource(document), new StreamResult(file));
+        newLine(writer, 1);
+        if (diagram.getRelationships().isEmpty()) {
+            writer.writeEmptyElement("Relationships");
+        } else {
+            writer.writeStartElement("Relationships");
+            for (Relationship relationship : diagram.getRelationships()) {
+                newLine(writer, 2);
+                writer.writeEmptyElement("Relationship");
+                writer.writeAttribute("endClass", relationship.getEndClass());
+                writer.writeAttribute("startClass", relationship.getStartClass());
+                writer.writeAttribute("type", relationship.getType());
+            }
+            newLine(writer, 1);
+            writer.writeEndElement();
+        }
 
-        System.out.println("Diagram saved to: " + filePath);
+        newLine(writer, 0);
+        writer.writeEndElement();
+        newLine(writer, 0);
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
     }
 
+    // Line break plus indentation, matching the 4-space layout of the indenting Transformer
+    private static void newLine(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        writer.writeCharacters("\n" + "    ".repeat(depth));
+    }
 
+    public static ClassDiagram readDiagram(File file) throws Exception {
+        return readDiagram(file, () -> false);
+    }
 
-    public static void LoadClassDiagram(
-            File file) throws Exception {
-
-
-        ClassDiagramCanvasPanel classDiagramCanvasPanel =new ClassDiagramCanvasPanel();
-    MainFrame.getClassDiagramCanvasPanel().setStyle("-fx-background-color: lightgray;");
-        MainFrame.getClassDiagramCanvasPanel().setPrefSize(2000, 2000);
+    // Reads a saved diagram in a single StAX pass, creating classes, members and relationships as they are encountered.
+    // Binary files are recognized by their header and read by ClassDiagramBinaryFormat instead, and chunked folders
+    // by ClassDiagramChunkStore; the XML inside .umlz archives is parsed as it is inflated.
+    // The cancelled check is polled once per class so a background load can be abandoned early.
+    // The result holds no JavaFX nodes, so this can run off the FX thread or without the toolkit at all.
+    public static ClassDiagram readDiagram(File file, BooleanSupplier cancelled) throws Exception {
+        return readDiagram(file, cancelled, progress -> {
+        });
+    }
 
-        // Parse the XML file
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(file);
-
-        // Get the root element
-        Element root = document.getDocumentElement();
-
-        // Get the diagram name
-        String diagramName = root.getElementsByTagName("Name").item(0).getTextContent();
-
-        // Create a new ClassDiagram
-        ClassDiagram classDiagram = new ClassDiagram(diagramName);
-
-        // Load classes
-        NodeList classNodes = root.getElementsByTagName("Class");
-        for (int i = 0; i < classNodes.getLength(); i++) {
-            Element classElement = (Element) classNodes.item(i);
-            String className = classElement.getAttribute("name");
-            boolean isInterface = "interface".equals(classElement.getAttribute("type"));
-            double x = Double.parseDouble(classElement.getAttribute("x"));
-            double y = Double.parseDouble(classElement.getAttribute("y"));
-
-            ClassPanel classPanel = new ClassPanel(className, isInterface, x, y, classDiagramCanvasPanel);
-
-            // Load attributes
-            NodeList attributeNodes = ((Element) classElement.getElementsByTagName("Attributes").item(0)).getElementsByTagName("Attribute");
-            for (int j = 0; j < attributeNodes.getLength(); j++) {
-                Element attributeElement = (Element) attributeNodes.item(j);
-                String attributeName = attributeElement.getAttribute("name");
-                String attributeType = attributeElement.getAttribute("type");
-                String attributeAccess = attributeElement.getAttribute("access");
-
-                Attribute attribute = new Attribute(attributeName, attributeType, attributeAccess);
-                classPanel.addAttribute(attribute);
+    // As above, also reporting the fraction of an XML file (or .umlz archive) read so far, once per class
+    public static ClassDiagram readDiagram(File file, BooleanSupplier cancelled, DoubleConsumer progress) throws Exception {
+        if (ClassDiagramChunkStore.isChunked(file)) {
+            return ClassDiagramChunkStore.read(file, cancelled);
+        }
+        if (DiagramArchive.isArchive(file)) {
+            CountingInputStream counted = new CountingInputStream(new FileInputStream(file), file.length(), progress);
+            try (InputStream in = DiagramArchive.openDiagram(counted, file.getName())) {
+                return readDiagram(in, file.getName(), cancelled, counted);
             }
+        }
+        if (ClassDiagramBinaryFormat.isBinary(file)) {
+            return ClassDiagramBinaryFormat.read(file, cancelled); // Checks the checksum on the bytes it reads anyway
+        }
+        AtomicFileWriter.verify(file); // Report a damaged file before anything is built from it
+        CountingInputStream counted = new CountingInputStream(new FileInputStream(file), file.length(), progress);
+        try (InputStream in = new BufferedInputStream(counted)) {
+            return readDiagram(in, file.getName(), cancelled, counted);
+        }
+    }
 
-            // Load methods
-            NodeList methodNodes = ((Element) classElement.getElementsByTagName("Methods").item(0)).getElementsByTagName("Method");
-            for (int j = 0; j < methodNodes.getLength(); j++) {
-                Element methodElement = (Element) methodNodes.item(j);
-                String methodName = methodElement.getAttribute("name");
-                String returnType = methodElement.getAttribute("returnType");
-                String access = methodElement.getAttribute("access");
-
-                ArrayList<String> parameters = new ArrayList<>();
-                NodeList parameterNodes = methodElement.getElementsByTagName("Parameter");
-                for (int k = 0; k < parameterNodes.getLength(); k++) {
-                    parameters.add(parameterNodes.item(k).getTextContent());
+    private static ClassDiagram readDiagram(InputStream in, String fileName, BooleanSupplier cancelled,
+                                            CountingInputStream counted) throws Exception {
+        ClassDiagram diagram = null;
+        ClassModel classModel = null;
+        Method method = null;
+
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "Name" -> diagram = new ClassDiagram(reader.getElementText());
+                        case "Class" -> {
+                            if (diagram == null) {
+                                throw new XMLStreamException("Diagram name must precede its classes", reader.getLocation());
+                            }
+                            if (cancelled.getAsBoolean()) {
+                                throw new CancellationException("Loading of " + fileName + " was cancelled");
+                            }
+                            counted.report();
+                            classModel = new ClassModel(
+                                    reader.getAttributeValue(null, "name"),
+                                    "interface".equals(reader.getAttributeValue(null, "type")),
+                                    Double.parseDouble(reader.getAttributeValue(null, "x")),
+                                    Double.parseDouble(reader.getAttributeValue(null, "y")));
+                            diagram.addClass(classModel);
+                        }
+                        case "Attribute" -> classModel.attributes.add(new Attribute(
+                                reader.getAttributeValue(null, "name"),
+                                reader.getAttributeValue(null, "type"),
+                                reader.getAttributeValue(null, "access")));
+                        case "Method" -> {
+                            method = new Method(
+                                    reader.getAttributeValue(null, "name"),
+                                    reader.getAttributeValue(null, "returnType"),
+                                    new ArrayList<>(),
+                                    reader.getAttributeValue(null, "access"));
+                            classModel.methods.add(method);
+                        }
+                        case "Parameter" -> method.parameters.add(reader.getElementText());
+                        case "Relationship" -> diagram.addRelationship(new Relationship(
+                                reader.getAttributeValue(null, "startClass"),
+                                reader.getAttributeValue(null, "endClass"),
+                                reader.getAttributeValue(null, "type")));
+                        default -> {
+                        }
+                    }
                 }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (diagram == null) {
+            throw new XMLStreamException("No diagram found in " + fileName);
+        }
+        return diagram;
+    }
 
-                Method method = new Method(methodName, returnType, parameters, access);
-                classPanel.addMethod(method);
+    // Counts the bytes taken from the file, so parsing can report how far through it is
+    private static class CountingInputStream extends FilterInputStream {
+        private final long length;
+        private final DoubleConsumer progress;
+        private long count;
+
+        CountingInputStream(InputStream in, long length, DoubleConsumer progress) {
+            super(in);
+            this.length = length;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
             }
+            return b;
+        }
 
-            classDiagram.addClass(classPanel);
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
         }
 
-        // Load relationships
-        NodeList relationshipNodes = root.getElementsByTagName("Relationship");
-        for (int i = 0; i < relationshipNodes.getLength(); i++) {
-            Element relationshipElement = (Element) relationshipNodes.item(i);
-            String startClass = relationshipElement.getAttribute("startClass");
-            String endClass = relationshipElement.getAttribute("endClass");
-            String type = relationshipElement.getAttribute("type");
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
 
-            Relationship relationship = new Relationship(startClass, endClass, type);
-            classDiagram.addRelationship(relationship);
+        void report() {
+            if (length > 0) {
+                progress.accept(Math.min(1.0, (double) count / length));
+            }
         }
+    }
+
+    public static void LoadClassDiagram(
+            File file) throws Exception {
+
+
+        ClassDiagramCanvasPanel classDiagramCanvasPanel =new ClassDiagramCanvasPanel();
+    MainFrame.getClassDiagramCanvasPanel().setStyle("-fx-background-color: lightgray;");
+        MainFrame.getClassDiagramCanvasPanel().setPrefSize(2000, 2000);
+
+        // Parse the XML file
+        ClassDiagram classDiagram = readDiagram(file);
+        String diagramName = classDiagram.getName();
 
         // Update UI components
         ScrollPane scrollPane = new ScrollPane();
@@ -208,6 +394,7 @@ public class ClassDiagramDBAO {
         // Initialize the canvas panel with the loaded diagram
         ClassDiagram c_diagram = new ClassDiagram(diagramName);
         classDiagramCanvasPanel.setCurrentDiagram(c_diagram);
+        classDiagramCanvasPanel.trackViewport(scrollPane);
 
         ClassDiagramToolbar classDiagramToolbar = new ClassDiagramToolbar(classDiagramCanvasPanel);
         MainFrame.getRootPane().setLeft(classDiagramToolbar);
@@ -216,11 +403,8 @@ public class ClassDiagramDBAO {
         ClassDiagramPropertiesBar propertiesBar = new ClassDiagramPropertiesBar(diagramName, classDiagramCanvasPanel);
         MainFrame.getRootPane().setRight(propertiesBar);
 
-        for (ClassPanel c : classDiagram.getClasses()) {
-            ClassPanel cp = new ClassPanel(c.getClassName(), c.isInterface(), c.getX(), c.getY(), classDiagramCanvasPanel);
-            cp.setAttributes(c.getAttributes());
-            cp.setMethods(c.getMethods());
-            classDiagramCanvasPanel.addClassToCanvas(cp, c.getX(), c.getY());
+        for (ClassModel c : classDiagram.getClasses()) {
+            classDiagramCanvasPanel.addClass(c);
         }
 
         Platform.runLater(() -> {
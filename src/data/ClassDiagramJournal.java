@@ -0,0 +1,203 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassDiagramSnapshot;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+import javafx.application.Platform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Autosave of an open class diagram.
+// Records refer to classes by name, like the XML does, so they replay onto the last compacted file:
+//   C name type x y prefWidth prefHeight attributeCount (access name type)* methodCount (access name returnType parameterCount parameter*)*
+//   X name                          class removed
+//   N oldName newName               class renamed
+//   M name x y prefWidth prefHeight class moved or resized
+//   R / r startClass endClass type  relationship added / removed
+// Compaction takes an O(1) snapshot on the FX thread and writes it out on the autosave thread. A diagram loaded from a
+// chunked folder instead has just its changed classes encoded on the FX thread, and those records written.
+public class ClassDiagramJournal extends DiagramJournal implements ClassDiagram.Listener {
+    private final ClassDiagram diagram;
+    private final File xmlFile;
+
+    private ClassDiagramJournal(ClassDiagram diagram, File xmlFile) {
+        super(xmlFile);
+        this.diagram = diagram;
+        this.xmlFile = xmlFile;
+    }
+
+    // Journals the diagram shown on the canvas. loadedFrom is the file it was read from, or null for a new diagram, which
+    // is autosaved to a draft file of its own; recovered tells whether edits were replayed from the file's journal.
+    public static ClassDiagramJournal start(ClassDiagram diagram, File loadedFrom, boolean recovered) {
+        File xmlFile = loadedFrom != null ? loadedFrom : newDraft("Class Diagrams", diagram.getName());
+        ClassDiagramJournal journal = new ClassDiagramJournal(diagram, xmlFile);
+        diagram.addListener(journal);
+        journal.start(loadedFrom != null, recovered);
+        return journal;
+    }
+
+    @Override
+    protected Compaction capture() throws Exception {
+        if (xmlFile.getName().endsWith(ClassDiagramChunkStore.EXTENSION)) {
+            ClassDiagramChunkStore.PendingSave save = ClassDiagramChunkStore.prepare(diagram, xmlFile);
+            return () -> {
+                try {
+                    save.write();
+                } catch (Exception e) {
+                    Platform.runLater(diagram::forgetSave);
+                    throw e;
+                }
+            };
+        }
+        ClassDiagramSnapshot snapshot = diagram.snapshot();
+        return () -> ClassDiagramDBAO.writeFile(snapshot.toDiagram(), xmlFile);
+    }
+
+    @Override
+    protected void detach() {
+        diagram.removeListener(this);
+    }
+
+    @Override
+    public void classAdded(ClassModel c) {
+        appendClass(c);
+    }
+
+    @Override
+    public void classChanged(ClassModel c) {
+        appendClass(c);
+    }
+
+    @Override
+    public void classRemoved(ClassModel c) {
+        append("X", c.getName());
+    }
+
+    @Override
+    public void classRenamed(ClassModel c, String oldName) {
+        append("N", oldName, c.getName());
+    }
+
+    @Override
+    public void classMoved(ClassModel c) {
+        append("M", c.getName(), String.valueOf(c.getX()), String.valueOf(c.getY()),
+                String.valueOf(c.getPrefWidth()), String.valueOf(c.getPrefHeight()));
+    }
+
+    @Override
+    public void relationshipAdded(Relationship r) {
+        append("R", r.getStartClass(), r.getEndClass(), r.getType());
+    }
+
+    @Override
+    public void relationshipRemoved(Relationship r) {
+        append("r", r.getStartClass(), r.getEndClass(), r.getType());
+    }
+
+    // Costs as much as the one class, however large the diagram is
+    private void appendClass(ClassModel c) {
+        append(classRecord(c));
+    }
+
+    static String[] classRecord(ClassModel c) {
+        List<String> fields = new ArrayList<>();
+        fields.add("C");
+        fields.add(c.getName());
+        fields.add(c.isInterface() ? "interface" : "class");
+        fields.add(String.valueOf(c.getX()));
+        fields.add(String.valueOf(c.getY()));
+        fields.add(String.valueOf(c.getPrefWidth()));
+        fields.add(String.valueOf(c.getPrefHeight()));
+        fields.add(String.valueOf(c.getAttributes().size()));
+        for (Attribute attribute : c.getAttributes()) {
+            fields.add(attribute.getAccess());
+            fields.add(attribute.getName());
+            fields.add(attribute.getType());
+        }
+        fields.add(String.valueOf(c.getMethods().size()));
+        for (Method method : c.getMethods()) {
+            fields.add(method.access);
+            fields.add(method.name);
+            fields.add(method.returnType);
+            fields.add(String.valueOf(method.parameters.size()));
+            fields.addAll(method.parameters);
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    // Replays the journal left next to the file onto the diagram read from it; returns the number of records applied.
+    // Works on the plain model, so it can run on the loader's background thread before any panel exists.
+    public static int recover(ClassDiagram diagram, File xmlFile) throws Exception {
+        int applied = 0;
+        for (String[] record : readRecords(xmlFile)) {
+            try {
+                apply(diagram, record);
+                applied++;
+            } catch (RuntimeException e) {
+                System.err.println("Skipped unreadable journal record: " + String.join(" ", record));
+            }
+        }
+        if (applied > 0) {
+            System.out.println("Recovered " + applied + " unsaved edits of " + diagram.getName());
+        }
+        return applied;
+    }
+
+    private static void apply(ClassDiagram diagram, String[] record) {
+        switch (record[0]) {
+            case "C" -> {
+                ClassModel c = diagram.getClass(record[1]);
+                if (c == null) {
+                    c = new ClassModel(record[1], "interface".equals(record[2]), Double.parseDouble(record[3]), Double.parseDouble(record[4]));
+                    diagram.addClass(c);
+                }
+                // Through the setters, so the class is marked for the compaction that follows a recovery
+                c.setPreferredSize(Double.parseDouble(record[5]), Double.parseDouble(record[6]));
+                c.setPosition(Double.parseDouble(record[3]), Double.parseDouble(record[4]));
+                c.getAttributes().clear();
+                c.getMethods().clear();
+                int field = 7;
+                int attributeCount = Integer.parseInt(record[field++]);
+                for (int i = 0; i < attributeCount; i++, field += 3) {
+                    c.getAttributes().add(new Attribute(record[field + 1], record[field + 2], record[field]));
+                }
+                int methodCount = Integer.parseInt(record[field++]);
+                for (int i = 0; i < methodCount; i++) {
+                    Method method = new Method(record[field + 1], record[field + 2], new ArrayList<>(), record[field]);
+                    int parameterCount = Integer.parseInt(record[field + 3]);
+                    field += 4;
+                    for (int p = 0; p < parameterCount; p++) {
+                        method.parameters.add(record[field++]);
+                    }
+                    c.getMethods().add(method);
+                }
+                diagram.onClassChanged(c);
+            }
+            case "X" -> {
+                diagram.removeClass(record[1]);
+                diagram.removeRelations_of_a_Diagram(record[1]);
+            }
+            case "N" -> {
+                ClassModel c = diagram.getClass(record[1]);
+                if (c != null && !diagram.containsClass(record[2])) {
+                    diagram.renameClass(c, record[2]);
+                }
+            }
+            case "M" -> {
+                ClassModel c = diagram.getClass(record[1]);
+                if (c != null) {
+                    c.setPreferredSize(Double.parseDouble(record[4]), Double.parseDouble(record[5]));
+                    c.setPosition(Double.parseDouble(record[2]), Double.parseDouble(record[3]));
+                }
+            }
+            case "R" -> diagram.addRelationship(new Relationship(record[1], record[2], record[3]));
+            case "r" -> diagram.removeRelationship(record[1], record[2], record[3]);
+            default -> throw new IllegalArgumentException("Unknown journal record " + record[0]);
+        }
+    }
+}
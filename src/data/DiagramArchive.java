@@ -0,0 +1,115 @@
+package data;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// "<name>.umlz" project archives: a ZIP holding the diagram's XML, a thumbnail and metadata.
+//   metadata.properties   format, type ("class" or "usecase"), name, element and relationship counts, save time
+//   thumbnail.png         preview drawn by bean.ThumbnailBean
+//   diagram.xml           the same XML the plain .xml save writes
+// Entries are deflated as they are streamed into the archive, nothing is buffered whole in memory. Metadata comes first
+// and the thumbnail second, so readers that only need those stop long before the XML. ZIP checksums every entry
+// itself, so the archive has no AtomicFileWriter trailer and stays a plain ZIP file.
+public class DiagramArchive {
+    public static final String EXTENSION = ".umlz";
+    private static final String METADATA = "metadata.properties";
+    private static final String THUMBNAIL = "thumbnail.png";
+    private static final String DIAGRAM = "diagram.xml";
+    private static final String FORMAT = "1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static boolean isArchive(File file) {
+        return file.isFile() && file.getName().endsWith(EXTENSION);
+    }
+
+    // Metadata common to both diagram types; callers add the counts
+    public static Properties metadata(String type, String name) {
+        Properties metadata = new Properties();
+        metadata.setProperty("format", FORMAT);
+        metadata.setProperty("type", type);
+        metadata.setProperty("name", name);
+        metadata.setProperty("saved", String.valueOf(System.currentTimeMillis()));
+        return metadata;
+    }
+
+    public static void write(File file, Properties metadata, BufferedImage thumbnail, AtomicFileWriter.Body diagram) throws Exception {
+        AtomicFileWriter.write(file, out -> {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.putNextEntry(new ZipEntry(METADATA));
+            metadata.store(zip, null);
+            zip.closeEntry();
+            if (thumbnail != null) {
+                zip.putNextEntry(new ZipEntry(THUMBNAIL));
+                ImageIO.write(thumbnail, "png", zip);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry(DIAGRAM));
+            // XML writers emit a few bytes at a time, and each write to the deflater has a fixed cost
+            BufferedOutputStream entry = new BufferedOutputStream(zip, BUFFER_SIZE);
+            diagram.writeTo(entry);
+            entry.flush();
+            zip.closeEntry();
+            zip.finish(); // Writes the central directory; closing the underlying stream is up to AtomicFileWriter
+        }, false);
+    }
+
+    // The diagram's XML, inflated as it is read; closing the stream closes the archive
+    public static InputStream openDiagram(File file) throws IOException {
+        return openDiagram(new FileInputStream(file), file.getName());
+    }
+
+    // Positions the archive read from in at its diagram XML; in is closed with the returned stream
+    public static InputStream openDiagram(InputStream in, String fileName) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (!skipTo(zip, DIAGRAM)) {
+            zip.close();
+            throw new IOException(fileName + " holds no diagram");
+        }
+        return new BufferedInputStream(zip, BUFFER_SIZE);
+    }
+
+    public static Properties readMetadata(File file) throws IOException {
+        try (ZipInputStream zip = open(file)) {
+            if (!skipTo(zip, METADATA)) {
+                throw new IOException(file.getName() + " holds no metadata");
+            }
+            Properties metadata = new Properties();
+            metadata.load(zip);
+            return metadata;
+        }
+    }
+
+    // The stored preview, or null if the archive has none
+    public static BufferedImage readThumbnail(File file) throws IOException {
+        try (ZipInputStream zip = open(file)) {
+            if (!skipTo(zip, THUMBNAIL)) {
+                return null;
+            }
+            return ImageIO.read(zip);
+        }
+    }
+
+    private static ZipInputStream open(File file) throws IOException {
+        return new ZipInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    private static boolean skipTo(ZipInputStream zip, String name) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
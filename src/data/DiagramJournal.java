@@ -0,0 +1,306 @@
+package data;
+
+import javafx.application.Platform;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Write-ahead journal behind the autosave of an open diagram.
+// Every edit is appended as one small record to "<file name>.journal" next to the diagram's file, and the journal is
+// periodically compacted: the whole diagram is written to the XML and the journal starts over. All file work runs on
+// one background thread; the FX thread only encodes records and hands them over, so an edit costs as much as the record.
+// Records and compactions are queued in the order they were made, so a compaction never drops a later record.
+public abstract class DiagramJournal {
+    private static final long COMPACT_INTERVAL_SECONDS = 30;
+    private static final int COMPACT_AFTER_RECORDS = 1000; // Bounds the replay after a crash
+    // Autosaves of diagrams that were never saved, kept apart from saved diagrams of the same name
+    private static final File DRAFTS = new File("User Diagrams/Autosave");
+
+    // Shared by all journals and background saves, so writes of one diagram never overtake each other
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "diagram-autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Told on the FX thread when autosaving starts failing, with what went wrong, and with null once it works again
+    private static volatile Consumer<String> statusListener;
+    private static String failure; // Autosave thread only; the failure last reported, null while autosaves work
+
+    private final File journalFile;
+    private Writer writer; // Only used on the autosave thread
+    // FX thread state
+    private List<String> batch = new ArrayList<>();
+    private int recordsSinceCompaction;
+    private boolean compacted;
+    private boolean closed;
+    private ScheduledFuture<?> timer;
+
+    protected DiagramJournal(File xmlFile) {
+        this.journalFile = journalFor(xmlFile);
+    }
+
+    // The diagram's state as of now, captured on the FX thread and written to the XML on the autosave thread
+    protected interface Compaction {
+        void write() throws Exception;
+    }
+
+    protected abstract Compaction capture() throws Exception;
+
+    // Stops listening to the diagram
+    protected abstract void detach();
+
+    // A file of its own for the autosave of a new diagram, e.g. "Autosave/Class Diagrams/New Class Diagram 2.xml".
+    // The name is reserved by creating its empty journal, so a second new diagram of the same name, or a draft left by
+    // an earlier session, is never written over.
+    protected static File newDraft(String folder, String diagramName) {
+        File directory = new File(DRAFTS, folder);
+        directory.mkdirs();
+        for (int n = 1; ; n++) {
+            File draft = new File(directory, (n == 1 ? diagramName : diagramName + " " + n) + ".xml");
+            try {
+                if (!draft.exists() && journalFor(draft).createNewFile()) {
+                    return draft;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create an autosave file in " + directory, e);
+            }
+        }
+    }
+
+    public static void setStatusListener(Consumer<String> listener) {
+        statusListener = listener;
+    }
+
+    // Runs file work for a save the user made on the autosave thread, behind the autosaves queued before it
+    static void runInBackground(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    // Keyed on the whole file name, so "Foo.xml" and "Foo.umlb" in the same folder never share a journal
+    public static File journalFor(File xmlFile) {
+        return new File(xmlFile.getParentFile(), xmlFile.getName() + ".journal");
+    }
+
+    // Starts journaling. A diagram recovered from its journal is compacted right away, which also clears that journal.
+    // A loaded diagram already has its XML; a new one is first written on its first edit. Nothing is deleted here:
+    // the only journal this diagram may clear is one it has folded into its own file by compacting.
+    protected void start(boolean loaded, boolean recovered) {
+        if (recovered) {
+            compact();
+        } else {
+            compacted = loaded;
+        }
+        timer = EXECUTOR.scheduleWithFixedDelay(() -> Platform.runLater(() -> {
+            if (!closed && recordsSinceCompaction > 0) {
+                compact();
+            }
+        }), COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Queues one record; called on the FX thread for every edit
+    protected void append(String... fields) {
+        if (closed) {
+            return;
+        }
+        if (batch.isEmpty()) {
+            // Everything appended while handling this event is written in one go
+            Platform.runLater(this::submitBatch);
+        }
+        batch.add(encode(fields));
+        recordsSinceCompaction++;
+        if (!compacted || recordsSinceCompaction >= COMPACT_AFTER_RECORDS) {
+            compact();
+        }
+    }
+
+    // Writes the whole diagram to its XML and empties the journal
+    public void compact() {
+        if (closed) {
+            return;
+        }
+        Compaction compaction;
+        try {
+            compaction = capture();
+        } catch (Exception e) {
+            String message = "Autosave failed for " + journalFile.getName() + ": " + e;
+            EXECUTOR.execute(() -> failed(message));
+            return;
+        }
+        submitBatch(); // These records are part of the compaction, but must not end up after it
+        compacted = true;
+        recordsSinceCompaction = 0;
+        EXECUTOR.execute(() -> {
+            try {
+                closeWriter();
+                compaction.write();
+                deleteJournal();
+                succeeded();
+            } catch (Exception e) {
+                // The journal is kept, so the edits can still be recovered from it
+                failed("Autosave failed for " + journalFile.getName() + ": " + e);
+            }
+        });
+    }
+
+    // Compacts a last time and stops; the journal of a cleanly closed diagram is empty
+    public void close() {
+        if (closed) {
+            return;
+        }
+        detach();
+        if (recordsSinceCompaction > 0) {
+            compact();
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        EXECUTOR.execute(this::closeWriter);
+    }
+
+    private void submitBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> records = batch;
+        batch = new ArrayList<>();
+        EXECUTOR.execute(() -> write(records));
+    }
+
+    private void write(List<String> records) {
+        try {
+            if (writer == null) {
+                journalFile.getParentFile().mkdirs();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+            for (String record : records) {
+                writer.write(record);
+                writer.write('\n');
+            }
+            writer.flush();
+            succeeded();
+        } catch (IOException e) {
+            failed("Autosave failed for " + journalFile.getName() + ": " + e);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Autosave failed for " + journalFile.getName() + ": " + e);
+        }
+        writer = null;
+    }
+
+    private void deleteJournal() {
+        try {
+            Files.deleteIfExists(journalFile.toPath());
+        } catch (IOException e) {
+            System.err.println("Could not clear " + journalFile.getName() + ": " + e);
+        }
+    }
+
+    // Autosave thread; the listener hears of the first failure in a row, not of every retry
+    private static void failed(String message) {
+        System.err.println(message);
+        if (failure == null) {
+            notifyStatus(message);
+        }
+        failure = message;
+    }
+
+    private static void succeeded() {
+        if (failure != null) {
+            failure = null;
+            notifyStatus(null);
+        }
+    }
+
+    private static void notifyStatus(String message) {
+        Consumer<String> listener = statusListener;
+        if (listener != null) {
+            Platform.runLater(() -> listener.accept(message));
+        }
+    }
+
+    // Records left in the journal of the given diagram file, oldest first. A record cut off by a crash is dropped.
+    public static List<String[]> readRecords(File xmlFile) throws IOException {
+        File file = journalFor(xmlFile);
+        List<String[]> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        String content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        int start = 0;
+        for (int end = content.indexOf('\n'); end >= 0; end = content.indexOf('\n', start)) {
+            records.add(decode(content.substring(start, end)));
+            start = end + 1;
+        }
+        return records;
+    }
+
+    // Fields are tab separated; tabs, line breaks and backslashes inside them are escaped
+    static String encode(String... fields) {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                record.append('\t');
+            }
+            String field = fields[i] == null ? "" : fields[i];
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                switch (c) {
+                    case '\\' -> record.append("\\\\");
+                    case '\t' -> record.append("\\t");
+                    case '\n' -> record.append("\\n");
+                    case '\r' -> record.append("\\r");
+                    default -> record.append(c);
+                }
+            }
+        }
+        return record.toString();
+    }
+
+    static String[] decode(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < record.length()) {
+                char escaped = record.charAt(++i);
+                field.append(switch (escaped) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> escaped;
+                });
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
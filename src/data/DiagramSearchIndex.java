@@ -0,0 +1,324 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+// Inverted index over the classes, attributes, methods and parameters of every saved class diagram, so searching
+// hundreds of diagrams is a lookup rather than a parse.
+// Names are split into lowercase terms: the whole identifier and its camelCase and snake_case parts, so "getUserName"
+// is found by "getuser", "user" or "name". A query word matches every term it is a prefix of, and a query of several
+// words finds the elements matching all of them. Terms are kept sorted, so a prefix is one range of the map.
+// Each file's elements are replaced as a whole when it is saved or changes on disk; the index is stored in
+// "User Diagrams/.library/search" so it is never rebuilt from the diagram files at startup.
+public class DiagramSearchIndex {
+    public static final String CLASS = "Class";
+    public static final String ATTRIBUTE = "Attribute";
+    public static final String METHOD = "Method";
+    public static final String PARAMETER = "Parameter";
+    private static final File INDEX_FILE = new File("User Diagrams/.library/search");
+    private static final int MAGIC = 0x554D4C53; // "UMLS"
+    private static final int VERSION = 1;
+    private static final Pattern WORDS = Pattern.compile("[^\\p{L}\\p{N}_$]+");
+    private static final Pattern PARTS = Pattern.compile("_|(?<=[\\p{Ll}\\p{N}])(?=\\p{Lu})|(?<=\\p{Lu})(?=\\p{Lu}\\p{Ll})");
+
+    // One declaration in a saved diagram
+    public static class Hit {
+        public final String fileName;
+        public final String diagramName;
+        public final String kind;
+        public final String className; // The declaring class; the class itself for CLASS hits
+        public final String name;
+        public final String detail; // Type, return type or method of a parameter; null for classes
+
+        Hit(String fileName, String diagramName, String kind, String className, String name, String detail) {
+            this.fileName = fileName;
+            this.diagramName = diagramName;
+            this.kind = kind;
+            this.className = className;
+            this.name = name;
+            this.detail = detail;
+        }
+    }
+
+    // What the project library lists for a diagram, taken from its indexed elements
+    public static class Summary {
+        public final String diagramName;
+        public final int classCount;
+
+        Summary(String diagramName, int classCount) {
+            this.diagramName = diagramName;
+            this.classCount = classCount;
+        }
+    }
+
+    private static class Document {
+        final String fileName;
+        final String diagramName;
+        final long modified;
+        final List<Hit> hits;
+        final Map<String, List<Hit>> byName = new HashMap<>();
+
+        Document(String fileName, String diagramName, long modified, List<Hit> hits) {
+            this.fileName = fileName;
+            this.diagramName = diagramName;
+            this.modified = modified;
+            this.hits = hits;
+        }
+    }
+
+    private static Map<String, Document> documents; // By file name; loaded on first use
+    // Term to element name to the elements of that name in each document. Whether an element matches a query depends
+    // only on its name, so a name is checked once however many diagrams declare it.
+    private static final TreeMap<String, Map<String, Map<Document, List<Hit>>>> postings = new TreeMap<>();
+    private static boolean changed;
+
+    // Whether the file's elements are indexed as of the given modification time
+    public static synchronized boolean isCurrent(File file, long modified) {
+        load();
+        Document document = documents.get(file.getName());
+        return document != null && document.modified == modified;
+    }
+
+    // The file's name and class count if its elements are indexed as of the given modification time, otherwise null
+    public static synchronized Summary summary(File file, long modified) {
+        load();
+        Document document = documents.get(file.getName());
+        if (document == null || document.modified != modified) {
+            return null;
+        }
+        int classes = 0;
+        for (Hit hit : document.hits) {
+            if (hit.kind.equals(CLASS)) {
+                classes++;
+            }
+        }
+        return new Summary(document.diagramName, classes);
+    }
+
+    // Indexes the diagram just saved to, or read from, the file
+    public static void update(File file, ClassDiagram diagram) {
+        update(file, ThumbnailCache.modifiedTime(file), diagram);
+    }
+
+    public static void update(File file, long modified, ClassDiagram diagram) {
+        // Collected outside the lock; a save on the FX thread should not wait for a search
+        List<Hit> hits = new ArrayList<>();
+        String fileName = file.getName();
+        String diagramName = diagram.getName();
+        for (ClassModel c : diagram.getClasses()) {
+            hits.add(new Hit(fileName, diagramName, CLASS, c.getName(), c.getName(), null));
+            for (Attribute attribute : c.getAttributes()) {
+                hits.add(new Hit(fileName, diagramName, ATTRIBUTE, c.getName(), attribute.getName(), attribute.getType()));
+            }
+            for (Method method : c.getMethods()) {
+                hits.add(new Hit(fileName, diagramName, METHOD, c.getName(), method.name, method.returnType));
+                for (String parameter : method.parameters) {
+                    // Parameters are saved as "type name"
+                    int split = parameter.trim().lastIndexOf(' ');
+                    String name = split < 0 ? parameter.trim() : parameter.trim().substring(split + 1);
+                    String type = split < 0 ? null : parameter.trim().substring(0, split).trim();
+                    hits.add(new Hit(fileName, diagramName, PARAMETER, c.getName(), name, type == null ? method.name : type + " in " + method.name));
+                }
+            }
+        }
+        Document document = new Document(fileName, diagramName, modified, hits);
+        synchronized (DiagramSearchIndex.class) {
+            load();
+            remove(fileName);
+            add(document);
+            changed = true;
+        }
+    }
+
+    public static synchronized void remove(File file) {
+        load();
+        if (documents.containsKey(file.getName())) {
+            remove(file.getName());
+            changed = true;
+        }
+    }
+
+    // Elements matching every word of the query, whole-term matches first; at most limit of them
+    public static synchronized List<Hit> search(String query, int limit) {
+        load();
+        String[] words = WORDS.split(query.trim().toLowerCase(Locale.ROOT));
+        List<Hit> results = new ArrayList<>();
+        if (words.length == 0 || words[0].isEmpty()) {
+            return results;
+        }
+        String first = words[0];
+        // The exact term first, then the longer terms it is a prefix of
+        List<Map<String, Map<Document, List<Hit>>>> matches = new ArrayList<>();
+        if (postings.containsKey(first)) {
+            matches.add(postings.get(first));
+        }
+        matches.addAll(postings.subMap(first, false, first + Character.MAX_VALUE, false).values());
+        Set<String> seen = new HashSet<>(); // A name is under several of the terms when more than one part matches
+        for (Map<String, Map<Document, List<Hit>>> byName : matches) {
+            for (Map.Entry<String, Map<Document, List<Hit>>> entry : byName.entrySet()) {
+                if (!seen.add(entry.getKey()) || !hasAll(terms(entry.getKey()), words)) {
+                    continue;
+                }
+                for (List<Hit> hits : entry.getValue().values()) {
+                    for (Hit hit : hits) {
+                        results.add(hit);
+                        if (results.size() == limit) {
+                            return results;
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // Writes the index if anything changed since it was last written; called by the project library after a batch
+    public static void saveIfChanged() throws Exception {
+        List<Document> snapshot;
+        synchronized (DiagramSearchIndex.class) {
+            if (!changed) {
+                return;
+            }
+            snapshot = new ArrayList<>(documents.values());
+            changed = false;
+        }
+        // Documents are never modified once indexed, so they can be written without the lock
+        AtomicFileWriter.write(INDEX_FILE, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Document document : snapshot) {
+                out.writeUTF(document.fileName);
+                out.writeUTF(document.diagramName);
+                out.writeLong(document.modified);
+                out.writeInt(document.hits.size());
+                for (Hit hit : document.hits) {
+                    out.writeUTF(hit.kind);
+                    out.writeUTF(hit.className);
+                    out.writeUTF(hit.name);
+                    out.writeBoolean(hit.detail != null);
+                    if (hit.detail != null) {
+                        out.writeUTF(hit.detail);
+                    }
+                }
+            }
+            out.flush();
+        });
+    }
+
+    // Whether every word after the first is a prefix of one of the terms
+    private static boolean hasAll(Set<String> terms, String[] words) {
+        for (int i = 1; i < words.length; i++) {
+            String word = words[i];
+            if (terms.stream().noneMatch(term -> term.startsWith(word))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Set<String> terms(String name) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : WORDS.split(name)) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            terms.add(word.toLowerCase(Locale.ROOT));
+            for (String part : PARTS.split(word)) {
+                if (!part.isEmpty()) {
+                    terms.add(part.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static void add(Document document) {
+        documents.put(document.fileName, document);
+        for (Hit hit : document.hits) {
+            document.byName.computeIfAbsent(hit.name, n -> new ArrayList<>()).add(hit);
+        }
+        for (Map.Entry<String, List<Hit>> entry : document.byName.entrySet()) {
+            for (String term : terms(entry.getKey())) {
+                postings.computeIfAbsent(term, t -> new HashMap<>()).computeIfAbsent(entry.getKey(), n -> new HashMap<>())
+                        .put(document, entry.getValue());
+            }
+        }
+    }
+
+    private static void remove(String fileName) {
+        Document document = documents.remove(fileName);
+        if (document == null) {
+            return;
+        }
+        for (String name : document.byName.keySet()) {
+            for (String term : terms(name)) {
+                Map<String, Map<Document, List<Hit>>> byName = postings.get(term);
+                Map<Document, List<Hit>> byDocument = byName.get(name);
+                byDocument.remove(document);
+                if (byDocument.isEmpty()) {
+                    byName.remove(name);
+                    if (byName.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void load() {
+        if (documents != null) {
+            return;
+        }
+        documents = new HashMap<>();
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+        try {
+            AtomicFileWriter.verify(INDEX_FILE);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(AtomicFileWriter.open(INDEX_FILE)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return; // Rebuilt as the project library finds the diagrams out of date
+                }
+                int documentCount = in.readInt();
+                for (int d = 0; d < documentCount; d++) {
+                    String fileName = in.readUTF();
+                    String diagramName = in.readUTF();
+                    long modified = in.readLong();
+                    int hitCount = in.readInt();
+                    List<Hit> hits = new ArrayList<>(hitCount);
+                    for (int h = 0; h < hitCount; h++) {
+                        String kind = in.readUTF();
+                        String className = in.readUTF();
+                        String name = in.readUTF();
+                        hits.add(new Hit(fileName, diagramName, kind, className, name, in.readBoolean() ? in.readUTF() : null));
+                    }
+                    add(new Document(fileName, diagramName, modified, hits));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Search index unreadable, rebuilding it: " + e);
+            documents.clear();
+            postings.clear();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package data;
+
+import bean.ThumbnailBean;
+import core.class_diagram.ClassDiagram;
+import javafx.application.Platform;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Persistent index of the saved diagrams behind the Load Diagram window, so the picker lists and filters projects
+// without opening a single diagram file.
+// Each entry keeps the diagram's name, type, class or component count and modification time; its thumbnail is in the
+// ThumbnailCache. The index lives in "User Diagrams/.library/index"; a background thread reconciles it with the folders
+// at startup and then keeps it current from a WatchService, re-reading only files that changed; class diagrams it reads
+// also refresh their part of the DiagramSearchIndex. Listeners are told on the FX thread.
+public class ProjectLibrary {
+    public static final String CLASS = "class";
+    public static final String USE_CASE = "usecase";
+    private static final File LIBRARY_FOLDER = new File("User Diagrams/.library");
+    private static final File INDEX_FILE = new File(LIBRARY_FOLDER, "index");
+    private static final int MAGIC = 0x554D4C49; // "UMLI"
+    private static final int VERSION = 2;
+    private static final long SETTLE_MILLIS = 200; // Saves touch a file several times; index once they have settled
+
+    public static class Entry {
+        public final String type;
+        public final String fileName;
+        public final String name;
+        public final int count; // Classes or components, -1 if the file could not be read
+        public final long modified;
+
+        Entry(String type, String fileName, String name, int count, long modified) {
+            this.type = type;
+            this.fileName = fileName;
+            this.name = name;
+            this.count = count;
+            this.modified = modified;
+        }
+
+        private String key() {
+            return ProjectLibrary.key(type, fileName);
+        }
+    }
+
+    private final File classFolder;
+    private final File useCaseFolder;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    // Watcher thread only
+    private WatchService watcher;
+    private final Map<WatchKey, File> watchedFolders = new HashMap<>();
+
+    public ProjectLibrary(File classFolder, File useCaseFolder) {
+        this.classFolder = classFolder;
+        this.useCaseFolder = useCaseFolder;
+    }
+
+    // Loads the saved index, which is enough to show the picker, then reconciles and watches in the background
+    public void start() {
+        try {
+            load();
+        } catch (IOException e) {
+            System.err.println("Project index unreadable, rebuilding it: " + e);
+            entries.clear();
+        }
+        Thread thread = new Thread(this::run, "project-library");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs on the FX thread whenever entries change
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // All entries, newest first
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort(Comparator.comparingLong((Entry e) -> e.modified).reversed());
+        return list;
+    }
+
+    public File getFile(Entry entry) {
+        return new File(folderOf(entry.type), entry.fileName);
+    }
+
+    // PNG preview of the entry, or null if it has none or it was evicted from the cache
+    public File getThumbnail(Entry entry) {
+        return ThumbnailCache.get(getFile(entry));
+    }
+
+    private File folderOf(String type) {
+        return CLASS.equals(type) ? classFolder : useCaseFolder;
+    }
+
+    private static String key(String type, String fileName) {
+        return type + "/" + fileName;
+    }
+
+    static boolean isDiagramFile(String fileName) {
+        return fileName.endsWith(".xml") || fileName.endsWith(ClassDiagramBinaryFormat.EXTENSION)
+                || fileName.endsWith(ClassDiagramChunkStore.EXTENSION) || fileName.endsWith(DiagramArchive.EXTENSION);
+    }
+
+    private void run() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            watch(classFolder);
+            watch(useCaseFolder);
+            if (reconcile()) {
+                changed();
+            }
+            while (true) {
+                Set<File> changedFiles = new HashSet<>();
+                boolean overflow = collect(watcher.take(), changedFiles);
+                WatchKey key;
+                while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changedFiles);
+                }
+                boolean modified = overflow && reconcile();
+                for (File file : changedFiles) {
+                    modified |= update(file);
+                }
+                if (modified) {
+                    changed();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped with the application
+        } catch (IOException e) {
+            System.err.println("Project library stopped watching the diagram folders: " + e);
+        }
+    }
+
+    private void watch(File folder) throws IOException {
+        folder.mkdirs();
+        WatchKey key = folder.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedFolders.put(key, folder);
+    }
+
+    // Adds the diagram files the key's events are about; returns true if events were lost and a rescan is needed
+    private boolean collect(WatchKey key, Set<File> changedFiles) {
+        File folder = watchedFolders.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (folder != null && folder.getName().endsWith(ClassDiagramChunkStore.EXTENSION)) {
+                changedFiles.add(folder);
+            } else if (folder != null) {
+                File file = new File(folder, ((Path) event.context()).toString());
+                if (isDiagramFile(file.getName())) {
+                    changedFiles.add(file);
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedFolders.remove(key);
+        }
+        return overflow;
+    }
+
+    // Re-reads what changed while nothing was watching; returns whether any entry changed
+    private boolean reconcile() {
+        boolean modified = false;
+        Set<String> present = new HashSet<>();
+        for (String type : new String[]{CLASS, USE_CASE}) {
+            File[] files = folderOf(type).listFiles((dir, name) -> isDiagramFile(name));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                present.add(key(type, file.getName()));
+                modified |= update(file);
+            }
+        }
+        for (Entry entry : getEntries()) {
+            if (!present.contains(entry.key())) {
+                remove(entry);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    // Indexes the file again if it changed since it was indexed, or drops it if it is gone
+    private boolean update(File file) {
+        String type = file.getParentFile().getAbsoluteFile().equals(classFolder.getAbsoluteFile()) ? CLASS : USE_CASE;
+        if (file.getName().endsWith(ClassDiagramChunkStore.EXTENSION) && file.isDirectory()) {
+            watchChunks(file);
+        }
+        Entry old = entries.get(key(type, file.getName()));
+        if (!file.exists()) {
+            if (old != null) {
+                remove(old);
+                return true;
+            }
+            return false;
+        }
+        long modified = ThumbnailCache.modifiedTime(file);
+        if (old != null && old.modified == modified && (!CLASS.equals(type) || DiagramSearchIndex.isCurrent(file, modified))) {
+            return false;
+        }
+        entries.put(key(type, file.getName()), read(type, file, modified));
+        return true;
+    }
+
+    private void watchChunks(File directory) {
+        if (watchedFolders.containsValue(directory)) {
+            return;
+        }
+        try {
+            watch(directory);
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + directory.getName() + ": " + e);
+        }
+    }
+
+    // Its thumbnail is left to age out of the cache
+    private void remove(Entry entry) {
+        entries.remove(entry.key());
+        if (CLASS.equals(entry.type)) {
+            DiagramSearchIndex.remove(getFile(entry));
+        }
+    }
+
+    // The one place diagram files are opened: archives give their metadata and thumbnail entries, class diagrams
+    // are read into a model (lazily for binary files), use case XML is scanned for its name and components.
+    // A class diagram already indexed and with a cached thumbnail, e.g. one the editor just saved, is not read at all.
+    // Files saved by the editor already have their thumbnail cached; others get one here if their type allows.
+    private Entry read(String type, File file, long modified) {
+        String name = file.getName();
+        int count = -1;
+        boolean cached = ThumbnailCache.get(file) != null;
+        BufferedImage thumbnail = null;
+        try {
+            DiagramSearchIndex.Summary summary = CLASS.equals(type) && cached ? DiagramSearchIndex.summary(file, modified) : null;
+            if (DiagramArchive.isArchive(file)) {
+                Properties metadata = DiagramArchive.readMetadata(file);
+                name = metadata.getProperty("name", name);
+                count = Integer.parseInt(metadata.getProperty(CLASS.equals(type) ? "classes" : "components", "-1"));
+                if (!cached) {
+                    thumbnail = DiagramArchive.readThumbnail(file);
+                }
+                if (CLASS.equals(type) && !DiagramSearchIndex.isCurrent(file, modified)) {
+                    DiagramSearchIndex.update(file, modified, ClassDiagramDBAO.readDiagram(file));
+                }
+            } else if (summary != null) {
+                name = summary.diagramName;
+                count = summary.classCount;
+            } else if (CLASS.equals(type)) {
+                ClassDiagram diagram = ClassDiagramDBAO.readDiagram(file);
+                name = diagram.getName();
+                count = diagram.getClasses().size();
+                if (!cached) {
+                    thumbnail = ThumbnailBean.render(diagram);
+                }
+                if (!DiagramSearchIndex.isCurrent(file, modified)) {
+                    DiagramSearchIndex.update(file, modified, diagram);
+                }
+            } else {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+                    count = 0;
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                            switch (reader.getLocalName()) {
+                                case "Name" -> name = reader.getElementText();
+                                case "Component" -> count++;
+                                default -> {
+                                }
+                            }
+                        }
+                    }
+                    reader.close();
+                }
+            }
+        } catch (Exception e) {
+            // Still listed, so it can be opened and its error shown
+            System.err.println("Cannot index " + file.getName() + ": " + e);
+        }
+
+        if (thumbnail != null) {
+            ThumbnailCache.put(file, thumbnail);
+        }
+        return new Entry(type, file.getName(), name, count, modified);
+    }
+
+    private void changed() {
+        try {
+            save();
+            DiagramSearchIndex.saveIfChanged();
+        } catch (Exception e) {
+            System.err.println("Cannot save the project index: " + e);
+        }
+        if (!listeners.isEmpty()) {
+            Platform.runLater(() -> listeners.forEach(Runnable::run));
+        }
+    }
+
+    private void load() throws IOException {
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+        AtomicFileWriter.verify(INDEX_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(AtomicFileWriter.open(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return; // Rebuilt by the first reconcile
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readLong());
+                entries.put(entry.key(), entry);
+            }
+        }
+    }
+
+    private void save() throws Exception {
+        List<Entry> list = getEntries();
+        AtomicFileWriter.write(INDEX_FILE, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(list.size());
+            for (Entry entry : list) {
+                out.writeUTF(entry.type);
+                out.writeUTF(entry.fileName);
+                out.writeUTF(entry.name);
+                out.writeInt(entry.count);
+                out.writeLong(entry.modified);
+            }
+            out.flush();
+        });
+    }
+}
@@ -0,0 +1,116 @@
+package data;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Size-bounded LRU disk cache of diagram previews in "User Diagrams/.library/thumbnails".
+// A preview is keyed by the diagram file's path and modification time, so saving the diagram again makes the old
+// preview unreachable instead of wrong; unreachable previews are simply the first to be evicted. The files'
+// modification times record when they were last used, so the LRU order survives restarts.
+public class ThumbnailCache {
+    private static final File FOLDER = new File("User Diagrams/.library/thumbnails");
+    private static final long MAX_BYTES = 16L * 1024 * 1024;
+
+    // Cache file name to size, least recently used first; read from the folder on first use
+    private static LinkedHashMap<String, Long> entries;
+    private static long totalBytes;
+
+    // Stores the preview of the diagram as it is saved right now. Failing to is logged, never worth failing a save.
+    public static void put(File diagramFile, BufferedImage thumbnail) {
+        String name = key(diagramFile);
+        File file = new File(FOLDER, name);
+        try {
+            AtomicFileWriter.write(file, out -> ImageIO.write(thumbnail, "png", out), false);
+        } catch (Exception e) {
+            System.err.println("Cannot cache the thumbnail of " + diagramFile.getName() + ": " + e);
+            return;
+        }
+        synchronized (ThumbnailCache.class) {
+            load();
+            Long old = entries.remove(name);
+            if (old != null) {
+                totalBytes -= old;
+            }
+            entries.put(name, file.length());
+            totalBytes += file.length();
+            evict();
+        }
+    }
+
+    // The cached preview of the diagram as it is on disk now, or null
+    public static synchronized File get(File diagramFile) {
+        load();
+        String name = key(diagramFile);
+        if (entries.get(name) == null) { // Moves it to the most recently used end
+            return null;
+        }
+        File file = new File(FOLDER, name);
+        if (!file.isFile()) {
+            totalBytes -= entries.remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    // A chunked save changes its manifest, not the folder it is in
+    public static long modifiedTime(File diagramFile) {
+        return diagramFile.isDirectory() ? new File(diagramFile, "manifest").lastModified() : diagramFile.lastModified();
+    }
+
+    private static String key(File diagramFile) {
+        String path = diagramFile.getAbsoluteFile().toPath().normalize() + "\n" + modifiedTime(diagramFile);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JDK has SHA-1
+        }
+    }
+
+    private static void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>(64, 0.75f, true);
+        totalBytes = 0;
+        File[] files = FOLDER.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) {
+            return;
+        }
+        Map<File, Long> lastUsed = new HashMap<>();
+        for (File file : files) {
+            lastUsed.put(file, file.lastModified());
+        }
+        Arrays.sort(files, Comparator.comparing(lastUsed::get));
+        for (File file : files) {
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        evict();
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            new File(FOLDER, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            oldest.remove();
+        }
+    }
+}
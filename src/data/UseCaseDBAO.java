@@ -1,25 +1,28 @@
 package data;
 
+import bean.ThumbnailBean;
 import core.class_diagram.Attribute;
 import core.class_diagram.ClassDiagram;
 import core.class_diagram.ClassPanel;
 import core.class_diagram.Method;
 import core.class_diagram.Relationship;
 import core.usecase_diagram.UseCaseDiagramPanel;
-import core.usecase_diagram.UseCaseRelationship;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Ellipse;
+import core.usecase_diagram.UseCaseDiagramSnapshot;
 import javafx.scene.shape.Rectangle;
+import ui.MenuBarUI;
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
 import javax.xml.transform.*;
 
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 public class UseCaseDBAO {
 
@@ -27,7 +30,7 @@ public class UseCaseDBAO {
 
     public static void saveUseCaseDiagram(UseCaseDiagramPanel diagram) throws Exception {
         // Define the directory and file path
-        String folderPath = "User diagrams/Use Case Diagrams";
+        String folderPath = MenuBarUI.USE_CASE_FOLDER;
         File folder = new File(folderPath);
 
         // Create the folder if it doesn't exist
@@ -39,6 +42,28 @@ public class UseCaseDBAO {
         String filePath = folderPath + File.separator + diagram.getName()+ ".xml"; // Customize filename logic if needed
         File file = new File(filePath);
 
+        writeDocument(toDocument(diagram), file);
+        ThumbnailCache.put(file, ThumbnailBean.render(diagram));
+
+        System.out.println("Use case diagram saved to: " + filePath);
+    }
+
+    // Saves a compressed archive of the XML with a thumbnail and metadata, for projects kept on slow shared drives
+    public static void saveUseCaseDiagramArchive(UseCaseDiagramPanel diagram) throws Exception {
+        File file = new File(MenuBarUI.USE_CASE_FOLDER, diagram.getName() + DiagramArchive.EXTENSION);
+        BufferedImage thumbnail = ThumbnailBean.render(diagram);
+        writeDocument(toDocument(diagram), thumbnail, file);
+        ThumbnailCache.put(file, thumbnail);
+        System.out.println("Use case diagram saved to: " + file.getPath());
+    }
+
+    // Builds the XML document for the diagram; reads the nodes, so it must run on the FX thread
+    public static Document toDocument(UseCaseDiagramPanel diagram) throws Exception {
+        return toDocument(UseCaseDiagramSnapshot.of(diagram));
+    }
+
+    // Builds the XML document from a snapshot; touches no nodes, so the autosave thread can call it
+    public static Document toDocument(UseCaseDiagramSnapshot diagram) throws Exception {
         // Prepare the XML document
         DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
@@ -55,20 +80,19 @@ public class UseCaseDBAO {
 
         // Save components
         Element componentsElement = document.createElement("Components");
-        for (UseCaseDiagramPanel.DiagramComponent component : diagram.components) {
+        for (UseCaseDiagramSnapshot.ComponentSnapshot component : diagram.getComponents()) {
             Element componentElement = document.createElement("Component");
+            componentElement.setAttribute("id", String.valueOf(component.id));
 
             // Save position
-            componentElement.setAttribute("x", String.valueOf(component.container.getLayoutX()));
-            componentElement.setAttribute("y", String.valueOf(component.container.getLayoutY()));
+            componentElement.setAttribute("x", String.valueOf(component.x));
+            componentElement.setAttribute("y", String.valueOf(component.y));
 
             // Save shape type (actor or use case) and text
-            if (component.shape instanceof Ellipse) {
-                componentElement.setAttribute("type", "UseCase");
-            } else if (component.shape instanceof Circle) {
-                componentElement.setAttribute("type", "Actor");
+            if (component.type != null) {
+                componentElement.setAttribute("type", component.type);
             }
-            componentElement.setAttribute("label", component.getText());
+            componentElement.setAttribute("label", component.label);
 
             componentsElement.appendChild(componentElement);
         }
@@ -76,28 +100,51 @@ public class UseCaseDBAO {
 
         // Save relationships
         Element relationshipsElement = document.createElement("Relationships");
-        for (UseCaseRelationship relationship : diagram.relationships) {
+        for (UseCaseDiagramSnapshot.RelationshipSnapshot relationship : diagram.getRelationships()) {
             Element relationshipElement = document.createElement("Relationship");
-            relationshipElement.setAttribute("from", relationship.from.getText());
-            relationshipElement.setAttribute("to", relationship.to.getText());
-            relationshipElement.setAttribute("label", relationship.label.getText());
+            relationshipElement.setAttribute("from", relationship.from);
+            relationshipElement.setAttribute("to", relationship.to);
+            relationshipElement.setAttribute("label", relationship.label);
             relationshipsElement.appendChild(relationshipElement);
         }
         rootElement.appendChild(relationshipsElement);
+        return document;
+    }
+
+    // Writes a document built by toDocument; touches no nodes, so the autosave thread can call it
+    public static void writeDocument(Document document, File file) throws Exception {
+        writeDocument(document, null, file);
+    }
 
-        // Write the document to the file
+    // As above; a .umlz file gets the document as an archive, with the thumbnail if there is one
+    public static void writeDocument(Document document, BufferedImage thumbnail, File file) throws Exception {
         TransformerFactory transformerFactory = TransformerFactory.newInstance();
         Transformer transformer = transformerFactory.newTransformer();
         transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.transform(new DOMSource(document), new StreamResult(file));
-
-        System.out.println("Use case diagram saved to: " + filePath);
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"); // It could not follow AtomicFileWriter's marker
+        if (file.getName().endsWith(DiagramArchive.EXTENSION)) {
+            Element root = document.getDocumentElement();
+            Properties metadata = DiagramArchive.metadata("usecase", root.getElementsByTagName("Name").item(0).getTextContent());
+            metadata.setProperty("components", String.valueOf(root.getElementsByTagName("Component").getLength()));
+            metadata.setProperty("relationships", String.valueOf(root.getElementsByTagName("Relationship").getLength()));
+            DiagramArchive.write(file, metadata, thumbnail, out -> transformer.transform(new DOMSource(document), new StreamResult(out)));
+            return;
+        }
+        AtomicFileWriter.write(file, out -> transformer.transform(new DOMSource(document), new StreamResult(out)));
     }
 
     public static UseCaseDiagramPanel loadUseCaseDiagram(File file) throws Exception {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(file);
+        Document document;
+        if (DiagramArchive.isArchive(file)) {
+            try (InputStream in = DiagramArchive.openDiagram(file)) {
+                document = builder.parse(in);
+            }
+        } else {
+            AtomicFileWriter.verify(file); // Report a damaged file before anything is built from it
+            document = builder.parse(file);
+        }
 
         // Root element and diagram initialization
         Element rootElement = document.getDocumentElement();
@@ -114,16 +161,22 @@ public class UseCaseDBAO {
             String type = componentElement.getAttribute("type"); // Optional
             double x = Double.parseDouble(componentElement.getAttribute("x"));
             double y = Double.parseDouble(componentElement.getAttribute("y"));
+            // Files written before components had ids get them in file order
+            String idAttribute = componentElement.getAttribute("id");
+            int id = idAttribute.isEmpty() ? i : Integer.parseInt(idAttribute);
 
             UseCaseDiagramPanel.DiagramComponent component;
 
             if ("Actor".equals(type)) {
 
                 // Add actor using the proper method
-                component = diagram.addActor(x, y);
+                component = diagram.addActor(x, y, id);
+                if (!label.isEmpty()) {
+                    component.text.setText(label);
+                }
             } else if ("UseCase".equals(type)) {
                 // Add use case using the proper method
-                component = diagram.addUseCase(x, y, label);
+                component = diagram.addUseCase(x, y, label, id);
             } else {
                 throw new IllegalArgumentException("Unknown component type: " + type);
             }
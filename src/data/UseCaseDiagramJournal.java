@@ -0,0 +1,182 @@
+package data;
+
+import bean.ThumbnailBean;
+import core.usecase_diagram.UseCaseDiagramPanel;
+import core.usecase_diagram.UseCaseDiagramSnapshot;
+import core.usecase_diagram.UseCaseRelationship;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Ellipse;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+// Autosave of an open use case diagram.
+// Records refer to components by id; the XML stores the ids too, so they replay onto the last compacted file:
+//   A id type x y label             component added
+//   D id                            component deleted
+//   M id x y                        component moved
+//   T id text                       component text edited
+//   L / l fromId toId label         relationship added / removed
+// Compaction copies the components and relationships into a plain snapshot on the FX thread, as that reads the nodes;
+// the XML document is built and written from it on the autosave thread.
+public class UseCaseDiagramJournal extends DiagramJournal implements UseCaseDiagramPanel.Listener {
+    private final UseCaseDiagramPanel panel;
+    private final File xmlFile;
+
+    private UseCaseDiagramJournal(UseCaseDiagramPanel panel, File xmlFile) {
+        super(xmlFile);
+        this.panel = panel;
+        this.xmlFile = xmlFile;
+    }
+
+    // Journals the shown panel. loadedFrom is the file it was read from, or null for a new diagram, which is autosaved
+    // to a draft file of its own; recovered tells whether edits were replayed from the file's journal.
+    public static UseCaseDiagramJournal start(UseCaseDiagramPanel panel, File loadedFrom, boolean recovered) {
+        File xmlFile = loadedFrom != null ? loadedFrom : newDraft("Use Case Diagrams", panel.getName());
+        UseCaseDiagramJournal journal = new UseCaseDiagramJournal(panel, xmlFile);
+        panel.addListener(journal);
+        journal.start(loadedFrom != null, recovered);
+        return journal;
+    }
+
+    @Override
+    protected Compaction capture() throws Exception {
+        UseCaseDiagramSnapshot snapshot = UseCaseDiagramSnapshot.of(panel);
+        BufferedImage thumbnail = DiagramArchive.isArchive(xmlFile) ? ThumbnailBean.render(panel) : null;
+        return () -> UseCaseDBAO.writeDocument(UseCaseDBAO.toDocument(snapshot), thumbnail, xmlFile);
+    }
+
+    @Override
+    protected void detach() {
+        panel.removeListener(this);
+    }
+
+    @Override
+    public void componentAdded(UseCaseDiagramPanel.DiagramComponent component) {
+        String type = typeOf(component);
+        if (type != null) {
+            append("A", String.valueOf(component.getId()), type,
+                    String.valueOf(component.container.getLayoutX()), String.valueOf(component.container.getLayoutY()), component.getText());
+        }
+    }
+
+    @Override
+    public void componentRemoved(UseCaseDiagramPanel.DiagramComponent component) {
+        if (typeOf(component) != null) {
+            append("D", String.valueOf(component.getId()));
+        }
+    }
+
+    @Override
+    public void componentMoved(UseCaseDiagramPanel.DiagramComponent component) {
+        if (typeOf(component) != null) {
+            append("M", String.valueOf(component.getId()),
+                    String.valueOf(component.container.getLayoutX()), String.valueOf(component.container.getLayoutY()));
+        }
+    }
+
+    @Override
+    public void componentTextChanged(UseCaseDiagramPanel.DiagramComponent component) {
+        if (typeOf(component) != null) {
+            append("T", String.valueOf(component.getId()), component.getText());
+        }
+    }
+
+    @Override
+    public void relationshipAdded(UseCaseRelationship relationship) {
+        append("L", String.valueOf(relationship.from.getId()), String.valueOf(relationship.to.getId()), labelOf(relationship));
+    }
+
+    @Override
+    public void relationshipRemoved(UseCaseRelationship relationship) {
+        append("l", String.valueOf(relationship.from.getId()), String.valueOf(relationship.to.getId()), labelOf(relationship));
+    }
+
+    // Only actors and use cases are saved, as in UseCaseDBAO
+    private static String typeOf(UseCaseDiagramPanel.DiagramComponent component) {
+        if (component.shape instanceof Ellipse) {
+            return "UseCase";
+        } else if (component.shape instanceof Circle) {
+            return "Actor";
+        }
+        return null;
+    }
+
+    private static String labelOf(UseCaseRelationship relationship) {
+        return relationship.label == null ? "" : relationship.label.getText();
+    }
+
+    // Replays the journal left next to the file onto the panel loaded from it; returns the number of records applied
+    public static int recover(UseCaseDiagramPanel panel, File xmlFile) throws Exception {
+        int applied = 0;
+        for (String[] record : readRecords(xmlFile)) {
+            try {
+                apply(panel, record);
+                applied++;
+            } catch (RuntimeException e) {
+                System.err.println("Skipped unreadable journal record: " + String.join(" ", record));
+            }
+        }
+        if (applied > 0) {
+            System.out.println("Recovered " + applied + " unsaved edits of " + panel.getName());
+        }
+        return applied;
+    }
+
+    private static void apply(UseCaseDiagramPanel panel, String[] record) {
+        switch (record[0]) {
+            case "A" -> {
+                int id = Integer.parseInt(record[1]);
+                double x = Double.parseDouble(record[3]);
+                double y = Double.parseDouble(record[4]);
+                if (panel.getComponent(id) != null) {
+                    return;
+                }
+                if ("Actor".equals(record[2])) {
+                    panel.addActor(x, y, id).text.setText(record[5]);
+                } else {
+                    panel.addUseCase(x, y, record[5], id);
+                }
+            }
+            case "D" -> {
+                UseCaseDiagramPanel.DiagramComponent component = panel.getComponent(Integer.parseInt(record[1]));
+                if (component != null) {
+                    panel.deleteComponent(component);
+                }
+            }
+            case "M" -> {
+                UseCaseDiagramPanel.DiagramComponent component = panel.getComponent(Integer.parseInt(record[1]));
+                if (component != null) {
+                    component.container.setLayoutX(Double.parseDouble(record[2]));
+                    component.container.setLayoutY(Double.parseDouble(record[3]));
+                }
+            }
+            case "T" -> {
+                UseCaseDiagramPanel.DiagramComponent component = panel.getComponent(Integer.parseInt(record[1]));
+                if (component != null) {
+                    component.text.setText(record[2]);
+                }
+            }
+            case "L" -> {
+                UseCaseDiagramPanel.DiagramComponent from = panel.getComponent(Integer.parseInt(record[1]));
+                UseCaseDiagramPanel.DiagramComponent to = panel.getComponent(Integer.parseInt(record[2]));
+                if (from != null && to != null) {
+                    panel.addRelationship(from, to, record[3], "<<extends>>".equals(record[3]), "<<includes>>".equals(record[3]));
+                }
+            }
+            case "l" -> {
+                UseCaseRelationship match = null;
+                for (UseCaseRelationship relationship : panel.relationships) {
+                    if (relationship.from.getId() == Integer.parseInt(record[1]) && relationship.to.getId() == Integer.parseInt(record[2])
+                            && labelOf(relationship).equals(record[3])) {
+                        match = relationship;
+                    }
+                }
+                if (match != null) {
+                    panel.removeRelationship(match);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown journal record " + record[0]);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ui;
+
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassDiagramCanvasPanel;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Relationship;
+import data.ClassDiagramDBAO;
+import data.ClassDiagramJournal;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * Loads a saved class diagram without blocking the FX Application Thread.
+ * The file is parsed into a headless {@link ClassDiagram} on a virtual thread; its
+ * {@link ClassModel}s are then attached to the canvas in batches that each fit
+ * inside one frame, with a progress overlay that lets the user cancel. The canvas only builds
+ * panels for the classes near its viewport.
+ */
+public class ClassDiagramLoader {
+    // Time the FX thread may spend attaching nodes before yielding to the next pulse
+    private static final long FRAME_BUDGET_NANOS = 8_000_000;
+
+    private final File file;
+    private final ClassDiagramCanvasPanel canvas;
+    private final ProgressBar progressBar = new ProgressBar();
+    private final Label statusLabel = new Label();
+    private final Button cancelButton = new Button("Cancel");
+    private final VBox overlay;
+    private Task<ClassDiagram> parseTask;
+    private boolean cancelled = false;
+    private boolean recovered; // Whether edits from an autosave journal were replayed onto the file's content
+
+    public ClassDiagramLoader(File file, ClassDiagramCanvasPanel canvas) {
+        this.file = file;
+        this.canvas = canvas;
+
+        progressBar.setPrefWidth(300);
+        overlay = new VBox(10, statusLabel, progressBar, cancelButton);
+        overlay.setAlignment(Pos.CENTER);
+        overlay.setMaxSize(360, 140);
+        overlay.setStyle("-fx-background-color: #ffffff; -fx-border-color: #d3d3d3; -fx-padding: 20;");
+    }
+
+    /**
+     * Starts parsing in the background and shows the progress overlay over the card pane.
+     */
+    public void start() {
+        cancelButton.setOnAction(e -> cancel()); // Not in the constructor, which must not hand out this
+        parseTask = new Task<>() {
+            @Override
+            protected ClassDiagram call() throws Exception {
+                updateMessage("Reading " + file.getName() + "...");
+                ClassDiagram diagram = ClassDiagramDBAO.readDiagram(file, this::isCancelled,
+                        fraction -> updateProgress(fraction, 1));
+                // Edits that were journaled but not yet compacted when the editor last stopped
+                recovered = ClassDiagramJournal.recover(diagram, file) > 0;
+                return diagram;
+            }
+        };
+        progressBar.progressProperty().bind(parseTask.progressProperty());
+        statusLabel.textProperty().bind(parseTask.messageProperty());
+        parseTask.setOnSucceeded(e -> beginAttach(parseTask.getValue()));
+        parseTask.setOnFailed(e -> fail(parseTask.getException()));
+
+        MainFrame.getCardPane().getChildren().add(overlay);
+        Thread.ofVirtual().name("class-diagram-loader").start(parseTask);
+    }
+
+    /**
+     * Stops the load, whichever phase it is in, and returns to the home panel.
+     */
+    public void cancel() {
+        cancelled = true;
+        parseTask.cancel();
+        MainFrame.getCardPane().getChildren().remove(overlay);
+        MainFrame.showHomePanel();
+    }
+
+    private void beginAttach(ClassDiagram loadedDiagram) {
+        if (cancelled) {
+            return;
+        }
+        progressBar.progressProperty().unbind();
+        statusLabel.textProperty().unbind();
+        statusLabel.setText("Building " + loadedDiagram.getName() + "...");
+
+        // Initialize the canvas panel with the loaded diagram. The properties bar is built once everything is
+        // attached, so it doesn't patch its trees for each classAdded and relationshipAdded on the way.
+        canvas.setCurrentDiagram(new ClassDiagram(loadedDiagram.getName()));
+        MainFrame.getRootPane().setRight(null);
+
+        attachClasses(loadedDiagram, 0);
+    }
+
+    private void attachClasses(ClassDiagram loadedDiagram, int next) {
+        if (cancelled) {
+            return;
+        }
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        while (next < loadedDiagram.getClasses().size() && System.nanoTime() < deadline) {
+            ClassModel model = loadedDiagram.getClasses().get(next++);
+            canvas.addClass(model); // Classes outside the viewport stay as data until scrolled to
+        }
+        updateProgress(loadedDiagram, next);
+
+        int resumeAt = next;
+        if (resumeAt < loadedDiagram.getClasses().size()) {
+            Platform.runLater(() -> attachClasses(loadedDiagram, resumeAt));
+        } else {
+            Platform.runLater(() -> {
+                // Relationship lines are bound to the class sizes, so lay the classes out first
+                canvas.applyCss();
+                canvas.layout();
+                attachRelationships(loadedDiagram, loadedDiagram.getRelationships().iterator(), 0);
+            });
+        }
+    }
+
+    private void attachRelationships(ClassDiagram loadedDiagram, Iterator<Relationship> pending, int done) {
+        if (cancelled) {
+            return;
+        }
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        while (pending.hasNext() && System.nanoTime() < deadline) {
+            Relationship r = pending.next();
+            canvas.setRelationship(r.getType(), r.getStartClass(), r.getEndClass());
+            done++;
+        }
+        updateProgress(loadedDiagram, loadedDiagram.getClasses().size() + done);
+
+        int attached = done;
+        if (pending.hasNext()) {
+            Platform.runLater(() -> attachRelationships(loadedDiagram, pending, attached));
+        } else {
+            ClassDiagramPropertiesBar propertiesBar = new ClassDiagramPropertiesBar(loadedDiagram.getName(), canvas);
+            MainFrame.setPropertiesBar(propertiesBar);
+            MainFrame.getRootPane().setRight(propertiesBar);
+            MainFrame.getCardPane().getChildren().remove(overlay);
+            // Attaching marked every class as changed; a chunked save of the file should only see the recovered edits
+            canvas.getDiagram().adoptSaveState(loadedDiagram);
+            MainFrame.setJournal(ClassDiagramJournal.start(canvas.getDiagram(), file, recovered));
+        }
+    }
+
+    private void updateProgress(ClassDiagram loadedDiagram, int done) {
+        int total = loadedDiagram.getClasses().size() + loadedDiagram.getRelationships().size();
+        progressBar.setProgress(total == 0 ? 1 : (double) done / total);
+    }
+
+    private void fail(Throwable error) {
+        MainFrame.getCardPane().getChildren().remove(overlay);
+        MainFrame.showHomePanel();
+        System.err.println("Failed to load diagram: " + error);
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText("Failed to load diagram: " + error.getMessage());
+        alert.showAndWait();
+    }
+}
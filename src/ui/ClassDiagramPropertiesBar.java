@@ -1,22 +1,46 @@
 package ui;
 
 import bean.CanvasExporterBean;
+import core.class_diagram.ClassDiagram;
 import core.class_diagram.ClassDiagramCanvasPanel;
+import core.class_diagram.ClassModel;
 import core.class_diagram.Relationship;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
+import javafx.util.StringConverter;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
-public class ClassDiagramPropertiesBar extends VBox {
+public class ClassDiagramPropertiesBar extends VBox implements ClassDiagram.Listener {
 
     private final TreeView<String> classHierarchyTreeView;
     private final TreeView<String> relationshipsTreeView;
     private final Label projectNameLabel;
+    private final ClassDiagramCanvasPanel classDiagramCanvasPanel;
+
+    // The diagram the trees show, and the item of each of its classes and relationships
+    private ClassDiagram diagram;
+    private final Map<ClassModel, TreeItem<String>> classItems = new HashMap<>();
+    private final Map<Relationship, TreeItem<String>> relationshipItems = new HashMap<>();
+    // Changes since the last update; a burst of events is applied once, on the next pulse
+    private final Set<ClassModel> dirtyClasses = new LinkedHashSet<>();
+    // Renamed classes whose members did not change: only their item's text is updated, which keeps a lazily
+    // loaded class from being decoded just to be renamed
+    private final Set<ClassModel> renamedClasses = new LinkedHashSet<>();
+    private final Set<Relationship> dirtyRelationships = new LinkedHashSet<>();
+    private boolean updatePending;
 
     public ClassDiagramPropertiesBar(String projectName, ClassDiagramCanvasPanel classDiagramCanvasPanel) {
+        this.classDiagramCanvasPanel = classDiagramCanvasPanel;
         setSpacing(10);
         setStyle("-fx-background-color: #e8e8e8; -fx-padding: 10px;");
 
@@ -42,12 +66,6 @@ public class ClassDiagramPropertiesBar extends VBox {
         classHierarchyTreeView = new TreeView<>();
         classHierarchyTreeView.setPrefHeight(200);
 
-        populateClassHierarchy(classDiagramCanvasPanel);
-
-        classDiagramCanvasPanel.setOnClassAdded(newClass -> populateClassHierarchy(classDiagramCanvasPanel));
-        classDiagramCanvasPanel.setOnClassRemoved(removedClass -> populateClassHierarchy(classDiagramCanvasPanel));
-        classDiagramCanvasPanel.setOnClassRename((renamedClass, oldName) -> populateClassHierarchy(classDiagramCanvasPanel));
-
         contentBox.getChildren().addAll(classesLabel, classHierarchyTreeView);
 
         // Relationships Section
@@ -55,7 +73,8 @@ public class ClassDiagramPropertiesBar extends VBox {
         relationshipsTreeView = new TreeView<>();
         relationshipsTreeView.setPrefHeight(200);
 
-        populateRelationships(classDiagramCanvasPanel);
+        // The trees follow the diagram's change events from here on
+        showDiagram(classDiagramCanvasPanel.getDiagram());
 
         contentBox.getChildren().addAll(relationshipsLabel, relationshipsTreeView);
         titledPane.setContent(contentBox);
@@ -66,6 +85,25 @@ public class ClassDiagramPropertiesBar extends VBox {
         Label exportLabel = new Label("Export:");
         Button exportToPNGButton = createStyledButton("Export to PNG");
         Button exportToJPGButton = createStyledButton("Export to JPG");
+        // Image exports are rendered in tiles, so large PNGs cost time but not memory; JPGs are held whole until encoded
+        ChoiceBox<Integer> exportScaleChoice = new ChoiceBox<>(FXCollections.observableArrayList(1, 2, 4));
+        exportScaleChoice.setValue(1);
+        exportScaleChoice.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(Integer scale) {
+                return scale == null ? "" : scale + "x";
+            }
+
+            @Override
+            public Integer fromString(String text) {
+                return Integer.valueOf(text.replace("x", ""));
+            }
+        });
+        HBox exportScaleBox = new HBox(8, new Label("Image scale:"), exportScaleChoice);
+        ProgressBar exportProgressBar = new ProgressBar(0);
+        exportProgressBar.setMaxWidth(Double.MAX_VALUE);
+        exportProgressBar.setVisible(false);
+        exportProgressBar.managedProperty().bind(exportProgressBar.visibleProperty());
         Button saveAsJavaCodeButton = createStyledButton("Save as Java Code");
         Button saveAsXMLButton = createStyledButton("Save in Projects");
 
@@ -82,8 +120,8 @@ public class ClassDiagramPropertiesBar extends VBox {
 
 
 
-        exportToPNGButton.setOnAction(event -> CanvasExporterBean.exportToImage(classDiagramCanvasPanel, "png"));
-        exportToJPGButton.setOnAction(event -> CanvasExporterBean.exportToImage(classDiagramCanvasPanel, "jpg"));
+        exportToPNGButton.setOnAction(event -> exportImage("png", exportScaleChoice.getValue(), exportProgressBar, exportToPNGButton, exportToJPGButton));
+        exportToJPGButton.setOnAction(event -> exportImage("jpg", exportScaleChoice.getValue(), exportProgressBar, exportToPNGButton, exportToJPGButton));
         saveAsXMLButton.setOnAction(event -> {
             try {
                 classDiagramCanvasPanel.saveDiagram();
@@ -92,7 +130,7 @@ public class ClassDiagramPropertiesBar extends VBox {
             }
         });
 
-        exportBox.getChildren().addAll(exportLabel, exportToPNGButton, exportToJPGButton, saveAsXMLButton);
+        exportBox.getChildren().addAll(exportLabel, exportScaleBox, exportToPNGButton, exportToJPGButton, exportProgressBar, saveAsXMLButton);
 
         TitledPane exportTitledPane = new TitledPane();
         exportTitledPane.setText("Export");
@@ -104,58 +142,200 @@ public class ClassDiagramPropertiesBar extends VBox {
         getChildren().add(exportTitledPane);
     }
 
-    private void populateClassHierarchy(ClassDiagramCanvasPanel classDiagramCanvasPanel) {
-        TreeItem<String> root = new TreeItem<>("Classes");
-        root.setExpanded(true);
+    // Rebuilds both trees for the diagram and listens to it instead of the previous one
+    private void showDiagram(ClassDiagram newDiagram) {
+        if (diagram != null) {
+            diagram.removeListener(this);
+        }
+        diagram = newDiagram;
+        diagram.addListener(this);
+        dirtyClasses.clear();
+        renamedClasses.clear();
+        dirtyRelationships.clear();
+        classItems.clear();
+        relationshipItems.clear();
+
+        TreeItem<String> classesRoot = new TreeItem<>("Classes");
+        classesRoot.setExpanded(true);
+        for (ClassModel classModel : diagram.getClasses()) {
+            TreeItem<String> classItem = createClassItem(classModel);
+            classItems.put(classModel, classItem);
+            classesRoot.getChildren().add(classItem);
+        }
+        classHierarchyTreeView.setRoot(classesRoot);
+
+        TreeItem<String> relationshipsRoot = new TreeItem<>("Relationships");
+        relationshipsRoot.setExpanded(true);
+        for (Relationship relationship : diagram.getRelationships()) {
+            TreeItem<String> relationshipItem = new TreeItem<>(relationshipText(relationship));
+            relationshipItems.put(relationship, relationshipItem);
+            relationshipsRoot.getChildren().add(relationshipItem);
+        }
+        relationshipsTreeView.setRoot(relationshipsRoot);
+    }
 
-        for (var classPanel : classDiagramCanvasPanel.getDiagram().getClasses()) {
-            TreeItem<String> classItem = new TreeItem<>(classPanel.getClassName());
-            classItem.getChildren().add(new TreeItem<>("Attributes:"));
-            for (var attribute : classPanel.getAttributes()) {
-                classItem.getChildren().add(new TreeItem<>("  - " + attribute.getName() + " : " + attribute.getType()));
-            }
-            classItem.getChildren().add(new TreeItem<>("Methods:"));
-            for (var method : classPanel.getMethods()) {
-                classItem.getChildren().add(new TreeItem<>("  - " + method.getAccess()));
+    private TreeItem<String> createClassItem(ClassModel classModel) {
+        TreeItem<String> classItem = new TreeItem<>(classModel.getName());
+        if (!classModel.hasPendingMembers()) {
+            fillClassItem(classItem, classModel);
+            return classItem;
+        }
+        // A lazily loaded class only has its members decoded once the user expands it
+        TreeItem<String> placeholder = new TreeItem<>("...");
+        classItem.getChildren().add(placeholder);
+        classItem.expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+            if (expanded && classItem.getChildren().size() == 1 && classItem.getChildren().get(0) == placeholder) {
+                fillClassItem(classItem, classModel);
             }
-            root.getChildren().add(classItem);
+        });
+        return classItem;
+    }
+
+    private void fillClassItem(TreeItem<String> classItem, ClassModel classModel) {
+        ArrayList<TreeItem<String>> children = new ArrayList<>();
+        children.add(new TreeItem<>("Attributes:"));
+        for (var attribute : classModel.getAttributes()) {
+            children.add(new TreeItem<>("  - " + attribute.getName() + " : " + attribute.getType()));
         }
+        children.add(new TreeItem<>("Methods:"));
+        for (var method : classModel.getMethods()) {
+            children.add(new TreeItem<>("  - " + method.getAccess()));
+        }
+        classItem.setValue(classModel.getName());
+        classItem.getChildren().setAll(children);
+    }
 
-        classHierarchyTreeView.setRoot(root);
+    private static String relationshipText(Relationship relationship) {
+        return relationship.getStartClass() + " -[" + relationship.getType() + "]-> " + relationship.getEndClass();
     }
 
-    private void populateRelationships(ClassDiagramCanvasPanel classDiagramCanvasPanel) {
-        TreeItem<String> root = new TreeItem<>("Relationships");
-        root.setExpanded(true);
-        System.out.println(classDiagramCanvasPanel.getDiagram().getRelationships()+"  lll");
-        for (Relationship relationship : classDiagramCanvasPanel.getDiagram().getRelationships()) {
-            System.out.println(relationship.getStartClass()+relationship.getEndClass()+ relationship.getType());
-            String relationshipText = relationship.getStartClass() + " -[" + relationship.getType() + "]-> " + relationship.getEndClass();
-            root.getChildren().add(new TreeItem<>(relationshipText));
-        }
+    @Override
+    public void classAdded(ClassModel c) {
+        dirtyClasses.add(c);
+        requestUpdate();
+    }
 
-        relationshipsTreeView.setRoot(root);
+    @Override
+    public void classRemoved(ClassModel c) {
+        dirtyClasses.add(c);
+        requestUpdate();
     }
 
-    public void updateClassHierarchy() {
-        TreeItem<String> root = new TreeItem<>("Classes");
-        root.setExpanded(true);
+    @Override
+    public void classRenamed(ClassModel c, String oldName) {
+        // The relationships' texts name the class too
+        renamedClasses.add(c);
+        dirtyRelationships.addAll(diagram.getRelations_of_a_Diagram(c.getName()));
+        requestUpdate();
+    }
 
-        for (var classPanel : MainFrame.getClassDiagramCanvasPanel().getDiagram().getClasses()) {
-            TreeItem<String> classItem = new TreeItem<>(classPanel.getClassName());
-            classItem.getChildren().add(new TreeItem<>("Attributes:"));
-            for (var attribute : classPanel.getAttributes()) {
-                classItem.getChildren().add(new TreeItem<>("  - " + attribute.getName() + " : " + attribute.getType()));
+    @Override
+    public void classChanged(ClassModel c) {
+        dirtyClasses.add(c);
+        requestUpdate();
+    }
+
+    @Override
+    public void relationshipAdded(Relationship r) {
+        dirtyRelationships.add(r);
+        requestUpdate();
+    }
+
+    @Override
+    public void relationshipRemoved(Relationship r) {
+        dirtyRelationships.add(r);
+        requestUpdate();
+    }
+
+    // Applies the collected changes once on the next pulse, however many events arrive before then
+    private void requestUpdate() {
+        if (updatePending) {
+            return;
+        }
+        updatePending = true;
+        Platform.runLater(this::applyChanges);
+    }
+
+    // Patches only the items of changed classes and relationships, comparing each against the diagram's current state
+    private void applyChanges() {
+        updatePending = false;
+        TreeItem<String> classesRoot = classHierarchyTreeView.getRoot();
+        for (ClassModel classModel : dirtyClasses) {
+            TreeItem<String> classItem = classItems.get(classModel);
+            if (diagram.getClass(classModel.getName()) != classModel) {
+                if (classItem != null) {
+                    classItems.remove(classModel);
+                    classesRoot.getChildren().remove(classItem);
+                }
+            } else if (classItem == null) {
+                classItem = createClassItem(classModel);
+                classItems.put(classModel, classItem);
+                classesRoot.getChildren().add(classItem);
+            } else {
+                fillClassItem(classItem, classModel);
             }
-            classItem.getChildren().add(new TreeItem<>("Methods:"));
-            for (var method : classPanel.getMethods()) {
-                classItem.getChildren().add(new TreeItem<>("  - " + method.getAccess()));
+        }
+        dirtyClasses.clear();
+        for (ClassModel classModel : renamedClasses) {
+            TreeItem<String> classItem = classItems.get(classModel);
+            if (classItem != null && diagram.getClass(classModel.getName()) == classModel) {
+                classItem.setValue(classModel.getName());
+            }
+        }
+        renamedClasses.clear();
+
+        TreeItem<String> relationshipsRoot = relationshipsTreeView.getRoot();
+        for (Relationship relationship : dirtyRelationships) {
+            TreeItem<String> relationshipItem = relationshipItems.get(relationship);
+            if (!diagram.getRelationships().contains(relationship)) {
+                if (relationshipItem != null) {
+                    relationshipItems.remove(relationship);
+                    relationshipsRoot.getChildren().remove(relationshipItem);
+                }
+            } else if (relationshipItem == null) {
+                relationshipItem = new TreeItem<>(relationshipText(relationship));
+                relationshipItems.put(relationship, relationshipItem);
+                relationshipsRoot.getChildren().add(relationshipItem);
+            } else {
+                relationshipItem.setValue(relationshipText(relationship));
             }
-            root.getChildren().add(classItem);
         }
+        dirtyRelationships.clear();
+    }
 
-        classHierarchyTreeView.setRoot(root);
+    // The image is encoded in the background; the export buttons wait for it while the bar shows how far it got.
+    // A JPG is encoded from one image of the whole export, so one too large to hold in memory is refused up front.
+    private void exportImage(String format, int scale, ProgressBar progressBar, Button... exportButtons) {
+        if (format.equals("jpg") && CanvasExporterBean.imagePixels(classDiagramCanvasPanel, scale) > CanvasExporterBean.MAX_JPG_PIXELS) {
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Image Too Large");
+            alert.setHeaderText(null);
+            alert.setContentText("The diagram is too large to export as a JPG at " + scale + "x. Export it as a PNG or at a smaller scale.");
+            alert.showAndWait();
+            return;
+        }
+        boolean started = CanvasExporterBean.exportToImage(classDiagramCanvasPanel, format, scale, progressBar::setProgress, (file, error) -> {
+            progressBar.setVisible(false);
+            for (Button button : exportButtons) {
+                button.setDisable(false);
+            }
+            if (error != null) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Error");
+                alert.setHeaderText(null);
+                alert.setContentText("Failed to export the diagram: " + error.getMessage());
+                alert.showAndWait();
+            }
+        });
+        if (started) {
+            progressBar.setProgress(0);
+            progressBar.setVisible(true);
+            for (Button button : exportButtons) {
+                button.setDisable(true);
+            }
+        }
     }
+
     private Button createStyledButton(String text) {
         Button button = new Button(text);
         button.setStyle(
@@ -184,24 +364,12 @@ public class ClassDiagramPropertiesBar extends VBox {
         ));
         return button;
     }
-    public void updateRelationships() {
-        TreeItem<String> root = new TreeItem<>("Relationships");
-        root.setExpanded(true);
-
-        for (Relationship relationship : MainFrame.getClassDiagramCanvasPanel().getDiagram().getRelationships()) {
-            String relationshipText = relationship.getStartClass() + " -[" + relationship.getType() + "]-> " + relationship.getEndClass();
-            root.getChildren().add(new TreeItem<>(relationshipText));
-        }
-
-        relationshipsTreeView.setRoot(root);
-    }
-
     /**
-     * Updates all sections of the properties bar.
+     * Rebuilds all sections of the properties bar for the diagram currently on the canvas,
+     * e.g. after a diagram has been loaded. Edits to the diagram are picked up without it.
      */
     public void refresh() {
-        updateClassHierarchy();
-        updateRelationships();
+        showDiagram(classDiagramCanvasPanel.getDiagram());
     }
 
     public static String chooseOutputDirectory(Stage stage) {
@@ -2,9 +2,11 @@ package ui;
 
 import core.class_diagram.*;
 import core.usecase_diagram.UseCaseDiagramPanel;
+import data.ClassDiagramJournal;
+import data.DiagramJournal;
 import data.UseCaseDBAO;
+import data.UseCaseDiagramJournal;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -18,16 +20,9 @@ import javafx.scene.layout.*;
 import javafx.geometry.*;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import javafx.stage.Modality;
 
 
-import java.util.ArrayList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 
 public class MainFrame extends Application {
@@ -39,6 +34,7 @@ public class MainFrame extends Application {
     private static ClassDiagramToolbar classDiagramToolbar; // Left-side toolbar
     private static UseCaseDiagramPanel useCaseDiagramPanel;
     private static Pane currentDiagramPanel;
+    private static DiagramJournal journal; // Autosave of the open diagram
     private Stage stage;
     private  static ClassDiagramPropertiesBar propertiesBar;
 
@@ -103,6 +99,15 @@ initializeComponents(primaryStage);
 
         cardPane.getChildren().add(homePanel);
         rootPane.setCenter(cardPane);
+
+        // Stays at the bottom of the window while autosaving fails, so the user knows to save by hand
+        Label autosaveStatus = new Label();
+        autosaveStatus.setMaxWidth(Double.MAX_VALUE);
+        autosaveStatus.setStyle("-fx-background-color: #fdecea; -fx-text-fill: #b00020; -fx-padding: 4 10;");
+        DiagramJournal.setStatusListener(message -> {
+            autosaveStatus.setText(message == null ? "" : message + " - use Save to keep your latest edits.");
+            rootPane.setBottom(message == null ? null : autosaveStatus);
+        });
     }
 
     private void initializeHomePanel() {
@@ -346,6 +351,15 @@ initializeComponents(primaryStage);
 
         // Optionally reset currentDiagramPanel if needed
         currentDiagramPanel = null;
+        setJournal(null);
+    }
+
+    // Replaces the autosave journal; the previous diagram gets a last compaction
+    static void setJournal(DiagramJournal next) {
+        if (journal != null) {
+            journal.close();
+        }
+        journal = next;
     }
 
 
@@ -362,6 +376,7 @@ initializeComponents(primaryStage);
         scrollPane.setPannable(false);                   // Allow panning
         scrollPane.setFitToWidth(false);                // Disable auto-fit for width
         scrollPane.setFitToHeight(false);               // Disable auto-fit for height
+        classDiagramCanvasPanel.trackViewport(scrollPane); // Only classes near the viewport get nodes
 
         // Create a new class diagram
         ClassDiagram classDiagram = new ClassDiagram(name);
@@ -383,6 +398,7 @@ initializeComponents(primaryStage);
         // Make the toolbar visible
         classDiagramToolbar.setVisible(true);
         currentDiagramPanel=classDiagramCanvasPanel;
+        setJournal(ClassDiagramJournal.start(classDiagram, null, false));
 
     }
 
@@ -403,6 +419,7 @@ initializeComponents(primaryStage);
 
         cardPane.getChildren().setAll(useCaseDiagramPanel);
         currentDiagramPanel = useCaseDiagramPanel;
+        setJournal(UseCaseDiagramJournal.start(useCaseDiagramPanel, null, false));
 
     }
 
@@ -478,131 +495,35 @@ initializeComponents(primaryStage);
     public static UseCaseDiagramPanel getUseCaseDiagramPanel() {
         return useCaseDiagramPanel;
     }
-    public static void loadClassDiagram(File file) throws Exception {
+    public static void loadClassDiagram(File file) {
+        setJournal(null); // The loader starts the journal of the new diagram once it is attached
         classDiagramCanvasPanel = new ClassDiagramCanvasPanel();
         classDiagramCanvasPanel.setStyle("-fx-background-color: lightgray;");
         classDiagramCanvasPanel.setPrefSize(2000, 2000);
-        // Parse the XML file
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(file);
-
-        // Get the root element
-        Element root = document.getDocumentElement();
-
-        // Get the diagram name
-        String diagramName = root.getElementsByTagName("Name").item(0).getTextContent();
-
-        // Create a new ClassDiagram
-        ClassDiagram classDiagram = new ClassDiagram(diagramName);
-        System.out.println("Class Name: " + diagramName);
-
-        // Load classes
-        NodeList classNodes = root.getElementsByTagName("Class");
-        for (int i = 0; i < classNodes.getLength(); i++) {
-            Element classElement = (Element) classNodes.item(i);
-            String className = classElement.getAttribute("name");
-
-            boolean isInterface = "interface".equals(classElement.getAttribute("type"));
-            double x = Double.parseDouble(classElement.getAttribute("x"));
-            double y = Double.parseDouble(classElement.getAttribute("y"));
-
-
-            ClassPanel classPanel = new ClassPanel(className, isInterface, x, y, classDiagramCanvasPanel);
-
-            // Load attributes
-            NodeList attributeNodes = ((Element) classElement.getElementsByTagName("Attributes").item(0)).getElementsByTagName("Attribute");
-            for (int j = 0; j < attributeNodes.getLength(); j++) {
-                Element attributeElement = (Element) attributeNodes.item(j);
-                String attributeName = attributeElement.getAttribute("name");
-                String attributeType = attributeElement.getAttribute("type");
-                String attributeAccess = attributeElement.getAttribute("access");
-
-                Attribute attribute = new Attribute(attributeName, attributeType, attributeAccess);
-                classPanel.addAttribute(attribute);
-            }
-
-            // Load methods
-            NodeList methodNodes = ((Element) classElement.getElementsByTagName("Methods").item(0)).getElementsByTagName("Method");
-            for (int j = 0; j < methodNodes.getLength(); j++) {
-                Element methodElement = (Element) methodNodes.item(j);
-                String methodName = methodElement.getAttribute("name");
-                String returnType = methodElement.getAttribute("returnType");
-                String access = methodElement.getAttribute("access");
-
-                ArrayList<String> parameters = new ArrayList<>();
-                NodeList parameterNodes = methodElement.getElementsByTagName("Parameter");
-                for (int k = 0; k < parameterNodes.getLength(); k++) {
-                    parameters.add(parameterNodes.item(k).getTextContent());
-                }
-
-                Method method = new Method(methodName, returnType, parameters, access);
-                classPanel.addMethod(method);
-            }
-
-            classDiagram.addClass(classPanel);
-        }
-
-        // Load relationships
-        NodeList relationshipNodes = root.getElementsByTagName("Relationship");
-        for (int i = 0; i < relationshipNodes.getLength(); i++) {
-            Element relationshipElement = (Element) relationshipNodes.item(i);
-            String startClass = relationshipElement.getAttribute("startClass");
-            String endClass = relationshipElement.getAttribute("endClass");
-            String type = relationshipElement.getAttribute("type");
-
-            Relationship relationship = new Relationship(startClass, endClass, type);
-            classDiagram.addRelationship(relationship);
-        }
-
 
         ScrollPane scrollPane = new ScrollPane();
         scrollPane.setContent(classDiagramCanvasPanel); // Set the canvas as content
         scrollPane.setPannable(false);                   // Allow panning
         scrollPane.setFitToWidth(false);                // Disable auto-fit for width
         scrollPane.setFitToHeight(false);
-        // Initialize the canvas panel with the loaded diagram
-        ClassDiagram c_diagram = new ClassDiagram(diagramName);
-        classDiagramCanvasPanel.setCurrentDiagram(c_diagram);
+        classDiagramCanvasPanel.trackViewport(scrollPane); // Only classes near the viewport get nodes
 
         // Update the UI
         classDiagramToolbar = new ClassDiagramToolbar(classDiagramCanvasPanel);
-        SplitPane splitPane = new SplitPane();
-
-// Add the toolbar and the diagram canvas to the SplitPane
-        splitPane.getItems().addAll(classDiagramToolbar, scrollPane);
-        splitPane.setDividerPositions(0.15); // Set initial width of the toolbar to 20%
-
-        rootPane.setCenter(splitPane); // Replace rootPane's center with the SplitPane
-
-
+        rootPane.setLeft(classDiagramToolbar);
+        rootPane.setRight(null);
         cardPane.getChildren().setAll(scrollPane);
-
-        propertiesBar = new ClassDiagramPropertiesBar(diagramName, classDiagramCanvasPanel);
-        rootPane.setRight(propertiesBar);
-
-        for (ClassPanel c : classDiagram.getClasses()) {
-            ClassPanel cp = new ClassPanel(c.getClassName(), c.isInterface(), c.getX(), c.getY(), classDiagramCanvasPanel);
-            cp.setAttributes(c.getAttributes());
-            cp.setMethods(c.getMethods());
-            classDiagramCanvasPanel.addClassToCanvas(cp, c.getX(), c.getY());
-
-
-        }
-        Platform.runLater(() -> {
-            for (Relationship r : classDiagram.getRelationships()) {
-                classDiagramCanvasPanel.setRelationship(r.getType(), r.getStartClass(), r.getEndClass());
-            }
-            propertiesBar.refresh();
-        });
-
         currentDiagramPanel=classDiagramCanvasPanel;
 
+        // Parsing and attaching of the classes continue in the background
+        new ClassDiagramLoader(file, classDiagramCanvasPanel).start();
     }
     static void loadUseCaseDiagram(File file) throws Exception {
         UseCaseDiagramPanel loadedDiagram = UseCaseDBAO.loadUseCaseDiagram(file);
 
         if (loadedDiagram != null) {
+            boolean recovered = UseCaseDiagramJournal.recover(loadedDiagram, file) > 0;
+            setJournal(UseCaseDiagramJournal.start(loadedDiagram, file, recovered));
             useCaseDiagramPanel = loadedDiagram;
             useCaseDiagramPanel.setStyle("-fx-background-color: lightgray;");
             UsecaseToolbar useCaseToolbar = new UsecaseToolbar(useCaseDiagramPanel);
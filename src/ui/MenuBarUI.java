@@ -3,21 +3,41 @@ package ui;
 import core.class_diagram.ClassDiagramCanvasPanel;
 import core.usecase_diagram.UseCaseDiagramPanel;
 import data.ClassDiagramDBAO;
+import data.DiagramSearchIndex;
+import data.ProjectLibrary;
 import data.UseCaseDBAO;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class MenuBarUI extends MenuBar {
-    private static final String USE_CASE_FOLDER = "User Diagrams/Use Case Diagrams";
-    private static final String CLASS_DIAGRAM_FOLDER = "User Diagrams/Class Diagrams";
+    public static final String USE_CASE_FOLDER = "User Diagrams/Use Case Diagrams";
+    public static final String CLASS_DIAGRAM_FOLDER = "User Diagrams/Class Diagrams";
+    private static final int SEARCH_RESULT_LIMIT = 500;
+    private static ProjectLibrary library;
     private static final String MENU_BAR_STYLE =
             "-fx-background-color: #FFFFFF; " +
                     "-fx-padding: 5; "
@@ -39,6 +59,7 @@ public class MenuBarUI extends MenuBar {
     public MenuBarUI(Stage parentStage) {
         // Apply styles to the MenuBar
         this.setStyle(MENU_BAR_STYLE);
+        getLibrary();
 
         // File Menu
         Menu fileMenu = createStyledMenu("File");
@@ -61,10 +82,22 @@ public class MenuBarUI extends MenuBar {
         MenuItem saveFile = createStyledMenuItem("Save");
         saveFile.setOnAction(event -> saveCurrentDiagram());
 
+        MenuItem saveCompact = createStyledMenuItem("Save Compact");
+        saveCompact.setOnAction(event -> saveCurrentDiagramCompact());
+
         MenuItem exitApp = createStyledMenuItem("Exit");
         exitApp.setOnAction(e -> parentStage.close());
 
-        fileMenu.getItems().addAll(newFileMenu,  openFile, saveFile, new SeparatorMenuItem(), exitApp);
+        MenuItem saveIncremental = createStyledMenuItem("Save Incremental");
+        saveIncremental.setOnAction(event -> saveCurrentDiagramIncremental());
+
+        MenuItem saveArchive = createStyledMenuItem("Save Archive");
+        saveArchive.setOnAction(event -> saveCurrentDiagramArchive());
+
+        MenuItem findInDiagrams = createStyledMenuItem("Find in Diagrams...");
+        findInDiagrams.setOnAction(event -> showSearchWindow(parentStage));
+
+        fileMenu.getItems().addAll(newFileMenu,  openFile, findInDiagrams, saveFile, saveCompact, saveIncremental, saveArchive, new SeparatorMenuItem(), exitApp);
 
         // Edit Menu
         Menu editMenu = createStyledMenu("Edit");
@@ -124,6 +157,50 @@ public class MenuBarUI extends MenuBar {
         }
     }
 
+    // Saves a class diagram in the binary format, which is smaller and faster to load than the XML
+    private void saveCurrentDiagramCompact() {
+        try {
+            Pane currentPanel = MainFrame.getCurrentDiagramPanel();
+            if (currentPanel instanceof ClassDiagramCanvasPanel) {
+                ClassDiagramDBAO.saveDiagramBinary(MainFrame.getClassDiagramCanvasPanel().getDiagram());
+            } else {
+                showErrorDialog("Error", "Only class diagrams can be saved in the compact format.");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Saves a class diagram as a folder of per-class records, so saving again after an edit rewrites only the changed classes
+    private void saveCurrentDiagramIncremental() {
+        try {
+            Pane currentPanel = MainFrame.getCurrentDiagramPanel();
+            if (currentPanel instanceof ClassDiagramCanvasPanel) {
+                ClassDiagramDBAO.saveDiagramChunked(MainFrame.getClassDiagramCanvasPanel().getDiagram());
+            } else {
+                showErrorDialog("Error", "Only class diagrams can be saved incrementally.");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Saves the diagram as a compressed .umlz archive with a thumbnail and metadata
+    private void saveCurrentDiagramArchive() {
+        try {
+            Pane currentPanel = MainFrame.getCurrentDiagramPanel();
+            if (currentPanel instanceof ClassDiagramCanvasPanel) {
+                ClassDiagramDBAO.saveDiagramArchive(MainFrame.getClassDiagramCanvasPanel().getDiagram());
+            } else if (currentPanel instanceof UseCaseDiagramPanel) {
+                UseCaseDBAO.saveUseCaseDiagramArchive((UseCaseDiagramPanel) currentPanel);
+            } else {
+                throw new UnsupportedOperationException("Unsupported diagram type.");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void undoAction() {
         Pane currentPanel = MainFrame.getCurrentDiagramPanel();
         if (currentPanel instanceof UndoableDiagramPanel) {
@@ -156,6 +233,16 @@ public class MenuBarUI extends MenuBar {
         alert.showAndWait();
     }
 
+    // Index of the saved diagrams, started with the first menu bar so it is current by the time the picker opens
+    static ProjectLibrary getLibrary() {
+        if (library == null) {
+            library = new ProjectLibrary(new File(CLASS_DIAGRAM_FOLDER), new File(USE_CASE_FOLDER));
+            library.start();
+        }
+        return library;
+    }
+
+    // Lists the diagrams from the project index, so opening and filtering never touch the diagram files
     static void showLoadDiagramWindow(Stage parentStage) {
         Stage loadStage = new Stage();
         loadStage.setTitle("Load Diagram");
@@ -166,42 +253,90 @@ public class MenuBarUI extends MenuBar {
         layout.setPadding(new Insets(10));
         layout.setAlignment(Pos.CENTER);
 
+        TextField filterField = new TextField();
+        filterField.setPromptText("Type to filter by name...");
+
         Label classHeading = new Label("Class Diagrams:");
         classHeading.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
 
-        ListView<String> classFileList = new ListView<>();
-        populateFileList(classFileList, CLASS_DIAGRAM_FOLDER);
+        ProjectLibrary library = getLibrary();
+        Map<String, Image> thumbnails = new HashMap<>();
+        ObservableList<ProjectLibrary.Entry> classEntries = FXCollections.observableArrayList();
+        ObservableList<ProjectLibrary.Entry> useCaseEntries = FXCollections.observableArrayList();
+        FilteredList<ProjectLibrary.Entry> filteredClassEntries = new FilteredList<>(classEntries);
+        FilteredList<ProjectLibrary.Entry> filteredUseCaseEntries = new FilteredList<>(useCaseEntries);
+
+        ListView<ProjectLibrary.Entry> classFileList = new ListView<>(filteredClassEntries);
+        classFileList.setCellFactory(list -> new LibraryEntryCell(library, thumbnails));
 
         Label useCaseHeading = new Label("Use Case Diagrams:");
         useCaseHeading.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
 
-        ListView<String> useCaseFileList = new ListView<>();
-        populateFileList(useCaseFileList, USE_CASE_FOLDER);
+        ListView<ProjectLibrary.Entry> useCaseFileList = new ListView<>(filteredUseCaseEntries);
+        useCaseFileList.setCellFactory(list -> new LibraryEntryCell(library, thumbnails));
+
+        // Filled from the index now and again whenever the watcher sees a diagram change
+        Runnable refresh = () -> {
+            List<ProjectLibrary.Entry> classes = new ArrayList<>();
+            List<ProjectLibrary.Entry> useCases = new ArrayList<>();
+            for (ProjectLibrary.Entry entry : library.getEntries()) {
+                (ProjectLibrary.CLASS.equals(entry.type) ? classes : useCases).add(entry);
+            }
+            classEntries.setAll(classes);
+            useCaseEntries.setAll(useCases);
+        };
+        refresh.run();
+        library.addListener(refresh);
+        loadStage.setOnHidden(e -> library.removeListener(refresh));
+
+        filterField.textProperty().addListener((observable, oldValue, newValue) -> {
+            String term = newValue.trim().toLowerCase();
+            Predicate<ProjectLibrary.Entry> matches = term.isEmpty() ? null
+                    : entry -> entry.name.toLowerCase().contains(term) || entry.fileName.toLowerCase().contains(term);
+            filteredClassEntries.setPredicate(matches);
+            filteredUseCaseEntries.setPredicate(matches);
+        });
 
         Button openButton = new Button("Open");
         openButton.setDisable(true);
 
         // Handle selection between lists
         classFileList.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
-            useCaseFileList.getSelectionModel().clearSelection();
-            openButton.setDisable(newValue == null);
+            if (newValue != null) {
+                useCaseFileList.getSelectionModel().clearSelection();
+            }
+            openButton.setDisable(newValue == null && useCaseFileList.getSelectionModel().isEmpty());
         });
 
         useCaseFileList.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
-            classFileList.getSelectionModel().clearSelection();
-            openButton.setDisable(newValue == null);
+            if (newValue != null) {
+                classFileList.getSelectionModel().clearSelection();
+            }
+            openButton.setDisable(newValue == null && classFileList.getSelectionModel().isEmpty());
+        });
+
+        // Enter in the filter opens the first match
+        filterField.setOnAction(e -> {
+            if (classFileList.getSelectionModel().isEmpty() && useCaseFileList.getSelectionModel().isEmpty()) {
+                if (!filteredClassEntries.isEmpty()) {
+                    classFileList.getSelectionModel().selectFirst();
+                } else if (!filteredUseCaseEntries.isEmpty()) {
+                    useCaseFileList.getSelectionModel().selectFirst();
+                }
+            }
+            openButton.fire();
         });
 
         openButton.setOnAction(e -> {
-            String selectedFile = classFileList.getSelectionModel().getSelectedItem();
-            boolean isClassDiagram = selectedFile != null;
+            ProjectLibrary.Entry selected = classFileList.getSelectionModel().getSelectedItem();
+            boolean isClassDiagram = selected != null;
             if (!isClassDiagram) {
-                selectedFile = useCaseFileList.getSelectionModel().getSelectedItem();
+                selected = useCaseFileList.getSelectionModel().getSelectedItem();
             }
 
-            if (selectedFile != null) {
+            if (selected != null) {
                 try {
-                    File file = new File((isClassDiagram ? CLASS_DIAGRAM_FOLDER : USE_CASE_FOLDER) + File.separator + selectedFile);
+                    File file = library.getFile(selected);
 
                     if (isClassDiagram) {
                         MainFrame.loadClassDiagram(file);
@@ -218,11 +353,122 @@ public class MenuBarUI extends MenuBar {
             }
         });
 
-        layout.getChildren().addAll(classHeading, classFileList, useCaseHeading, useCaseFileList, openButton);
+        layout.getChildren().addAll(filterField, classHeading, classFileList, useCaseHeading, useCaseFileList, openButton);
 
-        Scene scene = new Scene(layout, 400, 400);
+        Scene scene = new Scene(layout, 480, 560);
         loadStage.setScene(scene);
         loadStage.show();
+        filterField.requestFocus();
+    }
+
+    // Finds classes, attributes, methods and parameters across all saved class diagrams as you type
+    static void showSearchWindow(Stage parentStage) {
+        Stage searchStage = new Stage();
+        searchStage.setTitle("Find in Diagrams");
+        searchStage.initModality(Modality.APPLICATION_MODAL);
+        searchStage.initOwner(parentStage);
+
+        VBox layout = new VBox(10);
+        layout.setPadding(new Insets(10));
+
+        getLibrary(); // Keeps the search index current with the diagram folders
+        TextField queryField = new TextField();
+        queryField.setPromptText("Class, attribute, method or parameter name...");
+        Label statusLabel = new Label();
+        statusLabel.setStyle("-fx-text-fill: #6a6a6a; -fx-font-size: 11px;");
+
+        ListView<DiagramSearchIndex.Hit> resultList = new ListView<>();
+        resultList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(DiagramSearchIndex.Hit hit, boolean empty) {
+                super.updateItem(hit, empty);
+                if (empty || hit == null) {
+                    setText(null);
+                    return;
+                }
+                String element = DiagramSearchIndex.CLASS.equals(hit.kind) ? hit.name : hit.className + "." + hit.name;
+                setText(hit.kind + "  " + element + (hit.detail == null ? "" : " : " + hit.detail)
+                        + "    in " + hit.diagramName + " (" + hit.fileName + ")");
+            }
+        });
+        VBox.setVgrow(resultList, Priority.ALWAYS);
+
+        queryField.textProperty().addListener((observable, oldValue, newValue) -> {
+            long start = System.nanoTime();
+            List<DiagramSearchIndex.Hit> hits = DiagramSearchIndex.search(newValue, SEARCH_RESULT_LIMIT);
+            double millis = (System.nanoTime() - start) / 1e6;
+            resultList.getItems().setAll(hits);
+            statusLabel.setText(newValue.isBlank() ? ""
+                    : (hits.size() == SEARCH_RESULT_LIMIT ? "First " : "") + hits.size() + " matches in " + String.format("%.1f ms", millis));
+        });
+
+        Button openButton = new Button("Open Diagram");
+        openButton.disableProperty().bind(resultList.getSelectionModel().selectedItemProperty().isNull());
+        openButton.setOnAction(e -> {
+            DiagramSearchIndex.Hit hit = resultList.getSelectionModel().getSelectedItem();
+            if (hit != null) {
+                MainFrame.loadClassDiagram(new File(CLASS_DIAGRAM_FOLDER, hit.fileName));
+                searchStage.close();
+            }
+        });
+        resultList.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) {
+                openButton.fire();
+            }
+        });
+        queryField.setOnAction(e -> {
+            if (resultList.getSelectionModel().isEmpty()) {
+                resultList.getSelectionModel().selectFirst();
+            }
+            openButton.fire();
+        });
+
+        layout.getChildren().addAll(queryField, statusLabel, resultList, openButton);
+
+        Scene scene = new Scene(layout, 640, 480);
+        searchStage.setScene(scene);
+        searchStage.show();
+        queryField.requestFocus();
+    }
+
+    // A diagram in the Load Diagram lists: its thumbnail, name, size and when it was saved
+    private static class LibraryEntryCell extends ListCell<ProjectLibrary.Entry> {
+        private static final DateTimeFormatter MODIFIED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private final ProjectLibrary library;
+        private final Map<String, Image> thumbnails; // Shared by the window's cells, so scrolling doesn't reload them
+        private final ImageView thumbnail = new ImageView();
+        private final Label name = new Label();
+        private final Label details = new Label();
+        private final HBox content = new HBox(8, thumbnail, new VBox(2, name, details));
+
+        LibraryEntryCell(ProjectLibrary library, Map<String, Image> thumbnails) {
+            this.library = library;
+            this.thumbnails = thumbnails;
+            thumbnail.setFitWidth(64);
+            thumbnail.setFitHeight(48);
+            thumbnail.setPreserveRatio(true);
+            name.setStyle("-fx-font-weight: bold;");
+            details.setStyle("-fx-text-fill: #6a6a6a; -fx-font-size: 11px;");
+            content.setAlignment(Pos.CENTER_LEFT);
+        }
+
+        @Override
+        protected void updateItem(ProjectLibrary.Entry entry, boolean empty) {
+            super.updateItem(entry, empty);
+            if (empty || entry == null) {
+                setGraphic(null);
+                return;
+            }
+            name.setText(entry.name);
+            String size = entry.count < 0 ? "unreadable"
+                    : entry.count + (ProjectLibrary.CLASS.equals(entry.type) ? " classes" : " elements");
+            String modified = MODIFIED_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.modified), ZoneId.systemDefault()));
+            details.setText(entry.fileName + " \u00b7 " + size + " \u00b7 " + modified);
+            File thumbnailFile = library.getThumbnail(entry);
+            thumbnail.setImage(thumbnailFile == null ? null : thumbnails.computeIfAbsent(thumbnailFile.getPath() + "@" + entry.modified,
+                    key -> new Image(thumbnailFile.toURI().toString(), 64, 48, true, true, true)));
+            setGraphic(content);
+        }
     }
 
     private static void showErrorDialog(String error, String s) {
@@ -233,17 +479,4 @@ public class MenuBarUI extends MenuBar {
         alert.showAndWait();
     }
 
-    private static void populateFileList(ListView<String> fileList, String folderPath) {
-        File folder = new File(folderPath);
-        if (folder.exists() && folder.isDirectory()) {
-            File[] files = folder.listFiles((dir, name) -> name.endsWith(".xml"));
-            if (files != null) {
-                for (File file : files) {
-                    fileList.getItems().add(file.getName());
-                }
-            }
-        } else {
-            System.out.println("The folder '" + folderPath + "' does not exist.");
-        }
-    }
 }
@@ -0,0 +1,145 @@
+package bean;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandHistoryBeanTest {
+    // Appends to a shared log; its size can be changed after it is recorded, like a command holding a live model
+    private static class LoggedCommand implements Command {
+        final String name;
+        final List<String> log;
+        long size;
+        boolean mergeable;
+
+        LoggedCommand(String name, List<String> log, long size) {
+            this.name = name;
+            this.log = log;
+            this.size = size;
+        }
+
+        @Override
+        public void execute() {
+            log.add("do " + name);
+        }
+
+        @Override
+        public void undo() {
+            log.add("undo " + name);
+        }
+
+        @Override
+        public long estimatedSize() {
+            return size;
+        }
+
+        @Override
+        public boolean mergeWith(Command next) {
+            if (mergeable && next instanceof LoggedCommand other) {
+                size += other.size;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Test
+    void oldestEntriesAreDroppedOnceTheBudgetIsExceeded() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean(250);
+        for (int i = 1; i <= 4; i++) {
+            history.record(new LoggedCommand("c" + i, log, 100));
+        }
+
+        assertEquals(200, history.getUsedMemory());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo()); // c1 and c2 were evicted
+        assertEquals(List.of("undo c4", "undo c3"), log);
+    }
+
+    @Test
+    void theNewestEntryIsKeptEvenWhenItAloneExceedsTheBudget() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean(100);
+        history.record(new LoggedCommand("small", log, 50));
+        history.record(new LoggedCommand("huge", log, 500));
+
+        assertEquals(500, history.getUsedMemory());
+        assertTrue(history.undo());
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void redoEntriesAreEvictedBeforeUndoEntries() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean(300);
+        history.record(new LoggedCommand("a", log, 100));
+        history.record(new LoggedCommand("b", log, 100));
+        history.record(new LoggedCommand("c", log, 100));
+        history.undo();
+        history.undo();
+
+        history.setMemoryBudget(200);
+        assertTrue(history.canRedo()); // b was the newest redo entry, c the oldest
+        assertEquals(200, history.getUsedMemory());
+        assertTrue(history.redo());
+        assertFalse(history.redo());
+        assertEquals(List.of("undo c", "undo b", "do b"), log);
+    }
+
+    @Test
+    void usedMemoryUsesTheSizeAtRecordTime() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean(10_000);
+        LoggedCommand growing = new LoggedCommand("grows", log, 100);
+        history.record(growing);
+        growing.size = 5_000; // e.g. the removed class got more members afterwards
+
+        history.undo();
+        history.record(new LoggedCommand("next", log, 10)); // Clears the redo entry
+        assertEquals(10, history.getUsedMemory());
+        history.clear();
+        assertEquals(0, history.getUsedMemory());
+    }
+
+    @Test
+    void mergingUpdatesTheRecordedSize() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean(10_000);
+        LoggedCommand drag = new LoggedCommand("drag", log, 100);
+        drag.mergeable = true;
+        history.record(drag);
+        history.record(new LoggedCommand("step", log, 30));
+        history.record(new LoggedCommand("step", log, 30));
+
+        assertEquals(160, history.getUsedMemory());
+        history.undo();
+        assertFalse(history.canUndo());
+        history.record(new LoggedCommand("other", log, 40));
+        assertEquals(40, history.getUsedMemory());
+    }
+
+    @Test
+    void editsMadeWhileApplyingAreNotRecorded() {
+        List<String> log = new ArrayList<>();
+        CommandHistoryBean history = new CommandHistoryBean();
+        history.record(new LoggedCommand("a", log, 10) {
+            @Override
+            public void undo() {
+                super.undo();
+                history.record(new LoggedCommand("nested", log, 10));
+            }
+        });
+
+        history.undo();
+        assertTrue(history.canRedo());
+        assertFalse(history.canUndo());
+        assertEquals(10, history.getUsedMemory());
+    }
+}
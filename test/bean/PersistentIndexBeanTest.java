@@ -0,0 +1,95 @@
+package bean;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentIndexBeanTest {
+    @Test
+    void keysOnEveryLevelOfTheTrieAreFound() {
+        PersistentIndexBean<String> index = PersistentIndexBean.empty();
+        int[] keys = {0, 31, 32, 1023, 1024, 32767, 32768, 1 << 20, Integer.MAX_VALUE};
+        for (int key : keys) {
+            index = index.with(key, "v" + key);
+        }
+
+        assertEquals(keys.length, index.size());
+        for (int key : keys) {
+            assertEquals("v" + key, index.get(key));
+        }
+        assertNull(index.get(1));
+        assertNull(index.get(-1));
+        assertEquals(List.of("v0", "v31", "v32", "v1023", "v1024", "v32767", "v32768", "v1048576", "v2147483647"),
+                values(index));
+    }
+
+    @Test
+    void olderVersionsAreUnchanged() {
+        PersistentIndexBean<String> v1 = PersistentIndexBean.<String>empty().with(1, "a").with(2, "b");
+        PersistentIndexBean<String> v2 = v1.with(1, "A").with(5000, "c");
+        PersistentIndexBean<String> v3 = v2.without(2);
+
+        assertEquals(List.of("a", "b"), values(v1));
+        assertEquals(List.of("A", "b", "c"), values(v2));
+        assertEquals(List.of("A", "c"), values(v3));
+        assertEquals(2, v1.size());
+        assertEquals(3, v2.size());
+        assertEquals(2, v3.size());
+    }
+
+    @Test
+    void removingAbsentOrLastKeys() {
+        PersistentIndexBean<String> one = PersistentIndexBean.<String>empty().with(70, "x");
+
+        assertSame(one, one.without(71));
+        assertTrue(one.without(70).isEmpty());
+        assertTrue(values(one.without(70)).isEmpty());
+        assertTrue(one.with(70, null).isEmpty()); // A null value removes the key
+        assertThrows(IllegalArgumentException.class, () -> one.with(-1, "y"));
+    }
+
+    @Test
+    void matchesATreeMapUnderRandomEdits() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentIndexBean<Integer> index = PersistentIndexBean.empty();
+        List<PersistentIndexBean<Integer>> versions = new ArrayList<>();
+        List<TreeMap<Integer, Integer>> expectedVersions = new ArrayList<>();
+        for (int step = 0; step < 5000; step++) {
+            int key = random.nextInt(step < 2500 ? 2000 : 100_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                index = index.without(key);
+            } else {
+                expected.put(key, step);
+                index = index.with(key, step);
+            }
+            if (step % 500 == 0) {
+                versions.add(index);
+                expectedVersions.add(new TreeMap<>(expected));
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        assertEquals(new ArrayList<>(expected.values()), values(index));
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(new ArrayList<>(expectedVersions.get(i).values()), values(versions.get(i)));
+            assertEquals(expectedVersions.get(i).size(), versions.get(i).size());
+        }
+    }
+
+    private static <V> List<V> values(PersistentIndexBean<V> index) {
+        List<V> values = new ArrayList<>();
+        index.forEach(values::add);
+        return values;
+    }
+}
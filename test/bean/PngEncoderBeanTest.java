@@ -0,0 +1,92 @@
+package bean;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PngEncoderBeanTest {
+    @Test
+    void imageIoDecodesWhatWasEncoded() throws Exception {
+        int width = 300, height = 200;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x ^ y) & 0xFF);
+            }
+        }
+
+        BufferedImage decoded = roundTrip(pixels, width, height, 64);
+
+        assertPixels(pixels, width, height, decoded);
+    }
+
+    @Test
+    void noiseSpreadsOverSeveralIdatChunks() throws Exception {
+        // Random pixels barely compress, so the data is several times the 64 KiB chunk size
+        int width = 400, height = 300;
+        int[] pixels = new Random(3).ints(width * height).toArray();
+
+        BufferedImage decoded = roundTrip(pixels, width, height, 77);
+
+        assertPixels(pixels, width, height, decoded);
+    }
+
+    @Test
+    void alphaIsDropped() throws Exception {
+        int[] pixels = {0x00123456, 0x80ABCDEF};
+
+        BufferedImage decoded = roundTrip(pixels, 2, 1, 1);
+
+        assertEquals(0xFF123456, decoded.getRGB(0, 0));
+        assertEquals(0xFFABCDEF, decoded.getRGB(1, 0));
+    }
+
+    @Test
+    void theRowCountMustMatchTheHeight() throws Exception {
+        try (PngEncoderBean png = new PngEncoderBean(new ByteArrayOutputStream(), 4, 2)) {
+            png.writeRows(new int[4], 0, 4, 1);
+
+            assertThrows(IllegalStateException.class, png::finish);
+            assertThrows(IllegalStateException.class, () -> png.writeRows(new int[8], 0, 4, 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new PngEncoderBean(new ByteArrayOutputStream(), 0, 5));
+    }
+
+    // Hands the rows over in bands read from a wider buffer, as the canvas exporter does
+    private static BufferedImage roundTrip(int[] pixels, int width, int height, int band) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PngEncoderBean png = new PngEncoderBean(bytes, width, height)) {
+            int stride = width + 5;
+            for (int top = 0; top < height; top += band) {
+                int rows = Math.min(band, height - top);
+                int[] buffer = new int[3 + rows * stride];
+                for (int y = 0; y < rows; y++) {
+                    System.arraycopy(pixels, (top + y) * width, buffer, 3 + y * stride, width);
+                }
+                png.writeRows(buffer, 3, stride, rows);
+            }
+            png.finish();
+        }
+        return ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static void assertPixels(int[] expected, int width, int height, BufferedImage decoded) {
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = expected[y * width + x] | 0xFF000000;
+                if (decoded.getRGB(x, y) != pixel) {
+                    assertEquals(Integer.toHexString(pixel), Integer.toHexString(decoded.getRGB(x, y)), "pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package bean;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialIndexBeanTest {
+    @Test
+    void itemAtFindsTheBoxContainingThePoint() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>(100);
+        index.put("a", 10, 10, 50, 50);
+        index.put("b", 300, 300, 50, 50);
+
+        assertEquals("a", index.itemAt(30, 30));
+        assertEquals("b", index.itemAt(350, 350)); // Edges count as inside
+        assertNull(index.itemAt(100, 100));
+        assertNull(index.itemAt(-500, 30));
+    }
+
+    @Test
+    void overlappingItemsResolveToTheEarliestAdded() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>(100);
+        index.put("first", 0, 0, 200, 200);
+        index.put("second", 50, 50, 200, 200);
+
+        assertEquals("first", index.itemAt(150, 150));
+        index.put("first", 0, 0, 200, 200); // Moving an item keeps its place in the order
+        assertEquals("first", index.itemAt(150, 150));
+        index.remove("first");
+        assertEquals("second", index.itemAt(150, 150));
+    }
+
+    @Test
+    void boxesSpanningCellsAndNegativeCoordinatesAreFound() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>(100);
+        index.put("wide", -250, -50, 500, 100);
+
+        assertEquals("wide", index.itemAt(-240, 0));
+        assertEquals("wide", index.itemAt(0, 0));
+        assertEquals("wide", index.itemAt(240, 40));
+        assertNull(index.itemAt(260, 0));
+    }
+
+    @Test
+    void moveReindexesAndIgnoresUnknownItems() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>(100);
+        index.put("a", 0, 0, 50, 50);
+        index.move("a", 1000, 1000, 50, 50);
+        index.move("ghost", 0, 0, 50, 50);
+
+        assertNull(index.itemAt(25, 25));
+        assertEquals("a", index.itemAt(1025, 1025));
+        assertFalse(index.contains("ghost"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void itemsInReturnsEachIntersectingItemOnce() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>(100);
+        index.put("big", 0, 0, 450, 450); // Stored in 25 cells
+        index.put("inside", 120, 120, 10, 10);
+        index.put("outside", 1000, 1000, 10, 10);
+
+        List<String> found = index.itemsIn(50, 50, 300, 300);
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(List.of("big", "inside")));
+        assertEquals(List.of("outside"), index.itemsIn(995, 995, 10, 10));
+        assertTrue(index.itemsIn(600, 0, 100, 100).isEmpty());
+    }
+
+    @Test
+    void clearAndRemoveEmptyTheIndex() {
+        SpatialIndexBean<String> index = new SpatialIndexBean<>();
+        index.put("a", 0, 0, 10, 10);
+        index.put("b", 0, 0, 10, 10);
+        index.remove("a");
+        index.remove("a");
+        assertEquals(1, index.size());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.itemAt(5, 5));
+        assertTrue(index.itemsIn(0, 0, 10, 10).isEmpty());
+    }
+}
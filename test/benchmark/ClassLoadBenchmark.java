@@ -0,0 +1,106 @@
+package benchmark;
+
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassDiagramCanvasPanel;
+import core.class_diagram.ClassModel;
+import core.class_diagram.ClassPanel;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import ui.MainFrame;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+// Compares building the class panels of a loaded diagram the way loading used to (a panel filled member by member
+// while parsing, then a second panel copied from it with setAttributes/setMethods) with building one panel per class
+// from its ClassModel. Reports the nodes created, bytes allocated and time for the whole diagram.
+// Needs the JavaFX toolkit; without a display, run it with Monocle's headless platform
+// (-Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw).
+public class ClassLoadBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.startup(() -> {
+            try {
+                run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+        Platform.exit();
+    }
+
+    private static void run() {
+        ClassDiagramCanvasPanel canvas = new ClassDiagramCanvasPanel();
+        MainFrame.setClassDiagramCanvasPanel(canvas); // ClassPanel reads the drawing mode from it
+        canvas.setCurrentDiagram(new ClassDiagram("Bench")); // Member edits report to the canvas diagram
+        for (int classCount : new int[]{300, 3000}) {
+            ClassDiagram diagram = GeneratedDiagrams.make("Bench", classCount, 1);
+            long[] twoPass = measure(() -> {
+                long nodes = 0;
+                for (ClassModel c : diagram.getClasses()) {
+                    ClassPanel parsed = new ClassPanel(c.getName(), c.isInterface(), c.getX(), c.getY(), canvas);
+                    c.getAttributes().forEach(parsed::addAttribute);
+                    c.getMethods().forEach(parsed::addMethod);
+                    ClassPanel shown = new ClassPanel(c.getName(), c.isInterface(), c.getX(), c.getY(), canvas);
+                    shown.setAttributes(parsed.getAttributes());
+                    shown.setMethods(parsed.getMethods());
+                    nodes += countNodes(parsed) + countNodes(shown);
+                }
+                return nodes;
+            });
+            long[] onePass = measure(() -> {
+                long nodes = 0;
+                for (ClassModel c : diagram.getClasses()) {
+                    nodes += countNodes(new ClassPanel(copy(c), canvas));
+                }
+                return nodes;
+            });
+            System.out.printf("%,6d classes  two panels: %,9d nodes, %,13d B, %7.1f ms | one panel: %,9d nodes, %,13d B, %7.1f ms%n",
+                    classCount, twoPass[0], twoPass[1], twoPass[2] / 1e6, onePass[0], onePass[1], onePass[2] / 1e6);
+        }
+    }
+
+    // A detached copy, so building the panel does not touch the generated diagram
+    private static ClassModel copy(ClassModel c) {
+        ClassModel model = new ClassModel(c.getName(), c.isInterface(), c.getX(), c.getY());
+        model.getAttributes().addAll(c.getAttributes());
+        model.getMethods().addAll(c.getMethods());
+        return model;
+    }
+
+    private static long countNodes(Node node) {
+        long count = 1;
+        if (node instanceof Parent parent) {
+            for (Node child : parent.getChildrenUnmodifiable()) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    private interface Build {
+        long run(); // Returns the number of nodes built
+    }
+
+    // Nodes built, fewest allocated bytes and best time over RUNS builds, after as many warm-up builds
+    private static long[] measure(Build build) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long nodes = 0, bestBytes = Long.MAX_VALUE, bestTime = Long.MAX_VALUE;
+        for (int run = 0; run < 2 * RUNS; run++) {
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            nodes = build.run();
+            long time = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            if (run >= RUNS) {
+                bestBytes = Math.min(bestBytes, bytes);
+                bestTime = Math.min(bestTime, time);
+            }
+        }
+        return new long[]{nodes, bestBytes, bestTime};
+    }
+}
@@ -0,0 +1,69 @@
+package benchmark;
+
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import data.ClassDiagramBinaryFormat;
+import data.ClassDiagramDBAO;
+import data.DiagramArchive;
+
+import java.io.File;
+import java.nio.file.Files;
+
+// Compares the file formats a class diagram can be saved in, on generated diagrams: time per save through
+// ClassDiagramDBAO.writeFile, file size, time to open the file, time to open it and decode every class's members
+// (the binary format decodes them lazily), and whether the file reads back to the same diagram.
+// Run with the working directory somewhere scratch files may go.
+public class FormatBenchmark {
+    private static final int RUNS = 7;
+    private static final String[] EXTENSIONS = {".xml", ClassDiagramBinaryFormat.EXTENSION, DiagramArchive.EXTENSION};
+
+    public static void main(String[] args) throws Exception {
+        File folder = Files.createTempDirectory(new File(".").toPath(), "formats").toFile();
+        try {
+            for (int classCount : new int[]{300, 3000, 20000}) {
+                ClassDiagram diagram = GeneratedDiagrams.make("Bench", classCount, 1);
+                String expected = GeneratedDiagrams.describe(diagram);
+                for (String extension : EXTENSIONS) {
+                    File file = new File(folder, "Bench" + extension);
+                    long save = bestTime(() -> ClassDiagramDBAO.writeFile(diagram, file));
+                    long open = bestTime(() -> ClassDiagramDBAO.readDiagram(file));
+                    long decode = bestTime(() -> decodeAll(ClassDiagramDBAO.readDiagram(file)));
+                    boolean same = GeneratedDiagrams.describe(ClassDiagramDBAO.readDiagram(file)).equals(expected);
+
+                    System.out.printf("%,6d classes %-5s save %7.1f ms | %,11d B | open %7.1f ms | open + members %7.1f ms | same diagram: %b%n",
+                            classCount, extension, save / 1e6, file.length(), open / 1e6, decode / 1e6, same);
+                    file.delete();
+                }
+            }
+        } finally {
+            for (File file : folder.listFiles()) {
+                file.delete();
+            }
+            folder.delete();
+        }
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    // Best time over RUNS runs, after as many warm-up runs
+    private static long bestTime(Run task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 2 * RUNS; run++) {
+            long start = System.nanoTime();
+            task.run();
+            if (run >= RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    private static void decodeAll(ClassDiagram diagram) {
+        for (ClassModel c : diagram.getClasses()) {
+            c.getAttributes();
+            c.getMethods();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic class diagrams for the benchmarks and tests: classes with five attributes and five two-parameter methods
+// each, scattered over a canvas that grows with the diagram, linked by a random tree of relationships of mixed types
+public class GeneratedDiagrams {
+    private static final String[] TYPES = {"association", "inheritance", "aggregation", "composition"};
+
+    public static ClassDiagram make(String name, int classCount, long seed) {
+        ClassDiagram diagram = new ClassDiagram(name);
+        Random random = new Random(seed);
+        double extent = Math.max(2000, Math.sqrt(classCount) * 400);
+        for (int i = 0; i < classCount; i++) {
+            ClassModel c = new ClassModel("Class" + i, i % 10 == 0, random.nextDouble() * extent, random.nextDouble() * extent);
+            for (int a = 0; a < 5; a++) {
+                c.attributes.add(new Attribute("field" + a, a % 2 == 0 ? "int" : "String", "private"));
+            }
+            for (int m = 0; m < 5; m++) {
+                c.methods.add(new Method("method" + m, m % 2 == 0 ? "void" : "String",
+                        new ArrayList<>(List.of("int count", "String label")), "public"));
+            }
+            diagram.addClass(c);
+        }
+        for (int i = 1; i < classCount; i++) {
+            diagram.addRelationship(new Relationship("Class" + i, "Class" + random.nextInt(i), TYPES[i % TYPES.length]));
+        }
+        return diagram;
+    }
+
+    // Everything a save has to keep, one line per element, so two diagrams can be compared as strings
+    public static String describe(ClassDiagram diagram) {
+        StringBuilder text = new StringBuilder(diagram.getName()).append('\n');
+        for (ClassModel c : diagram.getClasses()) {
+            text.append(c.getName()).append(' ').append(c.isInterface()).append(' ').append(c.getX()).append(' ').append(c.getY()).append('\n');
+            for (Attribute attribute : c.getAttributes()) {
+                text.append("  ").append(attribute.getAccess()).append(' ').append(attribute.getType()).append(' ').append(attribute.getName()).append('\n');
+            }
+            for (Method method : c.getMethods()) {
+                text.append("  ").append(method.access).append(' ').append(method.returnType).append(' ').append(method.name)
+                        .append(method.parameters).append('\n');
+            }
+        }
+        for (Relationship r : diagram.getRelationships()) {
+            text.append(r.getStartClass()).append(" -").append(r.getType()).append("-> ").append(r.getEndClass()).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package benchmark;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+import data.ClassDiagramDBAO;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+
+// Compares the streaming XMLStreamWriter save with the DOM + indenting Transformer save it replaced, on generated
+// diagrams: time per save, the heap still in use halfway through writing the file (after a GC; the diagram itself is
+// live before the save starts and not counted), and whether both files read back to the same diagram.
+// Run with the working directory somewhere scratch files may go.
+public class XmlSaveBenchmark {
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        for (int classCount : new int[]{300, 3000, 20000}) {
+            ClassDiagram diagram = GeneratedDiagrams.make("Bench", classCount, 1);
+            long dom = bestTime(() -> writeDocument(diagram, OutputStream.nullOutputStream()));
+            long stax = bestTime(() -> ClassDiagramDBAO.writeDiagram(diagram, OutputStream.nullOutputStream()));
+
+            ByteArrayOutputStream domBytes = new ByteArrayOutputStream();
+            long domHeld = heldMidway(out -> writeDocument(diagram, out));
+            long staxHeld = heldMidway(out -> ClassDiagramDBAO.writeDiagram(diagram, out));
+            writeDocument(diagram, domBytes);
+            ByteArrayOutputStream staxBytes = new ByteArrayOutputStream();
+            ClassDiagramDBAO.writeDiagram(diagram, staxBytes);
+            boolean same = read(domBytes.toByteArray()).equals(read(staxBytes.toByteArray()))
+                    && read(staxBytes.toByteArray()).equals(GeneratedDiagrams.describe(diagram));
+
+            System.out.printf("%,6d classes  DOM %7.1f ms, %,12d B held | StAX %7.1f ms, %,12d B held | %,d B file, same diagram: %b%n",
+                    classCount, dom / 1e6, domHeld, stax / 1e6, staxHeld, staxBytes.size(), same);
+        }
+    }
+
+    private interface Save {
+        void run() throws Exception;
+    }
+
+    private interface SaveTo {
+        void run(OutputStream out) throws Exception;
+    }
+
+    // Best time over RUNS saves, after as many warm-up saves
+    private static long bestTime(Save save) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 2 * RUNS; run++) {
+            long start = System.nanoTime();
+            save.run();
+            if (run >= RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    // Heap in use once half of the file has been written, less the heap in use before the save
+    private static long heldMidway(SaveTo save) throws Exception {
+        ByteArrayOutputStream sized = new ByteArrayOutputStream();
+        save.run(sized);
+        long half = sized.size() / 2;
+        sized = null;
+        long before = usedAfterGc();
+        long[] held = {0};
+        save.run(new OutputStream() {
+            long written;
+
+            @Override
+            public void write(int b) {
+                write(new byte[1], 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                if (written < half && written + length >= half) {
+                    held[0] = usedAfterGc() - before;
+                }
+                written += length;
+            }
+        });
+        return held[0];
+    }
+
+    private static long usedAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static String read(byte[] xml) throws Exception {
+        File file = File.createTempFile("bench", ".xml");
+        try {
+            Files.write(file.toPath(), xml);
+            return GeneratedDiagrams.describe(ClassDiagramDBAO.readDiagram(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // The DOM writer saveDiagram used before the streaming one: builds the whole document, then serializes it
+    static void writeDocument(ClassDiagram diagram, OutputStream out) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element rootElement = document.createElement("Diagram");
+        document.appendChild(rootElement);
+
+        Element nameElement = document.createElement("Name");
+        nameElement.appendChild(document.createTextNode(diagram.getName()));
+        rootElement.appendChild(nameElement);
+
+        Element classesElement = document.createElement("Classes");
+        for (ClassModel classModel : diagram.getClasses()) {
+            Element classElement = document.createElement("Class");
+            classElement.setAttribute("name", classModel.getName());
+            classElement.setAttribute("type", classModel.isInterface() ? "interface" : "class");
+            classElement.setAttribute("x", String.valueOf(classModel.getX()));
+            classElement.setAttribute("y", String.valueOf(classModel.getY()));
+
+            Element attributesElement = document.createElement("Attributes");
+            for (Attribute attribute : classModel.getAttributes()) {
+                Element attributeElement = document.createElement("Attribute");
+                attributeElement.setAttribute("name", attribute.getName());
+                attributeElement.setAttribute("type", attribute.getType());
+                attributeElement.setAttribute("access", attribute.getAccess());
+                attributesElement.appendChild(attributeElement);
+            }
+            classElement.appendChild(attributesElement);
+
+            Element methodsElement = document.createElement("Methods");
+            for (Method method : classModel.getMethods()) {
+                Element methodElement = document.createElement("Method");
+                methodElement.setAttribute("name", method.name);
+                methodElement.setAttribute("returnType", method.returnType);
+                methodElement.setAttribute("access", method.access);
+                Element parametersElement = document.createElement("Parameters");
+                for (String parameter : method.parameters) {
+                    Element parameterElement = document.createElement("Parameter");
+                    parameterElement.appendChild(document.createTextNode(parameter));
+                    parametersElement.appendChild(parameterElement);
+                }
+                methodElement.appendChild(parametersElement);
+                methodsElement.appendChild(methodElement);
+            }
+            classElement.appendChild(methodsElement);
+            classesElement.appendChild(classElement);
+        }
+        rootElement.appendChild(classesElement);
+
+        Element relationshipsElement = document.createElement("Relationships");
+        for (Relationship relationship : diagram.getRelationships()) {
+            Element relationshipElement = document.createElement("Relationship");
+            relationshipElement.setAttribute("startClass", relationship.getStartClass());
+            relationshipElement.setAttribute("endClass", relationship.getEndClass());
+            relationshipElement.setAttribute("type", relationship.getType());
+            relationshipsElement.appendChild(relationshipElement);
+        }
+        rootElement.appendChild(relationshipsElement);
+
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.transform(new DOMSource(document), new StreamResult(out));
+    }
+}
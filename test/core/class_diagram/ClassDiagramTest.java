@@ -0,0 +1,139 @@
+package core.class_diagram;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassDiagramTest {
+    @Test
+    void addClassRejectsATakenName() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel first = new ClassModel("Shape", false, 0, 0);
+        diagram.addClass(first);
+
+        assertThrows(IllegalArgumentException.class, () -> diagram.addClass(new ClassModel("Shape", true, 50, 50)));
+        assertEquals(1, diagram.getClasses().size());
+        assertSame(first, diagram.getClass("Shape"));
+    }
+
+    @Test
+    void renameMovesTheIndexAndRelationshipEnds() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel shape = new ClassModel("Shape", false, 0, 0);
+        diagram.addClass(shape);
+        diagram.addClass(new ClassModel("Circle", false, 300, 0));
+        diagram.addRelationship(new Relationship("Circle", "Shape", "inheritance"));
+        diagram.addRelationship(new Relationship("Shape", "Shape", "association"));
+
+        diagram.renameClass(shape, "Figure");
+
+        assertEquals("Figure", shape.getName());
+        assertFalse(diagram.containsClass("Shape"));
+        assertSame(shape, diagram.getClass("Figure"));
+        assertEquals("Figure", diagram.getOutgoing("Circle").get(0).getEndClass());
+        assertEquals(2, diagram.getIncoming("Figure").size());
+        assertTrue(diagram.getOutgoing("Shape").isEmpty());
+    }
+
+    @Test
+    void renameToATakenNameIsRejected() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel shape = new ClassModel("Shape", false, 0, 0);
+        diagram.addClass(shape);
+        diagram.addClass(new ClassModel("Circle", false, 300, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> diagram.renameClass(shape, "Circle"));
+        assertEquals("Shape", shape.getName());
+        assertSame(shape, diagram.getClass("Shape"));
+        diagram.renameClass(shape, "Shape"); // Renaming to its own name is a no-op
+        assertSame(shape, diagram.getClass("Shape"));
+    }
+
+    @Test
+    void onlyTheSavedBoxDirtiesAClass() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel shape = new ClassModel("Shape", false, 0, 0);
+        diagram.addClass(shape);
+        diagram.markSaved(null, 1, 1);
+        List<String> moves = new ArrayList<>();
+        diagram.addListener(new ClassDiagram.Listener() {
+            @Override
+            public void classMoved(ClassModel c) {
+                moves.add(c.getName());
+            }
+        });
+
+        shape.setSize(240, 180); // Laid out, e.g. after being scrolled into view
+        assertTrue(diagram.getDirtyClasses().isEmpty());
+        assertTrue(moves.isEmpty());
+        assertSame(shape, diagram.getClassAt(230, 170));
+
+        shape.setPreferredSize(300, -1);
+        shape.setPosition(10, 0);
+        assertEquals(List.of("Shape", "Shape"), moves);
+        assertTrue(diagram.getDirtyClasses().contains(shape));
+    }
+
+    @Test
+    void aSnapshotKeepsTheSizeTheUserResizedTo() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel shape = new ClassModel("Shape", false, 0, 0);
+        diagram.addClass(shape);
+        diagram.snapshot();
+        shape.setPreferredSize(300, 120);
+
+        ClassModel copy = diagram.snapshot().toDiagram().getClass("Shape");
+
+        assertEquals(300, copy.getPrefWidth());
+        assertEquals(120, copy.getPrefHeight());
+    }
+
+    @Test
+    void deserializedDiagramRebuildsItsIndexes() throws Exception {
+        ClassDiagram diagram = new ClassDiagram("D");
+        diagram.addClass(new ClassModel("Shape", false, 0, 0));
+        diagram.addClass(new ClassModel("Circle", false, 300, 0));
+        diagram.addRelationship(new Relationship("Circle", "Shape", "inheritance"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(diagram);
+        }
+        ClassDiagram copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (ClassDiagram) in.readObject();
+        }
+
+        assertSame(copy.getClasses().get(1), copy.getClass("Circle"));
+        assertSame(copy.getClass("Circle"), copy.getClassAt(310, 10));
+        List<Relationship> incoming = copy.getIncoming("Shape", "inheritance");
+        assertEquals(1, incoming.size());
+        assertSame(incoming.get(0), copy.getOutgoing("Circle").get(0));
+
+        // Moves still reach the copy's grid, and removing a class never saved in chunks records nothing to delete
+        copy.getClass("Circle").setPosition(600, 0);
+        assertSame(copy.getClass("Circle"), copy.getClassAt(610, 10));
+        copy.removeClass("Shape");
+        assertTrue(copy.getRemovedClasses().isEmpty());
+    }
+
+    @Test
+    void theClassListIsReadOnly() {
+        ClassDiagram diagram = new ClassDiagram("D");
+        diagram.addClass(new ClassModel("Shape", false, 0, 0));
+
+        assertThrows(UnsupportedOperationException.class, () -> diagram.getClasses().add(new ClassModel("Circle", false, 0, 0)));
+        assertThrows(UnsupportedOperationException.class, () -> diagram.getClasses().clear());
+    }
+}
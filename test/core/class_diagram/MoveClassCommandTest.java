@@ -0,0 +1,19 @@
+package core.class_diagram;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoveClassCommandTest {
+    @Test
+    void onlyTheStepsOfOneDragMerge() {
+        Object drag = new Object();
+        MoveClassCommand first = new MoveClassCommand(null, "Shape", drag, 0, 0, -1, -1, 10, 0, -1, -1);
+
+        assertTrue(first.mergeWith(new MoveClassCommand(null, "Shape", drag, 0, 0, -1, -1, 20, 0, -1, -1)));
+        assertFalse(first.mergeWith(new MoveClassCommand(null, "Circle", drag, 0, 0, -1, -1, 20, 0, -1, -1)));
+        // A second drag starting from the box the first one was undone to is its own entry
+        assertFalse(first.mergeWith(new MoveClassCommand(null, "Shape", new Object(), 0, 0, -1, -1, 30, 0, -1, -1)));
+    }
+}
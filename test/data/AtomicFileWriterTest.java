@@ -0,0 +1,116 @@
+package data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AtomicFileWriterTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void openReadsBackExactlyWhatWasWritten() throws Exception {
+        File file = new File(folder, "Shapes.umlb");
+        byte[] body = {'U', 'M', 'L', 'B', 0, 1, 2, (byte) 0xff};
+        AtomicFileWriter.write(file, out -> out.write(body));
+
+        AtomicFileWriter.verify(file);
+        try (InputStream in = AtomicFileWriter.open(file)) {
+            assertArrayEquals(body, Arrays.copyOf(in.readAllBytes(), body.length));
+        }
+        assertEquals(1, folder.listFiles().length); // No temp file is left behind
+    }
+
+    @Test
+    void aChangedByteIsDetected() throws Exception {
+        File file = new File(folder, "Shapes.xml");
+        AtomicFileWriter.write(file, out -> out.write("<Diagram><Name>Shapes</Name></Diagram>".getBytes(StandardCharsets.UTF_8)));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 1);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> AtomicFileWriter.verify(file));
+        assertEquals("Shapes.xml is corrupt: checksum mismatch", e.getMessage());
+    }
+
+    @Test
+    void aTruncatedFileIsNotMistakenForALegacyOne() throws Exception {
+        File file = new File(folder, "Shapes.xml");
+        AtomicFileWriter.write(file, out -> out.write(new byte[1000]));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        assertThrows(IOException.class, () -> AtomicFileWriter.verify(file));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(40); // Shorter than marker and trailer together
+        }
+        assertThrows(IOException.class, () -> AtomicFileWriter.verify(file));
+    }
+
+    @Test
+    void legacyXmlWithoutMarkerIsAccepted() throws Exception {
+        File file = new File(folder, "Old.xml");
+        Files.writeString(file.toPath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Diagram><Name>Old</Name></Diagram>\n");
+
+        assertDoesNotThrow(() -> AtomicFileWriter.verify(file));
+        try (InputStream in = AtomicFileWriter.open(file)) {
+            assertEquals('<', in.read()); // Nothing is skipped
+        }
+    }
+
+    @Test
+    void unchecksummedFilesHaveNoFraming() throws Exception {
+        File file = new File(folder, "Shapes.png");
+        byte[] body = {1, 2, 3};
+        AtomicFileWriter.write(file, out -> out.write(body), false);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void aFailedWriteKeepsTheOldFile() throws Exception {
+        File file = new File(folder, "Shapes.xml");
+        AtomicFileWriter.write(file, out -> out.write("old".getBytes(StandardCharsets.UTF_8)));
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        assertThrows(IllegalStateException.class, () -> AtomicFileWriter.write(file, out -> {
+            out.write("new".getBytes(StandardCharsets.UTF_8));
+            throw new IllegalStateException("disk full");
+        }));
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+        assertEquals(1, folder.listFiles().length);
+    }
+
+    @Test
+    void replacingAFileKeepsItsPermissions() throws Exception {
+        assumeTrue(folder.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        File file = new File(folder, "Shapes.xml");
+        AtomicFileWriter.write(file, out -> out.write('a'));
+        Set<PosixFilePermission> shared = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(file.toPath(), shared);
+
+        AtomicFileWriter.write(file, out -> out.write('b'));
+
+        assertEquals(shared, Files.getPosixFilePermissions(file.toPath()));
+    }
+}
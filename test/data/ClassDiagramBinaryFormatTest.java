@@ -0,0 +1,144 @@
+package data;
+
+import benchmark.GeneratedDiagrams;
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassDiagramSnapshot;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassDiagramBinaryFormatTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void aGeneratedDiagramReadsBackUnchanged() throws Exception {
+        ClassDiagram diagram = GeneratedDiagrams.make("Generated", 500, 7);
+
+        ClassDiagram copy = ClassDiagramBinaryFormat.read(ByteBuffer.wrap(bytes(diagram)), () -> false);
+
+        assertEquals(GeneratedDiagrams.describe(diagram), GeneratedDiagrams.describe(copy));
+    }
+
+    @Test
+    void membersAreDecodedOnFirstUseWithSizesAndOddStrings() throws Exception {
+        ClassDiagram diagram = new ClassDiagram("Ünïcode ✓");
+        ClassModel shape = new ClassModel("Shape", true, -12.5, 1e6);
+        shape.setPreferredSize(321.25, -1);
+        shape.getMethods().add(new Method("draw", "void", new ArrayList<>(List.of("Graphics\tg", "")), "public"));
+        diagram.addClass(shape);
+        ClassModel empty = new ClassModel("Empty", false, 0, 0);
+        diagram.addClass(empty);
+        ClassModel circle = new ClassModel("Circle", false, 400, 0);
+        circle.getAttributes().add(new Attribute("radius", "double", "private"));
+        diagram.addClass(circle);
+        diagram.addRelationship(new Relationship("Circle", "Shape", "inheritance"));
+
+        ClassDiagram copy = ClassDiagramBinaryFormat.read(ByteBuffer.wrap(bytes(diagram)), () -> false);
+
+        ClassModel copiedCircle = copy.getClass("Circle");
+        assertTrue(copiedCircle.hasPendingMembers());
+        assertEquals("radius", copiedCircle.getAttributes().get(0).getName());
+        assertFalse(copiedCircle.hasPendingMembers());
+        assertTrue(copy.getClass("Shape").hasPendingMembers()); // Untouched classes stay undecoded
+        assertEquals(321.25, copy.getClass("Shape").getPrefWidth());
+        assertEquals(-1, copy.getClass("Shape").getPrefHeight());
+        assertEquals(GeneratedDiagrams.describe(diagram), GeneratedDiagrams.describe(copy));
+    }
+
+    @Test
+    void snapshotsDecodeTheirOwnCopyOfLazyMembers() throws Exception {
+        ClassDiagram diagram = new ClassDiagram("D");
+        ClassModel circle = new ClassModel("Circle", false, 400, 0);
+        circle.getAttributes().add(new Attribute("radius", "double", "private"));
+        diagram.addClass(circle);
+        ClassDiagram copy = ClassDiagramBinaryFormat.read(ByteBuffer.wrap(bytes(diagram)), () -> false);
+
+        ClassDiagramSnapshot snapshot = copy.snapshot();
+        ClassModel rebuilt = snapshot.toDiagram().getClass("Circle");
+
+        assertTrue(rebuilt.hasPendingMembers());
+        assertEquals("radius", snapshot.getClasses().iterator().next().getAttributes().get(0).getName());
+        assertEquals("radius", rebuilt.getAttributes().get(0).getName());
+        assertTrue(copy.getClass("Circle").hasPendingMembers()); // The live class is never decoded for them
+    }
+
+    @Test
+    void savedFilesAreRecognizedAndRead() throws Exception {
+        ClassDiagram diagram = GeneratedDiagrams.make("Saved", 50, 3);
+        File file = new File(folder, "Saved" + ClassDiagramBinaryFormat.EXTENSION);
+        ClassDiagramDBAO.writeFile(diagram, file);
+
+        assertTrue(ClassDiagramBinaryFormat.isBinary(file));
+        assertEquals(GeneratedDiagrams.describe(diagram), GeneratedDiagrams.describe(ClassDiagramDBAO.readDiagram(file)));
+
+        File xml = new File(folder, "Saved.xml");
+        ClassDiagramDBAO.writeFile(diagram, xml);
+        assertFalse(ClassDiagramBinaryFormat.isBinary(xml));
+    }
+
+    @Test
+    void aDamagedMemberRecordFailsEveryTimeItIsAskedFor() throws Exception {
+        ClassDiagram diagram = new ClassDiagram("D");
+        diagram.addClass(new ClassModel("Shape", false, 0, 0));
+        ClassModel circle = new ClassModel("Circle", false, 300, 0);
+        circle.getAttributes().add(new Attribute("radius", "double", "private"));
+        diagram.addClass(circle);
+        byte[] bytes = bytes(diagram);
+
+        // Cut off the end of the last record, the way a legacy file without a checksum could be
+        ClassDiagram copy = ClassDiagramBinaryFormat.read(ByteBuffer.wrap(bytes, 0, bytes.length - 2), () -> false);
+
+        assertTrue(copy.getClass("Shape").getAttributes().isEmpty());
+        ClassModel damaged = copy.getClass("Circle");
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, damaged::getAttributes);
+        assertTrue(e.getMessage().contains("members of Circle"));
+        assertThrows(UncheckedIOException.class, damaged::getMethods);
+        assertTrue(damaged.attributes.isEmpty());
+    }
+
+    @Test
+    void aCorruptFileIsRejectedBeforeItIsParsed() throws Exception {
+        File file = new File(folder, "Saved" + ClassDiagramBinaryFormat.EXTENSION);
+        ClassDiagramDBAO.writeFile(GeneratedDiagrams.make("Saved", 20, 3), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 100); // Inside the member records, which are only decoded later
+            int b = raf.read();
+            raf.seek(raf.length() - 100);
+            raf.write(b ^ 0x40);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> ClassDiagramDBAO.readDiagram(file));
+        assertEquals(file.getName() + " is corrupt: checksum mismatch", e.getMessage());
+    }
+
+    @Test
+    void otherContentIsRejected() {
+        assertThrows(IOException.class, () -> ClassDiagramBinaryFormat.read(ByteBuffer.wrap(new byte[]{'<', '?', 'x', 'm', 'l'}), () -> false));
+        assertThrows(IOException.class, () -> ClassDiagramBinaryFormat.read(ByteBuffer.wrap(new byte[]{'U', 'M', 'L', 'B', 9}), () -> false));
+    }
+
+    private static byte[] bytes(ClassDiagram diagram) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClassDiagramBinaryFormat.write(diagram, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,119 @@
+package data;
+
+import benchmark.GeneratedDiagrams;
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Relationship;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassDiagramChunkStoreTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void aSecondSaveWritesOnlyTheChangedClasses() throws Exception {
+        File directory = new File(folder, "Shapes" + ClassDiagramChunkStore.EXTENSION);
+        ClassDiagram diagram = GeneratedDiagrams.make("Shapes", 40, 5);
+        assertEquals(40, ClassDiagramChunkStore.save(diagram, directory).getRecordCount());
+
+        diagram.getClass("Class3").setPosition(-50, 75);
+        diagram.getClass("Class7").getAttributes().add(new Attribute("extra", "long", "public"));
+        diagram.onClassChanged(diagram.getClass("Class7"));
+        diagram.addRelationship(new Relationship("Class9", "Class3", "association"));
+        Set<String> changed = new HashSet<>(Set.of("Class3", "Class7", "Class9"));
+        for (Relationship r : diagram.getIncoming("Class12")) {
+            changed.add(r.getStartClass()); // Their records store the relationships being removed
+        }
+        changed.remove("Class12");
+        diagram.removeClass("Class12"); // As the canvas does
+        diagram.removeRelations_of_a_Diagram("Class12");
+        ClassDiagramChunkStore.PendingSave delta = ClassDiagramChunkStore.save(diagram, directory);
+
+        assertEquals(changed.size(), delta.getRecordCount());
+        assertEquals(lines(diagram), lines(ClassDiagramChunkStore.read(directory, () -> false)));
+        assertEquals(39, recordFiles(directory)); // Superseded and removed records are gone
+    }
+
+    @Test
+    void aLoadedDiagramSavesBackAsADelta() throws Exception {
+        File directory = new File(folder, "Shapes" + ClassDiagramChunkStore.EXTENSION);
+        ClassDiagramChunkStore.save(GeneratedDiagrams.make("Shapes", 10, 2), directory);
+
+        ClassDiagram loaded = ClassDiagramChunkStore.read(directory, () -> false);
+        assertTrue(ClassDiagramChunkStore.isChunked(directory));
+        assertTrue(loaded.getDirtyClasses().isEmpty());
+        loaded.addClass(new ClassModel("Added", false, 0, 0));
+
+        assertEquals(1, ClassDiagramChunkStore.save(loaded, directory).getRecordCount());
+        assertEquals(GeneratedDiagrams.describe(loaded), GeneratedDiagrams.describe(ClassDiagramChunkStore.read(directory, () -> false)));
+    }
+
+    @Test
+    void savingToAnotherFolderWritesEverything() throws Exception {
+        ClassDiagram diagram = GeneratedDiagrams.make("Shapes", 10, 2);
+        ClassDiagramChunkStore.save(diagram, new File(folder, "A" + ClassDiagramChunkStore.EXTENSION));
+        diagram.getClass("Class1").setPosition(1, 1);
+
+        File other = new File(folder, "B" + ClassDiagramChunkStore.EXTENSION);
+        assertEquals(10, ClassDiagramChunkStore.save(diagram, other).getRecordCount());
+        assertEquals(GeneratedDiagrams.describe(diagram), GeneratedDiagrams.describe(ClassDiagramChunkStore.read(other, () -> false)));
+    }
+
+    @Test
+    void savesToOneFolderAreWrittenInOrderButOtherFoldersDontWait() throws Exception {
+        File first = new File(folder, "First" + ClassDiagramChunkStore.EXTENSION);
+        File second = new File(folder, "Second" + ClassDiagramChunkStore.EXTENSION);
+        ClassDiagram a = GeneratedDiagrams.make("A", 5, 1);
+        ClassDiagram b = GeneratedDiagrams.make("B", 5, 1);
+        ClassDiagramChunkStore.PendingSave firstFull = ClassDiagramChunkStore.prepare(a, first);
+        a.getClass("Class0").setPosition(9, 9);
+        ClassDiagramChunkStore.PendingSave firstDelta = ClassDiagramChunkStore.prepare(a, first);
+        ClassDiagramChunkStore.PendingSave secondFull = ClassDiagramChunkStore.prepare(b, second);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), secondFull::write);
+
+        CompletableFuture<Void> delta = CompletableFuture.runAsync(() -> {
+            try {
+                firstDelta.write();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(delta.isDone()); // Its manifest needs the full save's records
+        firstFull.write();
+        delta.get(5, TimeUnit.SECONDS);
+        assertEquals(GeneratedDiagrams.describe(a), GeneratedDiagrams.describe(ClassDiagramChunkStore.read(first, () -> false)));
+    }
+
+    // Relationships are stored with their start class, so they read back in class order rather than in the order drawn
+    private static List<String> lines(ClassDiagram diagram) {
+        List<String> lines = GeneratedDiagrams.describe(diagram).lines().toList();
+        int classLines = lines.size() - diagram.getRelationships().size();
+        List<String> relationships = lines.subList(classLines, lines.size()).stream().sorted().toList();
+        List<String> result = new ArrayList<>(lines.subList(0, classLines));
+        result.addAll(relationships);
+        return result;
+    }
+
+    private static long recordFiles(File directory) {
+        return Arrays.stream(directory.listFiles()).filter(file -> file.getName().endsWith(".rec")).count();
+    }
+}
@@ -0,0 +1,101 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import core.class_diagram.Relationship;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassDiagramJournalTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void fieldsSurviveEncodingWithSeparatorsAndEscapes() {
+        String[] fields = {"C", "a\tb", "line\nbreak", "back\\slash", "", "cr\r", "\\t literal"};
+        String record = DiagramJournal.encode(fields);
+
+        assertFalse(record.contains("\n"));
+        assertArrayEquals(fields, DiagramJournal.decode(record));
+        assertArrayEquals(new String[]{""}, DiagramJournal.decode(DiagramJournal.encode("")));
+    }
+
+    @Test
+    void aRecordCutOffByACrashIsDropped() throws Exception {
+        File xml = new File(folder, "Shapes.xml");
+        Files.writeString(DiagramJournal.journalFor(xml).toPath(),
+                DiagramJournal.encode("X", "A") + "\n" + DiagramJournal.encode("X", "B") + "\n" + "N\tHal", StandardCharsets.UTF_8);
+
+        List<String[]> records = DiagramJournal.readRecords(xml);
+        assertEquals(2, records.size());
+        assertArrayEquals(new String[]{"X", "B"}, records.get(1));
+        assertTrue(DiagramJournal.readRecords(new File(folder, "Missing.xml")).isEmpty());
+    }
+
+    @Test
+    void journaledEditsReplayOntoTheSavedDiagram() throws Exception {
+        ClassDiagram saved = new ClassDiagram("Shapes");
+        saved.addClass(new ClassModel("Shape", true, 0, 0));
+        saved.addClass(new ClassModel("Old", false, 500, 0));
+        saved.addClass(new ClassModel("Square", false, 0, 300));
+        saved.addRelationship(new Relationship("Old", "Shape", "inheritance"));
+        saved.snapshot(); // As autosave compaction does
+        saved.markSaved(null, 1, 4);
+
+        // Edits made after the save, as the journal encodes them
+        ClassModel circle = new ClassModel("Circle", false, 100, 200);
+        circle.setPreferredSize(260, -1);
+        circle.getAttributes().add(new Attribute("radius", "double", "private"));
+        circle.getMethods().add(new Method("area", "double", new ArrayList<>(List.of("int\tscale", "String unit")), "public"));
+        List<String[]> edits = List.of(
+                ClassDiagramJournal.classRecord(circle),
+                new String[]{"R", "Circle", "Shape", "inheritance"},
+                new String[]{"N", "Shape", "Figure"},
+                new String[]{"M", "Circle", "150.5", "220", "300", "-1"},
+                new String[]{"M", "Square", "0.0", "300.0", "180", "-1"}, // Resized only
+                new String[]{"r", "Old", "Figure", "inheritance"},
+                new String[]{"X", "Old"},
+                new String[]{"?", "unknown record"});
+        StringBuilder journal = new StringBuilder();
+        for (String[] edit : edits) {
+            journal.append(DiagramJournal.encode(edit)).append('\n');
+        }
+        File xml = new File(folder, "Shapes.xml");
+        Files.writeString(DiagramJournal.journalFor(xml).toPath(), journal, StandardCharsets.UTF_8);
+
+        assertEquals(7, ClassDiagramJournal.recover(saved, xml)); // The unknown record is skipped
+
+        assertNull(saved.getClass("Old"));
+        assertNull(saved.getClass("Shape"));
+        ClassModel replayed = saved.getClass("Circle");
+        assertEquals(150.5, replayed.getX());
+        assertEquals(220, replayed.getY());
+        assertEquals(300, replayed.getPrefWidth());
+        assertEquals("radius", replayed.getAttributes().get(0).getName());
+        assertEquals("private", replayed.getAttributes().get(0).getAccess());
+        assertEquals(List.of("int\tscale", "String unit"), replayed.getMethods().get(0).parameters);
+        assertEquals(1, saved.getRelationships().size());
+        Relationship relationship = saved.getOutgoing("Circle").get(0);
+        assertEquals("Figure", relationship.getEndClass());
+        assertTrue(saved.getClass("Figure").isInterface());
+        // The compaction after a recovery writes the dirty classes from the snapshot, so the resize must reach both
+        ClassModel square = saved.getClass("Square");
+        assertEquals(180, square.getPrefWidth());
+        assertTrue(saved.getDirtyClasses().contains(square));
+        assertEquals(180, saved.snapshot().toDiagram().getClass("Square").getPrefWidth());
+    }
+}
@@ -0,0 +1,108 @@
+package data;
+
+import core.class_diagram.Attribute;
+import core.class_diagram.ClassDiagram;
+import core.class_diagram.ClassModel;
+import core.class_diagram.Method;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiagramSearchIndexTest {
+    // The index is shared by the whole application, so this test's file has a name no real diagram has, and no
+    // search matches anything outside it
+    private final File file = new File("Search Test " + UUID.randomUUID() + ".xml");
+
+    @AfterEach
+    void removeTheFile() {
+        DiagramSearchIndex.remove(file);
+    }
+
+    @Test
+    void namesAreSplitOnCaseChangesUnderscoresAndSymbols() {
+        assertEquals(Set.of("getusername", "get", "user", "name"), DiagramSearchIndex.terms("getUserName"));
+        assertEquals(Set.of("xmlparser2", "xml", "parser2"), DiagramSearchIndex.terms("XMLParser2"));
+        assertEquals(Set.of("max_retry_count", "max", "retry", "count"), DiagramSearchIndex.terms("MAX_RETRY_COUNT"));
+        assertEquals(Set.of("list", "string"), DiagramSearchIndex.terms("List<String>"));
+        assertEquals(Set.of("größe", "straße"), DiagramSearchIndex.terms("größe Straße"));
+        assertTrue(DiagramSearchIndex.terms(" <> ").isEmpty());
+    }
+
+    @Test
+    void aWordFindsEveryNameWithATermItStartsWith() {
+        DiagramSearchIndex.update(file, 1, diagram());
+
+        // "zqx" is a whole term of zqxName and getZqxName, and a prefix of the single terms of the other two names
+        List<String> names = names(DiagramSearchIndex.search("zqx", 50));
+        assertEquals(List.of("getZqxName", "zqxName", "zqxName"), names.subList(0, 3).stream().sorted().toList());
+        assertEquals(List.of("Zqxaccount", "zqxaccounts"), names.subList(3, 5));
+        assertEquals(List.of("getZqxName"), names(DiagramSearchIndex.search("GETZ", 50)));
+        assertTrue(DiagramSearchIndex.search("qx", 50).stream().noneMatch(hit -> hit.fileName.equals(file.getName())));
+    }
+
+    @Test
+    void everyWordOfTheQueryMustMatchAndWholeTermsComeFirst() {
+        DiagramSearchIndex.update(file, 1, diagram());
+
+        List<DiagramSearchIndex.Hit> hits = DiagramSearchIndex.search("zqx name", 50);
+        assertEquals(List.of("getZqxName", "zqxName", "zqxName"), names(hits).stream().sorted().toList());
+        assertEquals(Set.of("Attribute String", "Method String", "Parameter String in getZqxName"),
+                hits.stream().map(hit -> hit.kind + " " + hit.detail).collect(Collectors.toSet()));
+        assertTrue(hits.stream().allMatch(hit -> hit.className.equals("Zqxaccount") && hit.diagramName.equals("Accounts")));
+
+        // "zqxaccount" is a whole term for the class only, and comes before the longer "zqxaccounts"
+        assertEquals(List.of("Zqxaccount", "zqxaccounts"), names(DiagramSearchIndex.search("zqxaccount", 50)));
+        assertEquals(1, DiagramSearchIndex.search("zqx", 1).size());
+    }
+
+    @Test
+    void aRemovedOrReplacedFileIsNoLongerFound() {
+        DiagramSearchIndex.update(file, 1, diagram());
+        assertTrue(DiagramSearchIndex.isCurrent(file, 1));
+
+        DiagramSearchIndex.update(file, 2, new ClassDiagram("Empty"));
+        assertTrue(DiagramSearchIndex.search("zqx", 50).isEmpty());
+        assertTrue(DiagramSearchIndex.isCurrent(file, 2));
+
+        DiagramSearchIndex.update(file, 3, diagram());
+        DiagramSearchIndex.remove(file);
+        assertTrue(DiagramSearchIndex.search("zqx", 50).isEmpty());
+    }
+
+    @Test
+    void aCurrentFileIsSummarizedFromItsElements() {
+        DiagramSearchIndex.update(file, 1, diagram());
+
+        DiagramSearchIndex.Summary summary = DiagramSearchIndex.summary(file, 1);
+        assertEquals("Accounts", summary.diagramName);
+        assertEquals(2, summary.classCount);
+        assertNull(DiagramSearchIndex.summary(file, 2)); // Changed on disk since it was indexed
+    }
+
+    // Made-up names, so no diagram already indexed on this machine matches the queries
+    private static ClassDiagram diagram() {
+        ClassDiagram diagram = new ClassDiagram("Accounts");
+        ClassModel account = new ClassModel("Zqxaccount", false, 0, 0);
+        account.getAttributes().add(new Attribute("zqxName", "String", "private"));
+        account.getMethods().add(new Method("getZqxName", "String", new ArrayList<>(List.of("String zqxName")), "public"));
+        diagram.addClass(account);
+        ClassModel list = new ClassModel("Ledger", false, 300, 0);
+        list.getAttributes().add(new Attribute("zqxaccounts", "List<Zqxaccount>", "private"));
+        diagram.addClass(list);
+        return diagram;
+    }
+
+    private static List<String> names(List<DiagramSearchIndex.Hit> hits) {
+        return hits.stream().map(hit -> hit.name).toList();
+    }
+}